@@ -0,0 +1,470 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.bdjo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import net.java.bd.tools.xml.BitFieldCodec;
+
+/**
+ * A faster alternative to {@link BDJOReader#readBDJO(java.io.InputStream)}
+ * that decodes a binary BDJO file directly out of a <code>ByteBuffer</code>.
+ * Bit fields are extracted from the buffer using a bit position rather than
+ * going through <code>DataInputStream</code> and <code>BitStreamIO</code>,
+ * and ISO646 strings which repeat from file to file (language codes,
+ * playlist names, font and base directory names) are shared from a small
+ * string table instead of being allocated every time they are seen.
+ * <p>
+ * The layout decoded here is exactly the one read by <code>BDJOReader</code>,
+ * and the resulting <code>BDJO</code> object is the same.  Use
+ * <code>BDJOReader</code> when the reads need to be traced.
+ * <p>
+ * An instance is not thread-safe, but it can be reused to read any number of
+ * files on one thread, which lets the string table pay off across a batch.
+ *
+ * @see BDJOReader
+ */
+public final class BDJOBufferReader {
+
+    private static final int STRING_TABLE_SIZE = 256;   // Must be power of 2
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final String[] stringTable = new String[STRING_TABLE_SIZE];
+    private ByteBuffer fileBuf;
+    private ByteBuffer buf;
+    private int base;
+    private long bitPos;
+    private final long[] fields = new long[8];  // BitFieldCodec values
+
+    /**
+     * Creates a new reader with an empty string table.
+     */
+    public BDJOBufferReader() {
+    }
+
+    /**
+     * Reads a binary BDJO file.
+     *
+     * @see #read(File)
+     */
+    public static BDJO readBDJO(File file) throws IOException {
+        return new BDJOBufferReader().read(file);
+    }
+
+    /**
+     * Reads a binary BDJO structure from the remaining bytes of the
+     * given buffer.  The position of the buffer is not changed.
+     */
+    public static BDJO readBDJO(ByteBuffer buffer) throws IOException {
+        return new BDJOBufferReader().read(buffer);
+    }
+
+    /**
+     * Reads a binary BDJO file, sharing this reader's string table.  Small
+     * files (which is nearly all of them) are read into a heap buffer that
+     * is kept for the next call; larger files are memory-mapped.
+     */
+    public BDJO read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return read(channel.map(FileChannel.MapMode.READ_ONLY,
+                                        0, size));
+            }
+            if (fileBuf == null || fileBuf.capacity() < size) {
+                fileBuf = ByteBuffer.allocate((int) size);
+            }
+            fileBuf.clear();
+            fileBuf.limit((int) size);
+            while (fileBuf.hasRemaining()) {
+                if (channel.read(fileBuf) < 0) {
+                    break;
+                }
+            }
+            fileBuf.flip();
+            return read(fileBuf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a binary BDJO structure from the remaining bytes of the given
+     * buffer, sharing this reader's string table.  The position of the
+     * buffer is not changed.
+     */
+    public BDJO read(ByteBuffer buffer) throws IOException {
+        buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        base = buf.position();
+        bitPos = 0;
+        try {
+            return readBDJO();
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("Unexpected end of BDJO data at byte "
+                                  + (bitPos >> 3), ex);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Unexpected end of BDJO data at byte "
+                                  + (bitPos >> 3), ex);
+        } finally {
+            buf = null;
+        }
+    }
+
+    private int offset(int numBytes) throws IOException {
+        if ((bitPos & 7) != 0) {
+            throw new IOException((bitPos & 7) + " stray bits at byte "
+                                  + (bitPos >> 3));
+        }
+        int off = base + (int) (bitPos >> 3);
+        bitPos += numBytes * 8L;
+        return off;
+    }
+
+    private byte readByte() throws IOException {
+        return buf.get(offset(1));
+    }
+
+    private int readUnsignedByte() throws IOException {
+        return buf.get(offset(1)) & 0xff;
+    }
+
+    private short readShort() throws IOException {
+        return buf.getShort(offset(2));
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return buf.getShort(offset(2)) & 0xffff;
+    }
+
+    private int readInt() throws IOException {
+        return buf.getInt(offset(4));
+    }
+
+    private void skipBytes(int numBytes) throws IOException {
+        offset(numBytes);
+    }
+
+    /**
+     * Reads up to 32 bits, most significant bit first.  Bits that straddle
+     * a byte boundary are combined from at most five bytes.
+     */
+    private int readBits(int numBits) {
+        int result = 0;
+        while (numBits > 0) {
+            int b = buf.get(base + (int) (bitPos >> 3)) & 0xff;
+            int bitsInByte = 8 - (int) (bitPos & 7);
+            int n = (numBits < bitsInByte) ? numBits : bitsInByte;
+            int shift = bitsInByte - n;
+            result = (result << n) | ((b >> shift) & ((1 << n) - 1));
+            bitPos += n;
+            numBits -= n;
+        }
+        return result;
+    }
+
+    private String readISO646String(int len) throws IOException {
+        int off = offset(len);
+        int hash = len;
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + buf.get(off + i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (STRING_TABLE_SIZE - 1);
+        String s = stringTable[slot];
+        if (s != null && matches(s, off, len)) {
+            return s;
+        }
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = iso646Char(buf.get(off + i));
+        }
+        s = new String(chars);
+        stringTable[slot] = s;
+        return s;
+    }
+
+    private boolean matches(String s, int off, int len) {
+        if (s.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != iso646Char(buf.get(off + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same mapping as the ISO646-US charset decoder used by BDJOReader
+    private static char iso646Char(byte b) {
+        return (b >= 0) ? (char) b : '\uFFFD';
+    }
+
+    private String readUTF8String(int len) throws IOException {
+        int off = offset(len);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = buf.get(off + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private BDJO readBDJO() throws IOException {
+        String magic = readISO646String(4);
+        if (!magic.equals("BDJO")) {
+            throw new IOException("BDJO magic is missing, not a bdjo file?");
+        }
+        String version = readISO646String(4);
+        BDJO bdjo = new BDJO();
+        bdjo.setVersion(Version.valueOf("V_" + version));
+
+        // Six start addresses (ignored), then 128 bits reserved_for_future_use
+        skipBytes(6 * 4 + 16);
+
+        bdjo.setTerminalInfo(readTerminalInfo());
+        bdjo.setAppCacheInfo(readAppCacheInfo());
+        bdjo.setTableOfAccessiblePlayLists(readTableOfAccessiblePlayLists());
+        bdjo.setApplicationManagementTable(readApplicationManagementTable());
+        bdjo.setKeyInterestTable(readInt());
+        int dirPathsLength = readUnsignedShort();
+        bdjo.setFileAccessInfo(readISO646String(dirPathsLength));
+        return bdjo;
+    }
+
+    // section 10.2.2.2 TerminalInfo - Syntax
+    private TerminalInfo readTerminalInfo() throws IOException {
+        TerminalInfo ti = new TerminalInfo();
+        skipBytes(4);           // length
+        ti.setDefaultFontFile(readISO646String(5));
+        BitFieldCodec flags = BDJOWriter.TERMINAL_INFO_FLAGS;
+        flags.decode(buf, offset(flags.size()), fields);
+        int id = (int) fields[0];
+        HaviDeviceConfig[] values = HaviDeviceConfig.values();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getId() == id) {
+                ti.setInitialHaviConfig(values[i]);
+                break;
+            }
+        }
+        ti.setMenuCallMask(fields[1] != 0);
+        ti.setTitleSearchMask(fields[2] != 0);
+        ti.setMouseSupported(fields[3] != 0);
+        ti.setMouseInterest(fields[4] != 0);
+        ti.setInitialOutputMode((int) fields[5]);
+        ti.setInitialFrameRate((int) fields[6]);
+        return ti;
+    }
+
+    // section 10.2.3.2 AppCacheInfo - Syntax
+    private AppCacheInfo readAppCacheInfo() throws IOException {
+        AppCacheInfo aci = new AppCacheInfo();
+        skipBytes(4);           // length
+        int numEntries = readUnsignedByte();
+        skipBytes(1);           // reserved_for_word_align
+        AppCacheEntry[] entries = new AppCacheEntry[numEntries];
+        for (int e = 0; e < entries.length; e++) {
+            AppCacheEntry ace = new AppCacheEntry();
+            ace.setType(readByte());
+            ace.setName(readISO646String(5));
+            ace.setLanguage(readISO646String(3));
+            skipBytes(3);       // reserved_for_future_use
+            entries[e] = ace;
+        }
+        aci.setEntries(entries);
+        return aci;
+    }
+
+    // section 10.2.4.2 TableOfAccessiblePlayLists - Syntax
+    private TableOfAccessiblePlayLists readTableOfAccessiblePlayLists()
+            throws IOException
+    {
+        skipBytes(4);           // length
+        int numPlayLists = readBits(11);
+        TableOfAccessiblePlayLists tapl = new TableOfAccessiblePlayLists();
+        tapl.setAccessToAllFlag(readBits(1) != 0);
+        tapl.setAutostartFirstPlayListFlag(readBits(1) != 0);
+        readBits(19);           // padding
+        String[] playLists = new String[numPlayLists];
+        for (int p = 0; p < playLists.length; p++) {
+            playLists[p] = readISO646String(5);
+            skipBytes(1);       // reserved_for_word_align
+        }
+        tapl.setPlayListFileNames(playLists);
+        return tapl;
+    }
+
+    private ApplicationManagementTable readApplicationManagementTable()
+            throws IOException
+    {
+        skipBytes(4);           // length
+        int numApps = readUnsignedByte();
+        skipBytes(1);           // reserved_for_word_align
+        AppInfo[] apps = new AppInfo[numApps];
+        for (int a = 0; a < numApps; a++) {
+            AppInfo ai = new AppInfo();
+            ai.setControlCode(readByte());
+            ai.setType((byte) readBits(4));
+            readBits(4);        // padding
+            ai.setOrganizationId(readInt());
+            ai.setApplicationId(readShort());
+
+            // descriptor_tag, reserved_word_align, descriptor_length
+            // and reserved_for_future_use
+            skipBytes(1 + 1 + 4 + 4);
+
+            int appProfileCount = readBits(4);
+            readBits(12);       // padding
+            AppProfile[] profiles = new AppProfile[appProfileCount];
+            for (int p = 0; p < appProfileCount; p++) {
+                AppProfile ap = new AppProfile();
+                ap.setProfile(readShort());
+                ap.setMajorVersion((short) readUnsignedByte());
+                ap.setMinorVersion((short) readUnsignedByte());
+                ap.setMicroVersion((short) readUnsignedByte());
+                skipBytes(1);   // reserved_for_word_align
+                profiles[p] = ap;
+            }
+            ApplicationDescriptor appDesc = new ApplicationDescriptor();
+            appDesc.setProfiles(profiles);
+            appDesc.setPriority((short) readUnsignedByte());
+
+            int bind = readBits(2);
+            Binding[] bindings = Binding.values();
+            if (bind < bindings.length) {
+                appDesc.setBinding(bindings[bind]);
+            }
+            int visibility = readBits(2);
+            Visibility[] visibilities = Visibility.values();
+            if (visibility < visibilities.length) {
+                appDesc.setVisibility(visibilities[visibility]);
+            }
+            readBits(4);        // padding
+
+            int totalNameBytes = readUnsignedShort();
+            if (totalNameBytes > 0) {
+                int nameBytesRead = 0;
+                List<AppName> appNames = new ArrayList<AppName>();
+                while (nameBytesRead < totalNameBytes) {
+                    AppName an = new AppName();
+                    an.setLanguage(readISO646String(3));
+                    int nameLen = readUnsignedByte();
+                    an.setName(readUTF8String(nameLen));
+                    nameBytesRead += 3 + 1 + nameLen;
+                    appNames.add(an);
+                }
+                appDesc.setNames(appNames.toArray(new AppName[appNames.size()]));
+            }
+            // See BDJOReader for the word alignment rules of the
+            // variable-length fields below.
+            if ((totalNameBytes & 0x1) != 0) {
+                skipBytes(1);
+            }
+
+            int iconLength = readUnsignedByte();
+            appDesc.setIconLocator(readISO646String(iconLength));
+            if ((iconLength & 0x1) == 0) {
+                skipBytes(1);
+            }
+            appDesc.setIconFlags(readShort());
+
+            int baseDirLength = readUnsignedByte();
+            appDesc.setBaseDirectory(readISO646String(baseDirLength));
+            if ((baseDirLength & 0x1) == 0) {
+                skipBytes(1);
+            }
+            int classPathLength = readUnsignedByte();
+            appDesc.setClasspathExtension(readISO646String(classPathLength));
+            if ((classPathLength & 0x1) == 0) {
+                skipBytes(1);
+            }
+            int initClassLength = readUnsignedByte();
+            appDesc.setInitialClassName(readUTF8String(initClassLength));
+            if ((initClassLength & 0x1) == 0) {
+                skipBytes(1);
+            }
+
+            int totalParamBytes = readUnsignedByte();
+            if (totalParamBytes > 0) {
+                int paramBytesRead = 0;
+                List<String> params = new ArrayList<String>();
+                while (paramBytesRead < totalParamBytes) {
+                    int paramLen = readUnsignedByte();
+                    params.add(readUTF8String(paramLen));
+                    paramBytesRead += 1 + paramLen;
+                }
+                appDesc.setParameters(params.toArray(new String[params.size()]));
+            }
+            if ((totalParamBytes & 0x1) == 0) {
+                skipBytes(1);
+            }
+
+            ai.setApplicationDescriptor(appDesc);
+            apps[a] = ai;
+        }
+
+        ApplicationManagementTable amt = new ApplicationManagementTable();
+        amt.setApplications(apps);
+        return amt;
+    }
+}
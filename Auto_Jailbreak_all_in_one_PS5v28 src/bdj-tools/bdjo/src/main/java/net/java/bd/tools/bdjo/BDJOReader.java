@@ -58,6 +58,7 @@ package net.java.bd.tools.bdjo;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -71,12 +72,10 @@ import java.util.List;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.helpers.DefaultValidationEventHandler;
 
 import com.hdcookbook.grin.util.BitStreamIO;
+import net.java.bd.tools.xml.JAXBRegistry;
         
 /**
  * A class to read BDJO object specified as JavaFX object literal
@@ -117,12 +116,7 @@ public final class BDJOReader {
     }
     
     public static BDJO readXML(Reader reader) throws JAXBException {
-        String className = BDJO.class.getName();
-        String pkgName = className.substring(0, className.lastIndexOf('.'));
-        JAXBContext jc = JAXBContext.newInstance(pkgName);
-        Unmarshaller u = jc.createUnmarshaller();
-        u.setEventHandler(new DefaultValidationEventHandler());
-        return (BDJO) u.unmarshal(reader);
+        return JAXBRegistry.unmarshal(BDJO.class, reader);
     }
     
     public static BDJO readXML(String str) throws JAXBException {
@@ -613,7 +607,11 @@ public final class BDJOReader {
             BufferedReader reader = new BufferedReader(new FileReader(args[0]));
             bdjo = readFX(reader);
         } else if (args[0].endsWith(".bdjo")) {
-            bdjo = readBDJO(new BufferedInputStream(new FileInputStream(args[0])));
+            if (TRACE) {
+                bdjo = readBDJO(new BufferedInputStream(new FileInputStream(args[0])));
+            } else {
+                bdjo = BDJOBufferReader.readBDJO(new File(args[0]));
+            }
         } else {
             BufferedReader reader = new BufferedReader(new FileReader(args[0]));
             bdjo = readXML(reader);
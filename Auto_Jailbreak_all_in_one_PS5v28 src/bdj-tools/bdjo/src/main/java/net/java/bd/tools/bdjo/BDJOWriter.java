@@ -71,13 +71,12 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
-import javax.xml.bind.helpers.DefaultValidationEventHandler;
 
 import com.hdcookbook.grin.util.BitStreamIO;
+import net.java.bd.tools.xml.BitFieldCodec;
+import net.java.bd.tools.xml.JAXBRegistry;
 
 /**
  * A class to write BDJO object as JavaFX object literal
@@ -234,14 +233,7 @@ public final class BDJOWriter {
     }
     
     public static void writeXML(BDJO bdjo, Writer writer) throws JAXBException {
-        String className = BDJO.class.getName();
-        String pkgName = className.substring(0, className.lastIndexOf('.'));
-        JAXBContext jc = JAXBContext.newInstance(pkgName);
-        Marshaller m = jc.createMarshaller();
-        m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        m.setEventHandler(new DefaultValidationEventHandler());
-        m.marshal(bdjo, writer);
+        JAXBRegistry.marshal(bdjo, writer);
     }
     
     public static String writeXML(BDJO bdjo) throws JAXBException {
@@ -271,13 +263,20 @@ public final class BDJOWriter {
         return getUTF8Bytes(str).length;
     }
     
+    // The TerminalInfo fields that follow default_font_file_name, see
+    // section 10.2.2.2.  Also used by BDJOBufferReader.
+    static final BitFieldCodec TERMINAL_INFO_FLAGS = BitFieldCodec.compile(
+            "initial_HAVi_configuration_id:4 menu_call_mask:1" +
+            " title_search_mask:1 mouse_supported_flag:1" +
+            " mouse_interest_flag:1 initial_output_mode_preference:2" +
+            " initial_frame_rate:4 reserved_for_future_use:26");
+
     // section 10.2.2.2 TerminalInfo - Syntax
     private static byte[] writeTerminalInfoBuf(TerminalInfo ti) 
             throws IOException 
     {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        BitStreamIO bio = new BitStreamIO();
         // write "length" field
         final int length = 5 /* default font file name */ +
                      1 /* havi config, menu call mask, title search mask */ +
@@ -293,17 +292,14 @@ public final class BDJOWriter {
         // write initial_HAVi_configuration_id, menu_call_mask and
         // Title_search_mask fields (4 bits + 1 bit + 1 bit)
         HaviDeviceConfig config = ti.getInitialHaviConfig();
-        int id = config.getId();
-        bio.writeBits(dos, 4, config.getId());
-        bio.writeBits(dos, 1, (ti.isMenuCallMask() ? 1 : 0));
-        bio.writeBits(dos, 1, (ti.isTitleSearchMask() ? 1 : 0));
-        bio.writeBits(dos, 1, (ti.isMouseSupported() ? 1 : 0));
-        bio.writeBits(dos, 1, (ti.isMouseInterest() ? 1 : 0));
-        bio.writeBits(dos, 2, ti.getInitialOutputMode());
-        bio.writeBits(dos, 4, ti.getInitialFrameRate());
-        bio.writeBitsLong(dos, 26, 0);  // padding
-        
-        bio.assertByteAligned(1);
+        TERMINAL_INFO_FLAGS.write(dos, new long[] {
+            config.getId(),
+            ti.isMenuCallMask() ? 1 : 0,
+            ti.isTitleSearchMask() ? 1 : 0,
+            ti.isMouseSupported() ? 1 : 0,
+            ti.isMouseInterest() ? 1 : 0,
+            ti.getInitialOutputMode(),
+            ti.getInitialFrameRate() });
         dos.flush();
         return bos.toByteArray();
     }
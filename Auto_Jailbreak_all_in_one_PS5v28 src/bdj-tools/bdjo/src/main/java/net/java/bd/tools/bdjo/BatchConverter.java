@@ -0,0 +1,420 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.bdjo;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Converts a whole directory tree of BDJO files in one JVM.  Every
+ * <code>.xml</code> file under the source directory is converted to a
+ * <code>.bdjo</code> file, and every <code>.bdjo</code> file to an
+ * <code>.xml</code> file, at the same relative path under the destination
+ * directory.  The two trees must not be the same or nested in one another,
+ * and no two inputs may map to the same output, e.g. <code>a.xml</code>
+ * and <code>A.xml</code> on a case-insensitive file system.
+ * <p>
+ * Files are converted in parallel on a bounded fork-join pool.  Each output
+ * is written to a temporary file next to it and then moved into place, so a
+ * failed or interrupted run never leaves a truncated output behind.  The
+ * SHA-256 digest of each input is recorded in {@link #CACHE_FILE_NAME} in
+ * the destination directory, and inputs whose digest is unchanged since the
+ * last run are skipped, as long as their output still exists.
+ * <p>
+ * At the end, a summary with the time taken by each file is printed,
+ * slowest first.
+ */
+public final class BatchConverter {
+
+    /**
+     * Name of the file in the destination directory that holds the input
+     * digests from the previous run.
+     */
+    public static final String CACHE_FILE_NAME = ".bdjo-digests";
+
+    private final File srcDir;
+    private final File dstDir;
+    private final int parallelism;
+
+    private final ThreadLocal<BDJOBufferReader> readers
+            = new ThreadLocal<BDJOBufferReader>() {
+        protected BDJOBufferReader initialValue() {
+            return new BDJOBufferReader();
+        }
+    };
+
+    /**
+     * The outcome of converting one file.
+     */
+    public static final class Result {
+        private final String path;
+        private final boolean skipped;
+        private final long nanos;
+        private final Exception error;
+
+        Result(String path, boolean skipped, long nanos, Exception error) {
+            this.path = path;
+            this.skipped = skipped;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        /** The path of the input, relative to the source directory. */
+        public String getPath() {
+            return path;
+        }
+
+        /** True if the input was unchanged and not converted again. */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        /** Wall time spent on this file, in nanoseconds. */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /** The error that stopped the conversion, or null. */
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Creates a batch converter.
+     *
+     * @param srcDir        Directory tree to read <code>.xml</code> and
+     *                      <code>.bdjo</code> files from
+     * @param dstDir        Directory tree to write the converted files to
+     * @param parallelism   Maximum number of files converted at once
+     */
+    public BatchConverter(File srcDir, File dstDir, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism " + parallelism);
+        }
+        this.srcDir = srcDir;
+        this.dstDir = dstDir;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Converts every file in the source tree that has changed since the
+     * last run.
+     *
+     * @return  One result per input file, in no particular order
+     *
+     * @throws IOException if the source and destination trees are the same
+     *                     or nested, or two inputs map to the same output
+     */
+    public List<Result> run() throws IOException, InterruptedException {
+        final Path src = srcDir.getCanonicalFile().toPath();
+        final Path dst = dstDir.getCanonicalFile().toPath();
+        if (dst.startsWith(src) || src.startsWith(dst)) {
+            throw new IOException("Source directory " + src
+                    + " and destination directory " + dst
+                    + " must not be the same or inside one another");
+        }
+        final List<Path> inputs = new ArrayList<Path>();
+        Stream<Path> walk = Files.walk(src);
+        try {
+            walk.filter(p -> Files.isRegularFile(p) && outputName(p) != null)
+                .forEach(inputs::add);
+        } finally {
+            walk.close();
+        }
+
+        // Outputs are compared ignoring case, so the check doesn't depend
+        // on the file system we happen to run on.
+        Map<String, Path> outputs = new HashMap<String, Path>();
+        for (Path input : inputs) {
+            String out = outputPath(src, dst, input).toString()
+                    .toLowerCase(Locale.ROOT);
+            Path other = outputs.put(out, input);
+            if (other != null) {
+                throw new IOException("Inputs " + other + " and " + input
+                        + " would both be converted to "
+                        + outputPath(src, dst, input));
+            }
+        }
+
+        Files.createDirectories(dst);
+        final File cacheFile = new File(dstDir, CACHE_FILE_NAME);
+        final Properties oldDigests = new Properties();
+        if (cacheFile.isFile()) {
+            InputStream in = Files.newInputStream(cacheFile.toPath());
+            try {
+                oldDigests.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        final Map<String, String> newDigests
+                = new ConcurrentHashMap<String, String>();
+
+        List<Result> results = new ArrayList<Result>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Path input : inputs) {
+                futures.add(pool.submit(
+                        () -> convert(src, dst, input, oldDigests,
+                                      newDigests)));
+            }
+            for (Future<Result> f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException ex) {
+                    throw new IOException(ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Properties digests = new Properties();
+        digests.putAll(newDigests);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        digests.store(bos, "SHA-256 of BDJO batch inputs");
+        writeAtomically(cacheFile.toPath(), bos.toByteArray());
+        return results;
+    }
+
+    private static String outputName(Path input) {
+        String name = input.getFileName().toString();
+        if (name.endsWith(".xml")) {
+            return name.substring(0, name.length() - 4) + ".bdjo";
+        } else if (name.endsWith(".bdjo")) {
+            return name.substring(0, name.length() - 5) + ".xml";
+        }
+        return null;
+    }
+
+    private static Path outputPath(Path src, Path dst, Path input) {
+        return dst.resolve(src.relativize(input)).resolveSibling(
+                outputName(input));
+    }
+
+    private Result convert(Path src, Path dst, Path input,
+                           Properties oldDigests,
+                           Map<String, String> newDigests)
+    {
+        long start = System.nanoTime();
+        String key = src.relativize(input).toString()
+                .replace(File.separatorChar, '/');
+        Path output = outputPath(src, dst, input);
+        try {
+            byte[] data = Files.readAllBytes(input);
+            String digest = sha256(data);
+            if (digest.equals(oldDigests.getProperty(key))
+                    && Files.isRegularFile(output))
+            {
+                newDigests.put(key, digest);
+                return new Result(key, true, System.nanoTime() - start, null);
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            if (key.endsWith(".xml")) {
+                Reader r = new InputStreamReader(new ByteArrayInputStream(data),
+                                                 StandardCharsets.UTF_8);
+                BDJO bdjo = BDJOReader.readXML(r);
+                BDJOWriter.writeBDJO(bdjo, bos);
+            } else {
+                BDJO bdjo = readers.get().read(ByteBuffer.wrap(data));
+                Writer w = new BufferedWriter(new OutputStreamWriter(bos,
+                        StandardCharsets.UTF_8));
+                BDJOWriter.writeXML(bdjo, w);
+                w.flush();
+            }
+            Files.createDirectories(output.getParent());
+            writeAtomically(output, bos.toByteArray());
+            newDigests.put(key, digest);
+            return new Result(key, false, System.nanoTime() - start, null);
+        } catch (Exception ex) {
+            return new Result(key, false, System.nanoTime() - start, ex);
+        }
+    }
+
+    private static void writeAtomically(Path target, byte[] data)
+            throws IOException
+    {
+        Path tmp = Files.createTempFile(target.getParent(),
+                                        target.getFileName().toString(),
+                                        ".tmp");
+        try {
+            OutputStream out = Files.newOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+        byte[] d = md.digest(data);
+        StringBuilder sb = new StringBuilder(d.length * 2);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(d[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints a summary of a run, with the slowest files first.
+     */
+    public static void printSummary(List<Result> results, long totalNanos,
+                                    PrintStream out)
+    {
+        List<Result> sorted = new ArrayList<Result>(results);
+        Collections.sort(sorted, new Comparator<Result>() {
+            public int compare(Result a, Result b) {
+                return Long.compare(b.getNanos(), a.getNanos());
+            }
+        });
+        int converted = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (Result r : sorted) {
+            String status;
+            if (r.getError() != null) {
+                status = "FAILED";
+                failed++;
+            } else if (r.isSkipped()) {
+                status = "unchanged";
+                skipped++;
+            } else {
+                status = "converted";
+                converted++;
+            }
+            out.printf("%10.3f ms  %-9s  %s%n", r.getNanos() / 1000000.0,
+                       status, r.getPath());
+            if (r.getError() != null) {
+                out.println("               " + r.getError());
+            }
+        }
+        out.printf("%d converted, %d unchanged, %d failed in %.3f ms%n",
+                   converted, skipped, failed, totalNanos / 1000000.0);
+    }
+
+    /**
+     * Usage: <code>BatchConverter &lt;src-dir&gt; &lt;dst-dir&gt;
+     * [&lt;threads&gt;]</code>.  Exits with status 1 if any file failed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.printf("Usage: %s <src-dir> <dst-dir> [<threads>]%n",
+                              BatchConverter.class.getName());
+            System.exit(1);
+        }
+        int threads = (args.length == 3)
+                ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        List<Result> results = new BatchConverter(new File(args[0]),
+                new File(args[1]), threads).run();
+        printSummary(results, System.nanoTime() - start, System.out);
+        for (Result r : results) {
+            if (r.getError() != null) {
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -55,11 +55,10 @@
 
 package net.java.bd.tools.bdjo;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -71,6 +70,10 @@ import java.io.Writer;
 import javax.script.ScriptException;
 import javax.xml.bind.JAXBException;
 
+import com.hdcookbook.grin.util.BitStreamIO;
+import net.java.bd.tools.xml.DigestManifest;
+import net.java.bd.tools.xml.JAXBRegistry;
+
 /**
  * Utility class to convert between different serializarion 
  * formats for BDJO.
@@ -137,22 +140,93 @@ public final class Converter {
         BDJOWriter.writeBDJO(bdjo, out);
     }
     
+    /**
+     * Converts any number of files in one JVM.  The arguments are pairs of
+     * input and output file names, optionally preceded by
+     * <code>-schema &lt;bdjo.xsd&gt;</code> to validate XML input and
+     * output against the schema, and by
+     * <code>-manifest &lt;file&gt;</code> to skip pairs whose input and
+     * output have not changed since they were last converted by this
+     * build of the converter, with the same schema (see
+     * {@link DigestManifest}).  The JAXB context is shared by all the
+     * conversions.
+     * <p>
+     * <code>-batch &lt;src-dir&gt; &lt;dst-dir&gt; [&lt;threads&gt;]</code>
+     * converts a whole directory tree instead; see {@link BatchConverter}.
+     */
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
-            System.err.printf("Usage: %s <file-1> <file-2>", Converter.class.getName());
+        if (args.length > 0 && args[0].equals("-batch")) {
+            String[] batchArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, batchArgs, 0, batchArgs.length);
+            BatchConverter.main(batchArgs);
+            return;
+        }
+        int first = 0;
+        DigestManifest manifest = null;
+        File schema = null;
+        while (args.length >= first + 2 && args[first].startsWith("-")) {
+            if (args[first].equals("-schema")) {
+                schema = new File(args[first + 1]);
+                JAXBRegistry.setSchema(BDJO.class, schema);
+            } else if (args[first].equals("-manifest")) {
+                manifest = new DigestManifest(new File(args[first + 1]));
+            } else {
+                break;
+            }
+            first += 2;
+        }
+        if (args.length == first || ((args.length - first) % 2) != 0) {
+            System.err.printf("Usage: %s [-schema <xsd>] [-manifest <file>] <file-1> <file-2> [<file-1> <file-2> ...]",
+                              Converter.class.getName());
             System.exit(1);
         }
-        String in = args[0];
-        String out = args[1];
+        String tool = null;
+        if (manifest != null) {
+            // Validating against a different schema can change the result
+            tool = DigestManifest.toolVersion(Converter.class,
+                                              DigestManifest.class,
+                                              BitStreamIO.class);
+            if (schema != null) {
+                tool += "+" + DigestManifest.digest(schema).substring(0, 16);
+            }
+        }
+        for (int i = first; i < args.length; i += 2) {
+            File in = new File(args[i]);
+            File out = new File(args[i + 1]);
+            if (manifest != null && manifest.isUpToDate(in, out, tool)) {
+                System.out.println(args[i + 1] + " is up to date.");
+                continue;
+            }
+            if (!convert(args[i], args[i + 1])) {
+                System.err.println("Unsupported input format");
+                System.exit(1);
+            }
+            if (manifest != null && out.isFile()) {
+                manifest.record(in, out, tool);
+            }
+        }
+    }
+
+    private static boolean convert(String in, String out) throws Exception {
         if (in.endsWith(".fx")) {
             if (out.endsWith(".xml")) {
                 Reader r = new BufferedReader(new FileReader(in));
                 Writer o = new BufferedWriter(new FileWriter(out));
-                fxToXML(r, o);
+                try {
+                    fxToXML(r, o);
+                } finally {
+                    r.close();
+                    o.close();
+                }
             } else if (out.endsWith(".bdjo")) {
                 Reader r = new BufferedReader(new FileReader(in));
                 OutputStream o = new BufferedOutputStream(new FileOutputStream(out));
-                fxToBDJO(r, o);
+                try {
+                    fxToBDJO(r, o);
+                } finally {
+                    r.close();
+                    o.close();
+                }
             } else {
                 System.err.println("not supported yet!");
             }
@@ -160,31 +234,47 @@ public final class Converter {
             if (out.endsWith(".fx")) {
                 Reader r = new BufferedReader(new FileReader(in));
                 Writer o = new BufferedWriter(new FileWriter(out));
-                xmlToFX(r, o);
+                try {
+                    xmlToFX(r, o);
+                } finally {
+                    r.close();
+                    o.close();
+                }
             }  else if (out.endsWith(".bdjo")) {
                 Reader r = new BufferedReader(new FileReader(in));
                 OutputStream o = new BufferedOutputStream(new FileOutputStream(out));
-                xmlToBDJO(r, o);
+                try {
+                    xmlToBDJO(r, o);
+                } finally {
+                    r.close();
+                    o.close();
+                }
             } else {
                 System.err.println("not supported yet!");
             }
         } else if (in.endsWith(".bdjo")) {
             if (out.endsWith(".fx")) {
-                InputStream i = new BufferedInputStream(
-                        new FileInputStream(in));
+                BDJO bdjo = BDJOBufferReader.readBDJO(new File(in));
                 Writer o = new BufferedWriter(new FileWriter(out));
-                bdjoToFX(i, o);
+                try {
+                    BDJOWriter.writeFX(bdjo, o);
+                } finally {
+                    o.close();
+                }
             } else if (out.endsWith(".xml")) {
-                InputStream i = new BufferedInputStream(
-                        new FileInputStream(in));
+                BDJO bdjo = BDJOBufferReader.readBDJO(new File(in));
                 Writer o = new BufferedWriter(new FileWriter(out));
-                bdjoToXML(i, o);
+                try {
+                    BDJOWriter.writeXML(bdjo, o);
+                } finally {
+                    o.close();
+                }
             } else {
                 System.err.println("not supported yet!");
             }
         } else {
-            System.err.println("Unsupported input format");
-            System.exit(1);
+            return false;
         }
+        return true;
     }
 }
@@ -99,7 +99,10 @@ import java.awt.Point;
  * they're represented by the (interned) string that hold the 
  * fully-qualified classname of MenuShowCommands, which the binary 
  * reader feeds (once) into Class.forName() so that it can call
- * newInstance().
+ * newInstance().  An xlet can avoid that reflection by creating the
+ * factory instance of MenuShowCommands itself and registering it with
+ * GrinBinaryReader.setExtensionFactory(); the reader then creates
+ * nodes through getInstanceOf(Show, int).
  * <p>
  * To see how the java_command commands get compiled into the show's
  * subclass of GrinXHelper, see
@@ -322,7 +325,21 @@ public class GrinXHelper extends Command implements Node {
 
     /**
      * Instantiate an extension class.  This method must be overridden
-     * by the show's sublcass of GrinXHelper.
+     * by the show's sublcass of GrinXHelper.  When this object is
+     * registered with the binary reader as an extension factory, it
+     * may return null for a type it doesn't create, in which case the
+     * reader falls back to instantiating that type by reflection.  An
+     * override should return null rather than calling this method, which
+     * throws an IOException.  If a registered factory doesn't override 
+     * this method at all, the reader instantiates every extension by
+     * reflection.
+     *
+     * @return  The new node, or null if this factory doesn't create
+     *          nodes of the given type
+     *
+     * @throws IOException if the node can't be created
+     *
+     * @see com.hdcookbook.grin.io.binary.GrinBinaryReader#setExtensionFactory(GrinXHelper)
      **/
     public Node getInstanceOf(Show show, int id) throws IOException {
         throw new IOException();
@@ -63,10 +63,14 @@ import com.hdcookbook.grin.input.RCHandler;
 import com.hdcookbook.grin.input.RCKeyEvent;
 import com.hdcookbook.grin.io.binary.GrinDataInputStream;
 import com.hdcookbook.grin.util.Debug;
+import com.hdcookbook.grin.util.SetupClient;
+import com.hdcookbook.grin.util.SetupManager;
 
 import java.awt.Graphics2D;
 import java.io.IOException;
 import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.Iterator;
 
 /**
  * A segment within a show.  A show is composed of segments, and at all
@@ -118,6 +122,10 @@ public class Segment implements Node {
 
     private int outstandingSetups;
 
+    private SetupClient[] neededClients = null;
+        // The SetupClient instances in the subgraphs of our active 
+        // features.  Populated on demand.
+
     private int setupCheckedInSetup;    
     private int setupCheckedInActive;
         // # of features in setup clause and activate clause that have
@@ -239,6 +247,8 @@ public class Segment implements Node {
          * to reflect this Segment's active feature array.
          **/
         show.showTopGroup.resetVisiblePartsNoAssert(null);
+        int oldPriority = show.setupManager.setSchedulingPriority(
+                                        SetupManager.PRIORITY_NEEDED);
         for (int i = 0; i < activeFeatures.length; i++) {
             int needed = activeFeatures[i].setup();
             outstandingSetups += needed;
@@ -256,6 +266,16 @@ public class Segment implements Node {
                 featureWasActivated[i] = true;
             }
         }
+        show.setupManager.promote(getNeededClients());
+            // A feature we need that was in the setup clause of the 
+            // previous segment is already scheduled, at speculative
+            // priority, and calling setup() on it didn't re-schedule it.
+            // Other speculative work stays behind that of all the
+            // features we need.
+        show.setupManager.setSchedulingPriority(
+                                SetupManager.PRIORITY_SPECULATIVE);
+            // Features in our setup clause are being loaded in advance,
+            // so the setup threads get to them after our active features.
         for (int i = 0; i < settingUpFeatures.length; i++) {
             outstandingSetups += settingUpFeatures[i].setup();
                 // Our count of outstanding setups might be low, if some
@@ -263,6 +283,7 @@ public class Segment implements Node {
                 // segment, but it will never be high.  If it's low, the
                 // result will be some wasted CPU time, but correct behavior.
         }
+        show.setupManager.setSchedulingPriority(oldPriority);
         if (lastSegment != null) {
             lastSegment.deactivate();
         }
@@ -280,6 +301,36 @@ public class Segment implements Node {
         runFeatureSetup();
     }
 
+    //
+    // Get the setup clients that need to be set up for our active features
+    // to be shown.  This is called in the animation thread, when the
+    // segment is activated.
+    //
+    private SetupClient[] getNeededClients() {
+        if (neededClients == null) {
+            HashSet set = new HashSet();
+            for (int i = 0; i < activeFeatures.length; i++) {
+                activeFeatures[i].addSubgraph(set);
+            }
+            int n = 0;
+            for (Iterator it = set.iterator(); it.hasNext(); ) {
+                if (it.next() instanceof SetupClient) {
+                    n++;
+                }
+            }
+            SetupClient[] result = new SetupClient[n];
+            n = 0;
+            for (Iterator it = set.iterator(); it.hasNext(); ) {
+                Object f = it.next();
+                if (f instanceof SetupClient) {
+                    result[n++] = (SetupClient) f;
+                }
+            }
+            neededClients = result;
+        }
+        return neededClients;
+    }
+
     //
     // Called when another segment is activated, and called on the active
     // segment when the show is destroyed.
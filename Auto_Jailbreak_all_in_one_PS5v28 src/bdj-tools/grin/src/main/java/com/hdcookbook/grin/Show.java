@@ -70,6 +70,7 @@ import com.hdcookbook.grin.util.Debug;
 import com.hdcookbook.grin.util.Queue;
 import com.hdcookbook.grin.input.RCHandler;
 import com.hdcookbook.grin.input.RCKeyEvent;
+import com.hdcookbook.grin.io.binary.GrinBinaryReader;
 
 import java.util.Hashtable;
 import java.awt.Component;
@@ -111,7 +112,9 @@ public class Show implements AnimationClient {
 
     /**
      * An object used to hold state during initializaition of a show.
-     * This is nulled out after the show is initialized.
+     * This is nulled out after the show is initialized, unless the
+     * show is being read lazily, in which case nodes can still be
+     * initialized later.
      * This is for internal use only, and is public so that GRIN
      * classes in other packages can access it efficiently.
      **/
@@ -161,8 +164,13 @@ public class Show implements AnimationClient {
     private GrinXHelper segmentDoneCommand = null;
 
     private boolean initialized = false;
+    private boolean nodesInitialized = false;
     private boolean destroyed = false;
 
+    private GrinBinaryReader lazyReader = null;
+        // Non-null if our nodes are being read on demand
+    private Hashtable drawTargetMap = null;
+
     private Queue pendingCommands = new Queue(32);
     private boolean deferringPendingCommands = false;
     private int numTargets = 1;   // number of RenderContext targets needed 
@@ -276,6 +284,41 @@ public class Show implements AnimationClient {
         font = new Font[fontName.length];
     }
 
+    /**
+     * Used to build the show when it's read lazily.  Clients of the
+     * GRIN framework should not call this method directly.
+     *
+     * @see GrinBinaryReader#readShow(Show, boolean)
+     **/
+    public void setLazyReader(GrinBinaryReader reader) {
+        this.lazyReader = reader;
+    }
+
+    /**
+     * Called by the binary reader when a node of a lazily read show
+     * has been built, with the show lock held.  If the show has already
+     * been initialized, the node is initialized here; otherwise,
+     * initialize() will take care of it.  Clients of the GRIN framework
+     * should not call this method directly.
+     **/
+    public void initializeLoadedNode(Object node) {
+        if (node instanceof SetTarget && drawTargetMap != null) {
+            ((SetTarget) node).mapDrawTarget(drawTargetMap);
+        }
+        if (!nodesInitialized) {
+            return;
+        }
+        if (node instanceof Segment) {
+            ((Segment) node).initialize();
+        } else if (node instanceof Feature) {
+            ((Feature) node).initialize();
+        }
+    }
+
+    private boolean isLoaded(Object node) {
+        return lazyReader == null || lazyReader.isLoaded(node);
+    }
+
     /**
      * Sets the scale and offset values for a show. 
      **/
@@ -289,18 +332,22 @@ public class Show implements AnimationClient {
     /**
      * Get one of the fonts recorded for this show.  This is an internal
      * method for use by the text feature, or by other extension features
-     * that use show fonts.  It should only be called from the setup thread,
-     * or from the animation thread after setup.
+     * that use show fonts.  It may be called from any of the setup
+     * threads, and from the animation thread.
      **/
     public Font getFont(int index) {
-        // We're not synchronized, because we're called in well defined
-        // places with no possibility of conflict.
-        if (font[index] == null) {
-            int style = fontStyleSize[index] & 0x03;
-            int size = fontStyleSize[index] >> 2;
-            font[index] = AssetFinder.getFont(fontName[index], style, size);
+        // Several setup threads can set up text features at once, so we
+        // lock the font array.  We don't lock the show, because loading a
+        // font can take a while, and the animation thread needs the show.
+        synchronized(font) {
+            if (font[index] == null) {
+                int style = fontStyleSize[index] & 0x03;
+                int size = fontStyleSize[index] >> 2;
+                font[index] = AssetFinder.getFont(fontName[index], style, 
+                                                  size);
+            }
+            return font[index];
         }
-        return font[index];
     }
 
     /**
@@ -339,17 +386,28 @@ public class Show implements AnimationClient {
             setupManager = new SetupManager(num);
         }
         setupManager.start();
-        for (int i = 0; i < segments.length; i++) {
-            segments[i].initialize();
-        }
-        for (int i = 0; i < features.length; i++) {
-            features[i].initialize();
+        synchronized(this) {
+            // Segments and features of a lazily read show that haven't
+            // been built yet are initialized when they're built.
+            for (int i = 0; i < segments.length; i++) {
+                if (isLoaded(segments[i])) {
+                    segments[i].initialize();
+                }
+            }
+            for (int i = 0; i < features.length; i++) {
+                if (isLoaded(features[i])) {
+                    features[i].initialize();
+                }
+            }
+            nodesInitialized = true;
         }
         
         showTop.initialize();
         showTop.activate(null);
         
-        initializer = null;
+        if (lazyReader == null) {
+            initializer = null;
+        }
     }
 
     /**
@@ -371,7 +429,9 @@ public class Show implements AnimationClient {
         showTop = null;
                  
         for (int i = 0; i < features.length; i++) {
-            features[i].destroy();
+            if (isLoaded(features[i])) {
+                features[i].destroy();
+            }
         }       
         if (stickyImages != null) {
             for (int i = 0; i < stickyImages.length; i++) {
@@ -421,9 +481,10 @@ public class Show implements AnimationClient {
     public void mapDrawTargets(Hashtable targetMap) {
         defaultDrawTarget 
             = ((Integer) targetMap.get(drawTargets[0])).intValue();
+        drawTargetMap = targetMap;
         for (int i = 0; i < features.length; i++) {
             Feature f = features[i];
-            if (f instanceof SetTarget) {
+            if (f instanceof SetTarget && isLoaded(f)) {
                 ((SetTarget) f).mapDrawTarget(targetMap);
             }
         }
@@ -435,7 +496,11 @@ public class Show implements AnimationClient {
      * @return feature, or null if not found
      **/
     public Feature getFeature(String name) {
-        return (Feature) publicFeatures.get(name);
+        Feature f = (Feature) publicFeatures.get(name);
+        if (lazyReader != null && f != null) {
+            lazyReader.loadNode(f);
+        }
+        return f;
     }
 
     /**
@@ -447,7 +512,11 @@ public class Show implements AnimationClient {
      * @return the Command, or null
      **/
     public Command getNamedCommand(String name) {
-        return (Command) publicNamedCommands.get(name);
+        Command c = (Command) publicNamedCommands.get(name);
+        if (lazyReader != null && c != null) {
+            lazyReader.loadNode(c);
+        }
+        return c;
     }
    
     /**
@@ -456,12 +525,17 @@ public class Show implements AnimationClient {
      * @return rc handler, or null if not found
      **/
     public RCHandler getRCHandler(String name) {
-        return (RCHandler) publicRCHandlers.get(name);
+        RCHandler h = (RCHandler) publicRCHandlers.get(name);
+        if (lazyReader != null && h != null) {
+            lazyReader.loadNode(h);
+        }
+        return h;
     }
     
     /**
      * Look up a public segment.  This is done without taking out the show lock.
-     * It's OK to call this before the show is initialized.
+     * It's OK to call this before the show is initialized.  If the show
+     * is being read lazily, the segment is built when it's activated.
      *
      * @return segment, or null if not found.  
      *  
@@ -629,11 +703,7 @@ public class Show implements AnimationClient {
         if (cmds == null || cmds.length == 0) {
             return;
         }
-        synchronized(pendingCommands) {
-            for (int i = 0; i < cmds.length; i++) {
-                pendingCommands.add(cmds[i]);
-            }
-        }
+        pendingCommands.addAll(cmds);
     }
 
     /**
@@ -706,6 +776,9 @@ public class Show implements AnimationClient {
      **/
     public synchronized void doActivateSegment(Segment newS) {
         // We know the lock is being held, and a command is being executed
+        if (lazyReader != null) {
+            lazyReader.loadNode(newS);
+        }
         Segment old = currentSegment;
         synchronized(pendingCommands) {
             currentSegment = newS;
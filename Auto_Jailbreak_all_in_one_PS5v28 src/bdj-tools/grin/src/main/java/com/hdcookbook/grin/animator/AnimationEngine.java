@@ -56,6 +56,7 @@
 package com.hdcookbook.grin.animator;
 
 import com.hdcookbook.grin.util.Debug;
+import com.hdcookbook.grin.util.Metrics;
 import com.hdcookbook.grin.util.Profile;
 import java.awt.AlphaComposite;
 import java.awt.Color;
@@ -117,6 +118,7 @@ public abstract class AnimationEngine implements Runnable {
     private byte[] profileDraw;         // Time spent drawing to buffer
 
     private int drawTargetCollapseThreshold = Integer.MIN_VALUE;
+    private int drawTargetCollapseGrid = 0;
     protected boolean targetsCanOverlap = false;
 
 
@@ -143,7 +145,8 @@ public abstract class AnimationEngine implements Runnable {
      * Note that the algorithm used to collapse render area targets
      * is cubic with the number of targets, so this number should be
      * kept low.  Between one and three would be reasonable, and five
-     * is perhaps a workable maximum.
+     * is perhaps a workable maximum.  If finer-grained damage tracking
+     * is wanted, see setDrawTargetCollapseGrid(int).
      *
      * @param clients           The animation clients we'll support
      *
@@ -178,6 +181,7 @@ public abstract class AnimationEngine implements Runnable {
             renderContext.setCollapseThreshold(drawTargetCollapseThreshold);
         }
         renderContext.setTargetsCanOverlap(targetsCanOverlap);
+        renderContext.setCollapseGrid(drawTargetCollapseGrid);
     }
 
     /**
@@ -202,6 +206,39 @@ public abstract class AnimationEngine implements Runnable {
         }
     }
 
+    /**
+     * Sets how the engine tracks the areas that need to be drawn.  By
+     * default (a cell size of 0), all of the drawing to a render area
+     * target is combined into one bounding rectangle, and then the
+     * targets are collapsed as described in
+     * setDrawTargetCollapseThreshold(int).  This is cheap, but when
+     * many small features animate in different parts of the screen,
+     * their bounding rectangle can be much larger than what changed.
+     * <p>
+     * When a positive cell size is given, the area of each drawing
+     * operation is kept separately, and the areas are merged with the
+     * same collapse threshold rule.  A grid of cells of about the given
+     * size in pixels is used to find the areas near each other, so the
+     * time taken grows about linearly with the number of areas.  Good
+     * values are around the size of a typical animated feature, e.g. 64.
+     * <p>
+     * This method must only be called during the model update.
+     *
+     * @param cellSize  The grid cell size in pixels, or 0 to combine
+     *                  drawing per render area target.
+     *
+     * @see #setDrawTargetCollapseThreshold(int)
+     **/
+    public synchronized void setDrawTargetCollapseGrid(int cellSize) {
+        if (cellSize < 0) {
+            cellSize = 0;
+        }
+        drawTargetCollapseGrid = cellSize;
+        if (renderContext != null) {
+            renderContext.setCollapseGrid(cellSize);
+        }
+    }
+
     /**
      * Sets whether or not overlapping draw targets are allowed.  By default
      * they are not, that is, any draw targets that overlap will be combined
@@ -809,9 +846,22 @@ public abstract class AnimationEngine implements Runnable {
             clients[i].addDisplayAreas(renderContext);  
                 // renderContext contains targets
         }
+        if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
+            Profile.sendCulledFeatures();
+        }
         renderContext.processDrawRecordLists();
         renderContext.collapseTargets();
         renderContext.calculateEraseTargets();
+        if (Metrics.isEnabled()) {
+            long area = 0;
+            for (int i = 0; i < renderContext.numDrawTargets; i++) {
+                Rectangle a = renderContext.drawTargets[i];
+                if (!renderContext.isEmpty(a)) {
+                    area += ((long) a.width) * a.height;
+                }
+            }
+            Metrics.record(Metrics.REPAINT_AREA, area);
+        }
         if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
             Profile.stopTimer(tok);
         }
@@ -56,12 +56,21 @@
 package com.hdcookbook.grin.animator;
 
 import com.hdcookbook.grin.util.Debug;
+import com.hdcookbook.grin.util.Metrics;
 import com.hdcookbook.grin.util.Profile;
 
 /**
  * Abstract base class for a clock-based animation engine.  A clock-based
  * engine uses System.currentTimeMillis and Object.wait() to pace the
  * animation to real time.
+ * <p>
+ * Frame times are kept in nanoseconds.  The frame period is generally
+ * not a whole number of milliseconds (e.g. 41.708333... ms at 23.976 fps),
+ * so the fractional part of the period is carried from frame to frame,
+ * and the schedule never drifts from the ideal one.  On a platform
+ * with System.nanoTime(), the engine can be told to use it as the clock
+ * source, and to busy-wait for the last part of each frame period, by
+ * calling setHighResolutionClock() and setBusyWaitTail().
  **/
 
 public abstract class ClockBasedEngine extends AnimationEngine {
@@ -91,6 +100,19 @@ public abstract class ClockBasedEngine extends AnimationEngine {
     private byte[] profileWait;         // Profiling wait() call
     private byte[] profileModel;        // Profiling model update
 
+    private final static long NANOS_PER_FPS_UNIT = 1001L * 1000000000L;
+        // The frame period in ns is NANOS_PER_FPS_UNIT / fps, since fps
+        // is in 1001ths of a second.
+
+    private boolean highResolutionClock = false;
+        // See setHighResolutionClock(boolean)
+    private int busyWaitTail = 0;
+        // In ns.  See setBusyWaitTail(int)
+    private int framesShown = 0;
+    private int framesSkipped = 0;
+    private long frameRenderTime = 0;           // In ns
+    private long maxFrameRenderTime = 0;        // In ns
+
 
     /**
      * Create a new ClockBasedEngine
@@ -221,6 +243,132 @@ public abstract class ClockBasedEngine extends AnimationEngine {
         }
     }
 
+    /**
+     * Select System.nanoTime() as the clock source for pacing frames.
+     * By default, System.currentTimeMillis() is used, because
+     * nanoTime() is not available on a Java 1.4 platform like BD-J.  Only
+     * call this with a true value on a platform where nanoTime()
+     * exists.  Changing the clock source re-starts the frame clock, just
+     * like changing the frame rate does.
+     *
+     * @param highResolution  true to use System.nanoTime()
+     *
+     * @see #setBusyWaitTail(int)
+     **/
+    public synchronized void setHighResolutionClock(boolean highResolution) {
+        highResolutionClock = highResolution;
+        notifyAll();
+    }
+
+    /**
+     * Set the length of the busy-wait tail.  Object.wait() typically
+     * can't wake up the animation thread with better than millisecond
+     * accuracy.  When the time remaining before the next frame is less than
+     * the tail, the animation thread spins (calling Thread.yield()) instead
+     * of waiting.  This costs CPU time, so the tail should be kept short,
+     * and it's only useful with the high resolution clock.  The default
+     * value is 0, which means that the engine never busy-waits.
+     * <p>
+     * The engine holds its monitor while it spins, so a call to setFps(),
+     * pause() or similar can be delayed by up to the tail's length.
+     *
+     * @param microseconds      The tail length, in microseconds.
+     *
+     * @throws IllegalArgumentException if microseconds < 0 or
+     *                                  microseconds > 1,000,000
+     *
+     * @see #setHighResolutionClock(boolean)
+     **/
+    public synchronized void setBusyWaitTail(int microseconds) {
+        if (microseconds < 0 || microseconds > 1000000) {
+            throw new IllegalArgumentException();
+        }
+        busyWaitTail = microseconds * 1000;
+    }
+
+    /**
+     * Get the number of frames shown since the last call to
+     * resetFrameStatistics().  This value is updated by the animation
+     * thread without synchronization, so it's only approximate when
+     * read from another thread.
+     *
+     * @see #getFramesSkipped()
+     **/
+    public int getFramesShown() {
+        return framesShown;
+    }
+
+    /**
+     * Get the number of frames whose model was updated, but that were
+     * not shown because the animation fell behind, since the last call
+     * to resetFrameStatistics().  This value is updated by the animation
+     * thread without synchronization, so it's only approximate when
+     * read from another thread.
+     *
+     * @see #getFramesShown()
+     **/
+    public int getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /**
+     * Get the total time spent rendering the frames counted by
+     * getFramesShown().  Rendering a frame covers working out the areas
+     * that changed, erasing and painting them, and getting them to the
+     * screen, e.g. the blit of a DirectDrawEngine.  Dividing by
+     * getFramesShown() gives the average; the clock is the one
+     * selected by setHighResolutionClock(), so with the default clock,
+     * the time has millisecond resolution.  Like the frame counts, this 
+     * is only approximate when read from another thread.
+     *
+     * @return the time in nanoseconds
+     *
+     * @see #getMaxFrameRenderTime()
+     * @see #resetFrameStatistics()
+     **/
+    public long getFrameRenderTime() {
+        return frameRenderTime;
+    }
+
+    /**
+     * Get the longest time spent rendering a single frame since the last
+     * call to resetFrameStatistics().
+     *
+     * @return the time in nanoseconds
+     *
+     * @see #getFrameRenderTime()
+     **/
+    public long getMaxFrameRenderTime() {
+        return maxFrameRenderTime;
+    }
+
+    /**
+     * Reset the counts of frames shown and skipped, and the frame
+     * render times, to zero.
+     *
+     * @see #getFramesShown()
+     * @see #getFramesSkipped()
+     * @see #getFrameRenderTime()
+     **/
+    public void resetFrameStatistics() {
+        framesShown = 0;
+        framesSkipped = 0;
+        frameRenderTime = 0;
+        maxFrameRenderTime = 0;
+    }
+
+    //
+    // Get the current time in ns.  The currentTimeMillis() value times
+    // 10^6 doesn't overflow a long until the year 2262.
+    //
+    private static long getClock(boolean highResolution) {
+        if (highResolution) {
+            return System.nanoTime();
+        } else {
+            return System.currentTimeMillis() * 1000000L;
+        }
+    }
+
 
     /**
      * {@inheritDoc}
@@ -231,26 +379,30 @@ public abstract class ClockBasedEngine extends AnimationEngine {
         // the variables local.
         //
 
-        // The int frame number wraps after about 2.8 years, so we do
-        // take care of this case.  For the time in miliseconds, which we
-        // further multiply by 1001, 2^63 / (1000 * 1001) seconds is
-        // 300,000 years, so we don't worry about that wrapping.
-        // startFrame and skippedFrames might wrap, but they're just
-        // for debugging messages, so we don't care.
-
-        long startFrameTime = System.currentTimeMillis();
-        long nextFrameTime = startFrameTime;
+        // Times are in ns.  Rather than computing the time of frame n
+        // as startFrameTime + n / fps, which would overflow a long after
+        // a few days of animation in ns, we add the frame period to
+        // nextFrameTime for each frame.  The period is generally not
+        // a whole number of ns, so we keep the remainder in
+        // periodFraction, which is in units of 1/fps ns.  This keeps
+        // the schedule exact, without drift.
+        // startFrame might wrap, but it's just for debugging
+        // messages, so we don't care.
+
+        boolean highResolution = highResolutionClock;
+        long nextFrameTime = getClock(highResolution);
         int fps = newFps; 
-        int maxModelTime = (10010 * MODEL_PERCENT_TIME) / fps;
-                // fps is in 1001ths of a second, so this gives us
-                // the max reasonable time for a model update, assuming
+        long framePeriod = NANOS_PER_FPS_UNIT / fps;
+        int framePeriodRemainder = (int) (NANOS_PER_FPS_UNIT % fps);
+        int periodFraction = 0;
+        long maxModelTime = (framePeriod * MODEL_PERCENT_TIME) / 100;
+                // The max reasonable time for a model update, assuming
                 // no more than 50% of clock time for model update is OK.
         int frame = 0;
-                // Adjusted for units, the following invariant always holds:
-                //    nextFrameTime = startFrameTime + frame / fps,
-        int startFrame = 0;    // frame # at startFrameTime, used only for debug
-        int skippedFrames = 0; // used only for debug
+        int startFrame = 0;    // frame # at last reset, used only for debug
         long currTime;
+        long lastShownTime = 0;         // Used only for profiling
+        boolean haveLastShownTime = false;
         boolean wasPaused = false;
         boolean modelOnProbation = false;
         modelTimeSkipped = 0;
@@ -278,10 +430,10 @@ public abstract class ClockBasedEngine extends AnimationEngine {
 
 
                 // Handle frame wrapping.  At 24fps, this comes after
-                // 2.8 years of animation.
+                // 2.8 years of animation.  The frame number is only
+                // used for debugging, so we just start counting again.
                 //
                 if (frame == Integer.MAX_VALUE) {
-                    startFrameTime = nextFrameTime;
                     if (Debug.LEVEL > 0) {
                         startFrame += frame;
                     }
@@ -289,16 +441,21 @@ public abstract class ClockBasedEngine extends AnimationEngine {
                     continue;
                 }
 
-                // Handle setting a new fps value, or coming out of
-                // paused.  We do this by
-                // resetting startFrameTime to the current time,
+                // Handle setting a new fps value, changing the clock
+                // source, or coming out of paused.  We do this by
+                // resetting nextFrameTime to the current time,
                 // and resetting the frame count down to zero.
                 //
-                if (wasPaused || newFps != fps) {
-                    startFrameTime = System.currentTimeMillis();
+                if (wasPaused || newFps != fps
+                    || highResolution != highResolutionClock) 
+                {
+                    highResolution = highResolutionClock;
+                    nextFrameTime = getClock(highResolution);
                         // The next frame will come immediately, even if this
                         // is a bit early.  Changing the frame rate is
                         // rare, and is probably only done while debugging.
+                    periodFraction = 0;
+                    haveLastShownTime = false;
                     if (Debug.LEVEL > 0) {
                         startFrame += frame;
                     }
@@ -327,31 +484,43 @@ public abstract class ClockBasedEngine extends AnimationEngine {
                     } else {
                         wasPaused = false;      // We know paused is false here
                         fps = newFps;
-                        maxModelTime = (10010 * MODEL_PERCENT_TIME) / fps;
+                        framePeriod = NANOS_PER_FPS_UNIT / fps;
+                        framePeriodRemainder 
+                            = (int) (NANOS_PER_FPS_UNIT % fps);
+                        maxModelTime = (framePeriod * MODEL_PERCENT_TIME) / 100;
                         frame = 0;
-                        nextFrameTime = startFrameTime;
                         continue;
                     }
                 }
 
-                currTime = System.currentTimeMillis();
+                currTime = getClock(highResolution);
                 
                 // If we're ahead, wait, and then go back to the
                 // beginning of the loop to detect if our state has
                 // changed (e.g. by a pending request to terminate the
-                // thread, or set the fps value).
+                // thread, or set the fps value).  For the last
+                // busyWaitTail ns, we spin instead.
                 //
                 if (currTime < nextFrameTime) {
-                    int tok;
-                    if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
-                        tok = Profile.startTimer(profileWait, 
-                                                 Profile.TID_ANIMATION);
-                    }
-                    wait(nextFrameTime - currTime);     // can be interrupted
-                    if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
-                        Profile.stopTimer(tok);
+                    long waitTime = nextFrameTime - currTime;
+                    if (waitTime > busyWaitTail) {
+                        waitTime -= busyWaitTail;
+                        int tok;
+                        if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
+                            tok = Profile.startTimer(profileWait, 
+                                                     Profile.TID_ANIMATION);
+                        }
+                        wait(waitTime / 1000000L, 
+                             (int) (waitTime % 1000000L)); // can be interrupted
+                        if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
+                            Profile.stopTimer(tok);
+                        }
+                        continue;
                     }
-                    continue;
+                    do {
+                        Thread.yield();
+                        currTime = getClock(highResolution);
+                    } while (currTime < nextFrameTime);
                 }
             }  // end of synchronized block
 
@@ -362,7 +531,10 @@ public abstract class ClockBasedEngine extends AnimationEngine {
             if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
                 tok = Profile.startTimer(profileModel, Profile.TID_ANIMATION);
             }
+            long modelStart = getClock(highResolution);
             advanceModel();
+            Metrics.record(Metrics.MODEL_TIME, 
+                           (getClock(highResolution) - modelStart) / 1000L);
             if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
                 Profile.stopTimer(tok);
             }
@@ -372,30 +544,41 @@ public abstract class ClockBasedEngine extends AnimationEngine {
             if (fps <= 0) {
                 nextFrameTime = Long.MAX_VALUE;
             } else {
-                nextFrameTime = startFrameTime + 
-                                    (frame * 1000L * 1001L) / ((long) fps);
-                    // startFrameTime + frame / fps, adjusted for units
+                nextFrameTime += framePeriod;
+                periodFraction += framePeriodRemainder;
+                if (periodFraction >= fps) {
+                    periodFraction -= fps;
+                    nextFrameTime++;
+                }
             }
             if (Debug.LEVEL > 0 && (frame % 100) == 0) {
                 Debug.println("Frame " + (frame + startFrame) + ", "
-                              + skippedFrames + " skipped.");
+                              + framesSkipped + " skipped.");
             }
 
             if (currTime < nextFrameTime) {
                 // If we're on time, or behind by less than a frame's time,
                 // update the display and continue through the loop
-                showFrame();
+                if (Debug.PROFILE && Debug.PROFILE_ANIMATION) {
+                    long now = getClock(highResolution);
+                    if (haveLastShownTime) {
+                        Profile.recordFrameTime(
+                                (int) ((now - lastShownTime) / 1000L));
+                    }
+                    lastShownTime = now;
+                    haveLastShownTime = true;
+                }
+                timedShowFrame(highResolution);
                 modelOnProbation = false;
                 continue;
             } 
-            long modelTime = System.currentTimeMillis() - currTime;
+            long modelTime = getClock(highResolution) - currTime;
             if (modelTime <= maxModelTime) {
                 // Otherwise, if our model update didn't take too long,
                 // then drop a frame (don't display it, and proceed to the
                 // next model update)
-                if (Debug.LEVEL > 0) {
-                    skippedFrames++;
-                }
+                framesSkipped++;
+                Metrics.count(Metrics.FRAMES_DROPPED);
                 continue;
             } 
 
@@ -409,17 +592,17 @@ public abstract class ClockBasedEngine extends AnimationEngine {
             //
 
             if (Debug.LEVEL > 1) {
-                Debug.println("    (Model update ran long:  " + modelTime 
-                               + " ms.)");
+                Debug.println("    (Model update ran long:  " 
+                               + (modelTime / 1000000L) + " ms.)");
             }
             if (!modelOnProbation) {
                 modelOnProbation = true;
-                if (Debug.LEVEL > 0) {
-                    skippedFrames++;
-                }
+                framesSkipped++;
+                Metrics.count(Metrics.FRAMES_DROPPED);
                 continue;
             }
 
+
             //
             // Otherwise, our model is falling behind.  In practice, this
             // should be extremely rare - model updates should be much
@@ -444,20 +627,36 @@ public abstract class ClockBasedEngine extends AnimationEngine {
                 // reach here.
                 Debug.assertFail();
             }
-            showFrame();
+            timedShowFrame(highResolution);
             // Now, with the frame shown, we re-set the clock to indicate
             // that we're right on time.
-            currTime = System.currentTimeMillis();
-            modelTimeSkipped = (int) (currTime - nextFrameTime);
+            currTime = getClock(highResolution);
+            modelTimeSkipped = (int) ((currTime - nextFrameTime) / 1000000L);
             nextFrameTime = currTime;
+            periodFraction = 0;
             if (Debug.LEVEL > 0) {
                 Debug.println("WARNING:  Animation f/w detects slow model; "
-                                + "delaying animation by " 
+                                + "delaying animation by "
                                 + modelTimeSkipped + " ms.");
             }
-            startFrameTime = nextFrameTime -
-                                (frame * 1000L * 1001L) / ((long) fps);
         }
     }
 
+    //
+    // Show a frame, and count it in the frame statistics.
+    //
+    private void timedShowFrame(boolean highResolution) 
+            throws InterruptedException 
+    {
+        long start = getClock(highResolution);
+        showFrame();
+        long t = getClock(highResolution) - start;
+        framesShown++;
+        Metrics.count(Metrics.FRAMES_SHOWN);
+        Metrics.record(Metrics.FRAME_TIME, t / 1000L);
+        frameRenderTime += t;
+        if (t > maxFrameRenderTime) {
+            maxFrameRenderTime = t;
+        }
+    }
 }
@@ -0,0 +1,282 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+
+package com.hdcookbook.grin.animator;
+
+/**
+ * A render context that finds the parts of a group that are completely
+ * hidden by the parts drawn after them.  A node with several parts, like
+ * a group, gives its parts this context instead of its own in
+ * addDisplayAreas(), marking the start of each part with startPart().
+ * The DrawRecord instances are held back until finish(), which works out
+ * which parts are covered by a later part's opaque drawing or fill 
+ * guarantee.  The areas of the parts that are still visible are then
+ * passed on to the parent context in their original order, and the node
+ * skips painting the parts that were culled.
+ * <p>
+ * A part's drawing is taken to be the bounding box of its DrawRecord
+ * instances.  A part is culled when that box is inside a single 
+ * DrawRecord of a later part that isn't culled itself, and that either
+ * isn't semi-transparent or was given to guaranteeAreaFilled().  A
+ * part that adds no areas is never culled.  Nothing is culled if the
+ * parent context can't occlude.
+ * <p>
+ * Culling a part simply leaves its areas out of the frame, so the 
+ * animation framework erases what it drew in the last frame, and draws
+ * it in full again once it's uncovered.
+ *
+ * @see RenderContext#canOcclude()
+ **/
+public class CullingContext extends RenderContext {
+
+    private final static byte AREA = 0;
+    private final static byte OPAQUE_AREA = 1;
+    private final static byte GUARANTEE = 2;
+
+    private RenderContext parent;
+    private int currTarget;
+    private int parentTarget;
+
+    // The calls made by the parts, in order.  These are only held between
+    // start() and finish().
+    private DrawRecord[] records = new DrawRecord[8];
+    private byte[] kinds = new byte[8];
+    private int[] targets = new int[8];
+    private int numRecords;
+
+    // partStart[i] is the index in records of the first call of part i
+    private int[] partStart = new int[8];
+    private int numParts;
+
+    public CullingContext() {
+    }
+
+    /**
+     * Start collecting the areas of a node's parts for a frame.
+     *
+     * @param parent    The context given to the node's addDisplayAreas()
+     **/
+    public void start(RenderContext parent) {
+        this.parent = parent;
+        numRecords = 0;
+        numParts = 0;
+        // Find out our parent's target, so that we can give it back to
+        // our parts, and restore it when we're done.
+        parentTarget = parent.setTarget(0);
+        parent.setTarget(parentTarget);
+        currTarget = parentTarget;
+    }
+
+    /**
+     * Mark the start of the next part.  This is called just before
+     * calling the part's addDisplayAreas() with this context.
+     **/
+    public void startPart() {
+        if (numParts == partStart.length) {
+            int[] a = new int[numParts * 2];
+            System.arraycopy(partStart, 0, a, 0, numParts);
+            partStart = a;
+        }
+        partStart[numParts++] = numRecords;
+    }
+
+    /**
+     * Decide which parts are hidden, and pass the areas of the others
+     * on to the parent context.
+     *
+     * @param culled    An array with at least one element per part.  On
+     *                  return, culled[i] is true if part i is hidden.
+     *
+     * @return  the number of parts that were culled
+     **/
+    public int finish(boolean[] culled) {
+        int numCulled = 0;
+        for (int i = numParts - 1; i >= 0; i--) {
+            culled[i] = false;
+            int start = partStart[i];
+            int end = (i + 1 < numParts) ? partStart[i + 1] : numRecords;
+            int x1 = Integer.MAX_VALUE;
+            int y1 = Integer.MAX_VALUE;
+            int x2 = Integer.MIN_VALUE;
+            int y2 = Integer.MIN_VALUE;
+            for (int j = start; j < end; j++) {
+                DrawRecord r = records[j];
+                if (kinds[j] == GUARANTEE 
+                    || r.getWidth() <= 0 || r.getHeight() <= 0) 
+                {
+                    continue;
+                }
+                if (r.getX() < x1) {
+                    x1 = r.getX();
+                }
+                if (r.getY() < y1) {
+                    y1 = r.getY();
+                }
+                if (r.getX() + r.getWidth() > x2) {
+                    x2 = r.getX() + r.getWidth();
+                }
+                if (r.getY() + r.getHeight() > y2) {
+                    y2 = r.getY() + r.getHeight();
+                }
+            }
+            if (x1 < x2 && isCovered(i + 1, x1, y1, x2 - x1, y2 - y1, culled))
+            {
+                culled[i] = true;
+                numCulled++;
+            }
+        }
+
+        int target = parentTarget;
+        for (int i = 0; i < numParts; i++) {
+            if (culled[i]) {
+                continue;
+            }
+            int end = (i + 1 < numParts) ? partStart[i + 1] : numRecords;
+            for (int j = partStart[i]; j < end; j++) {
+                if (targets[j] != target) {
+                    target = targets[j];
+                    parent.setTarget(target);
+                }
+                if (kinds[j] == GUARANTEE) {
+                    parent.guaranteeAreaFilled(records[j]);
+                } else {
+                    parent.addArea(records[j]);
+                }
+            }
+        }
+        if (target != parentTarget) {
+            parent.setTarget(parentTarget);
+        }
+        for (int i = 0; i < numRecords; i++) {
+            records[i] = null;
+        }
+        numRecords = 0;
+        parent = null;
+        return numCulled;
+    }
+
+    //
+    // Is the given area covered by an occluding DrawRecord from one of
+    // the parts that aren't culled, from firstPart on?
+    //
+    private boolean isCovered(int firstPart, int x, int y, int width, 
+                              int height, boolean[] culled) 
+    {
+        for (int i = firstPart; i < numParts; i++) {
+            if (culled[i]) {
+                continue;
+            }
+            int end = (i + 1 < numParts) ? partStart[i + 1] : numRecords;
+            for (int j = partStart[i]; j < end; j++) {
+                if (kinds[j] != AREA 
+                    && records[j].covers(x, y, width, height)) 
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void record(DrawRecord r, byte kind) {
+        if (numRecords == records.length) {
+            int len = numRecords * 2;
+            DrawRecord[] ra = new DrawRecord[len];
+            System.arraycopy(records, 0, ra, 0, numRecords);
+            records = ra;
+            byte[] ka = new byte[len];
+            System.arraycopy(kinds, 0, ka, 0, numRecords);
+            kinds = ka;
+            int[] ta = new int[len];
+            System.arraycopy(targets, 0, ta, 0, numRecords);
+            targets = ta;
+        }
+        records[numRecords] = r;
+        kinds[numRecords] = kind;
+        targets[numRecords] = currTarget;
+        numRecords++;
+    }
+
+    /**
+     * {@inheritDoc}
+     **/
+    public void addArea(DrawRecord r) {
+        record(r, r.isOpaque() ? OPAQUE_AREA : AREA);
+    }
+
+    /**
+     * {@inheritDoc}
+     **/
+    public void guaranteeAreaFilled(DrawRecord r) {
+        record(r, GUARANTEE);
+    }
+
+    /**
+     * {@inheritDoc}
+     **/
+    public int setTarget(int newTarget) {
+        int old = currTarget;
+        currTarget = newTarget;
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     **/
+    public boolean canOcclude() {
+        return parent.canOcclude();
+    }
+}
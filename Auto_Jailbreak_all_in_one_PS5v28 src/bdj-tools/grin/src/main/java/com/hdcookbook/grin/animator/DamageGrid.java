@@ -0,0 +1,294 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package com.hdcookbook.grin.animator;
+
+import java.awt.Rectangle;
+
+/**
+ * This class merges a list of damage rectangles using a spatial hash
+ * of grid cells, so that each rectangle is only compared with the
+ * rectangles near it.  Two rectangles are merged under the same rule
+ * RenderContextBase uses to collapse draw targets:  when they intersect
+ * and targets can't overlap, or when their bounding box is at most
+ * collapseThreshold pixels bigger than the two areas combined.
+ * <p>
+ * All of the working storage is kept and re-used from frame to frame,
+ * so that merging doesn't generate heap traffic once the number of
+ * rectangles has reached its high-water mark.
+ *
+ * @see RenderContextBase#setCollapseGrid(int)
+ **/
+class DamageGrid {
+
+    private final static int NUM_BUCKETS = 256;     // Must be a power of two
+    private final static int BUCKET_MASK = NUM_BUCKETS - 1;
+    private final static int MAX_CELLS = NUM_BUCKETS / 4;
+        // A rectangle covering more cells than this is kept on the
+        // "big" list, and a search covering more cells than this
+        // looks at every rectangle.
+
+    private int cellShift;              // cell size is 1 << cellShift
+
+    private int[][] buckets = new int[NUM_BUCKETS][];
+    private int[] bucketCount = new int[NUM_BUCKETS];
+    private int[] touched = new int[NUM_BUCKETS];
+    private int numTouched = 0;
+
+    private int[] big = new int[8];
+    private int numBig = 0;
+
+    private boolean[] live = new boolean[0];
+    private int[] visited = new int[0];
+    private int visitStamp = 0;
+
+    private Rectangle collapsed = new Rectangle();
+
+    //
+    // Create a grid with cells of at least the given size, in pixels.
+    // It's rounded up to a power of two.
+    //
+    DamageGrid(int cellSize) {
+        cellShift = 0;
+        while ((1 << cellShift) < cellSize && cellShift < 30) {
+            cellShift++;
+        }
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new int[4];
+        }
+    }
+
+    //
+    // Merge rects[0..n-1].  Empty rectangles are ignored.  The result
+    // is left in rects[0..m-1], and m is returned.  The rectangles
+    // that were merged away are left at the end of the array.
+    //
+    int collapse(Rectangle[] rects, int n, int collapseThreshold,
+                 boolean targetsCanOverlap) 
+    {
+        if (live.length < n) {
+            live = new boolean[n * 2];
+            visited = new int[n * 2];
+        }
+        for (int i = 0; i < numTouched; i++) {
+            bucketCount[touched[i]] = 0;
+        }
+        numTouched = 0;
+        numBig = 0;
+
+        for (int k = 0; k < n; k++) {
+            Rectangle cur = rects[k];
+            live[k] = false;
+            if (RenderContextBase.isEmpty(cur) || cur.height <= 0) {
+                continue;
+            }
+            // Keep absorbing neighbors until there are none left to
+            // absorb, since cur grows each time.
+            while (absorbNeighbor(rects, k, collapseThreshold, 
+                                  targetsCanOverlap)) 
+            {
+            }
+            insert(k, cur);
+            live[k] = true;
+        }
+
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            if (live[k]) {
+                Rectangle r = rects[m];
+                rects[m] = rects[k];
+                rects[k] = r;
+                m++;
+            }
+        }
+        return m;
+    }
+
+    //
+    // Look for one rectangle that should be merged into rects[k].  If
+    // one is found, merge it, and return true.
+    //
+    private boolean absorbNeighbor(Rectangle[] rects, int k,
+                                   int collapseThreshold, 
+                                   boolean targetsCanOverlap)
+    {
+        Rectangle cur = rects[k];
+        visitStamp++;
+        if (visitStamp == 0) {          // wrapped around
+            for (int i = 0; i < visited.length; i++) {
+                visited[i] = -1;
+            }
+            visitStamp = 1;
+        }
+
+        // A rectangle at a horizontal distance of d adds at least
+        // d * cur.height pixels when merged, so nothing further away than
+        // collapseThreshold / cur.height can qualify.  Likewise
+        // vertically.
+        int ex = 0;
+        int ey = 0;
+        if (collapseThreshold > 0) {
+            ex = collapseThreshold / cur.height;
+            ey = collapseThreshold / cur.width;
+        }
+        long x1 = (long) cur.x - ex;
+        long y1 = (long) cur.y - ey;
+        long x2 = (long) cur.x + cur.width + ex;
+        long y2 = (long) cur.y + cur.height + ey;
+        long cx1 = x1 >> cellShift;
+        long cy1 = y1 >> cellShift;
+        long cx2 = x2 >> cellShift;
+        long cy2 = y2 >> cellShift;
+
+        if ((cx2 - cx1 + 1) * (cy2 - cy1 + 1) > MAX_CELLS) {
+            for (int j = 0; j < k; j++) {
+                if (live[j] && tryMerge(rects, k, j, collapseThreshold,
+                                        targetsCanOverlap))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = 0; i < numBig; i++) {
+            int j = big[i];
+            if (live[j] && tryMerge(rects, k, j, collapseThreshold,
+                                    targetsCanOverlap))
+            {
+                return true;
+            }
+        }
+        for (long cx = cx1; cx <= cx2; cx++) {
+            for (long cy = cy1; cy <= cy2; cy++) {
+                int b = bucket((int) cx, (int) cy);
+                int[] ids = buckets[b];
+                int count = bucketCount[b];
+                for (int i = 0; i < count; i++) {
+                    int j = ids[i];
+                    if (live[j] && visited[j] != visitStamp) {
+                        visited[j] = visitStamp;
+                        if (tryMerge(rects, k, j, collapseThreshold,
+                                     targetsCanOverlap)) 
+                        {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    //
+    // This is the same test as RenderContextBase.collapseTargets()
+    //
+    private boolean tryMerge(Rectangle[] rects, int k, int j,
+                             int collapseThreshold, boolean targetsCanOverlap)
+    {
+        Rectangle a = rects[k];
+        Rectangle b = rects[j];
+        collapsed.setBounds(a);
+        collapsed.add(b);
+        boolean combine = !targetsCanOverlap && a.intersects(b);
+        if (!combine) {
+            int ac = collapsed.width * collapsed.height;
+            int sum = a.width * a.height + b.width * b.height;
+            combine = ac <= sum + collapseThreshold;
+        }
+        if (combine) {
+            a.setBounds(collapsed);
+            live[j] = false;
+            RenderContextBase.setEmpty(b);
+        }
+        return combine;
+    }
+
+    private void insert(int k, Rectangle r) {
+        long cx1 = ((long) r.x) >> cellShift;
+        long cy1 = ((long) r.y) >> cellShift;
+        long cx2 = ((long) r.x + r.width) >> cellShift;
+        long cy2 = ((long) r.y + r.height) >> cellShift;
+        if ((cx2 - cx1 + 1) * (cy2 - cy1 + 1) > MAX_CELLS) {
+            if (numBig == big.length) {
+                int[] a = new int[big.length * 2];
+                System.arraycopy(big, 0, a, 0, numBig);
+                big = a;
+            }
+            big[numBig++] = k;
+            return;
+        }
+        for (long cx = cx1; cx <= cx2; cx++) {
+            for (long cy = cy1; cy <= cy2; cy++) {
+                int b = bucket((int) cx, (int) cy);
+                int count = bucketCount[b];
+                if (count == 0) {
+                    touched[numTouched++] = b;
+                } else if (buckets[b][count - 1] == k) {
+                    continue;   // Two cells hashed to the same bucket
+                }
+                if (count == buckets[b].length) {
+                    int[] a = new int[count * 2];
+                    System.arraycopy(buckets[b], 0, a, 0, count);
+                    buckets[b] = a;
+                }
+                buckets[b][count] = k;
+                bucketCount[b] = count + 1;
+            }
+        }
+    }
+
+    private static int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & BUCKET_MASK;
+    }
+}
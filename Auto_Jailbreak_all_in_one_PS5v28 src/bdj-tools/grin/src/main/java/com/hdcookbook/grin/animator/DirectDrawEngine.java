@@ -86,9 +86,46 @@ import java.awt.Image;
  * engine, unless you make sure the right drawing happens yourself.
  * In other words, using direct draw in an area makes it difficult
  * to have widgets (like HButton) occupy overlapping screen real estate.
+ * <p>
+ * Only the damaged areas of each frame are painted into the buffer,
+ * which persists from frame to frame.  By default, each damaged area is
+ * then blitted to the framebuffer separately.  When several areas change
+ * at once, e.g. during a large fade, the player can show the screen
+ * after only some of them have been blitted.  setBlitMode() can select
+ * a single blit of the bounding box of the damage, or of the whole 
+ * buffer, instead, so that each frame reaches the screen in one 
+ * operation.  The frame statistics of ClockBasedEngine can be used to
+ * compare the modes.
  **/
 public class DirectDrawEngine extends ClockBasedEngine {
 
+    /**
+     * Blit mode where each damaged area of a frame is blitted to the
+     * framebuffer separately.  This is the default.
+     *
+     * @see #setBlitMode(int)
+     **/
+    public final static int BLIT_AREAS = 0;
+
+    /**
+     * Blit mode where the bounding box of a frame's damaged areas is
+     * blitted to the framebuffer in one operation.  This can blit
+     * more pixels than BLIT_AREAS, but the frame appears all at once.
+     *
+     * @see #setBlitMode(int)
+     **/
+    public final static int BLIT_BOUNDS = 1;
+
+    /**
+     * Blit mode where the whole buffer is blitted to the framebuffer in
+     * one operation, for each frame where anything changed.  This is
+     * the closest direct draw gets to flipping pages, and its cost
+     * doesn't depend on how much of the screen changes.
+     *
+     * @see #setBlitMode(int)
+     **/
+    public final static int BLIT_FULL = 2;
+
 
     private Container container;
     private Component ddComponent;
@@ -96,6 +133,8 @@ public class DirectDrawEngine extends ClockBasedEngine {
     private Graphics2D bufferG;
     private Graphics2D componentG;
     private byte[] profileBlitToFB;     // Profiling model update
+    private int blitMode = BLIT_AREAS;
+    private Rectangle blitArea = new Rectangle();
     private int engineNumber = 0;
     private static int nextEngineNumber = 0;
 
@@ -164,6 +203,35 @@ public class DirectDrawEngine extends ClockBasedEngine {
         componentG.setComposite(AlphaComposite.Src);
     }
 
+    /**
+     * Set how the buffer is copied to the framebuffer at the end of
+     * each frame.  This may be called at any time; it takes effect with
+     * the next frame.
+     *
+     * @param mode      BLIT_AREAS, BLIT_BOUNDS or BLIT_FULL
+     *
+     * @throws IllegalArgumentException if mode isn't a valid blit mode
+     *
+     * @see #BLIT_AREAS
+     * @see #BLIT_BOUNDS
+     * @see #BLIT_FULL
+     **/
+    public synchronized void setBlitMode(int mode) {
+        if (mode != BLIT_AREAS && mode != BLIT_BOUNDS && mode != BLIT_FULL) {
+            throw new IllegalArgumentException();
+        }
+        blitMode = mode;
+    }
+
+    /**
+     * Get the blit mode.
+     *
+     * @see #setBlitMode(int)
+     **/
+    public synchronized int getBlitMode() {
+        return blitMode;
+    }
+
     /** 
      * {@inheritDoc}
      **/
@@ -222,13 +290,25 @@ public class DirectDrawEngine extends ClockBasedEngine {
         }
         int n = renderContext.numDrawTargets;
         if (n > 0) {
-            for (int i = 0; i < n; i++) {
-                Rectangle a = renderContext.drawTargets[i];
-                componentG.drawImage(buffer, a.x, a.y, 
-                                             a.x+a.width, a.y+a.height,
-                                             a.x, a.y,
-                                             a.x+a.width, a.y+a.height,
-                                             null);
+            int mode;
+            synchronized(this) {
+                mode = blitMode;
+            }
+            if (mode == BLIT_AREAS) {
+                for (int i = 0; i < n; i++) {
+                    blit(renderContext.drawTargets[i]);
+                }
+            } else {
+                Rectangle a = blitArea;
+                if (mode == BLIT_FULL) {
+                    a.setBounds(0, 0, getWidth(), getHeight());
+                } else {
+                    a.setBounds(renderContext.drawTargets[0]);
+                    for (int i = 1; i < n; i++) {
+                        a.add(renderContext.drawTargets[i]);
+                    }
+                }
+                blit(a);
             }
             Toolkit.getDefaultToolkit().sync();
         }
@@ -238,6 +318,12 @@ public class DirectDrawEngine extends ClockBasedEngine {
         Thread.currentThread().yield();
     }
 
+    private void blit(Rectangle a) {
+        componentG.drawImage(buffer, a.x, a.y, a.x+a.width, a.y+a.height,
+                                     a.x, a.y, a.x+a.width, a.y+a.height,
+                                     null);
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -230,6 +230,21 @@ public class DrawRecord {
         changed = true;
     }
 
+    /**
+     * Tell whether the contents of this record's area might be different
+     * than they were in the last frame.  This is true if setChanged() has
+     * been called in this frame, or if this record wasn't drawn in the
+     * last frame.  It doesn't tell if the area has moved; the last frame's
+     * area is kept in screen coordinates, so a render context that wants
+     * to know that should remember the areas it sees.  This is meant for
+     * a render context that needs to know if its children's drawing 
+     * changed, so it must be called before the record is passed on to 
+     * the parent context.
+     **/
+    public boolean isChanged() {
+        return changed || prev == null;
+    }
+
     /**
      * Indicates that the area is subject to the given translation.
      *
@@ -270,6 +285,64 @@ public class DrawRecord {
     }
 
 
+    /**
+     * Get the x coordinate of the area to be drawn to in this frame.
+     * A render context sees the area in the coordinates of the feature
+     * that gives it the record, so this can be used to find out where
+     * children of a feature draw, before the record is passed on to the
+     * parent context.
+     *
+     * @see #setArea(int, int, int, int)
+     **/
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the y coordinate of the area to be drawn to in this frame.
+     *
+     * @see #getX()
+     **/
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the width of the area to be drawn to in this frame.
+     *
+     * @see #getX()
+     **/
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the area to be drawn to in this frame.
+     *
+     * @see #getX()
+     **/
+    public int getHeight() {
+        return height;
+    }
+
+    //
+    // Used by CullingContext, which works out what the area of a part of
+    // a group hides before the DrawRecord reaches RenderContextBase.
+    //
+    boolean isOpaque() {
+        return opaque;
+    }
+
+    //
+    // Does our area completely cover the given area?  The area must
+    // not be empty.
+    //
+    boolean covers(int ax, int ay, int awidth, int aheight) {
+        return width > 0 && height > 0
+               && x <= ax && y <= ay
+               && x + width >= ax + awidth && y + height >= ay + aheight;
+    }
+
     //
     // Called from RenderContextBase for a DrawRecord used in
     // RenderContextBase.guaranteeAreaFilled.  This reduces the
@@ -127,5 +127,24 @@ abstract public class RenderContext {
      **/
     abstract public int setTarget(int newTarget);
 
+    /**
+     * Tell whether drawing through this context hides what was drawn
+     * underneath it.  This is true when the area of a DrawRecord that
+     * isn't semi-transparent, or an area given to guaranteeAreaFilled(),
+     * will have all of its pixels replaced on the screen, which makes
+     * it possible to skip drawing features that are completely covered.
+     * It's false when the drawing is blended with what's underneath, 
+     * e.g. in SrcOver mode.
+     * <p>
+     * A render context that passes its areas on to a parent context 
+     * should return what its parent does, unless it changes how its
+     * children are drawn.  This default implementation returns false,
+     * which is always safe.
+     *
+     * @see CullingContext
+     **/
+    public boolean canOcclude() {
+        return false;
+    }
 
 }
@@ -108,6 +108,16 @@ class RenderContextBase extends RenderContext {
 
     private boolean targetsCanOverlap;
 
+    private DamageGrid damageGrid = null;
+        // Non-null when damage is tracked per DrawRecord.  See
+        // setCollapseGrid.
+
+    private Rectangle[] damage = null;
+        // When damageGrid is set, the areas to be drawn this frame,
+        // kept separately rather than combined per render area target.
+
+    private int numDamage = 0;
+
     RenderContextBase(int numTargets) {
         this.currTarget = 0;
         if (numTargets < 1) {
@@ -150,6 +160,48 @@ class RenderContextBase extends RenderContext {
         targetsCanOverlap = v;
     }
 
+    //
+    // Selects how damage is tracked.  When cellSize is 0 or less (the
+    // default), all of the drawing to a render area target is combined
+    // into one bounding rectangle, and the targets are then collapsed.
+    // Otherwise, the area of each DrawRecord is kept separately, and
+    // at the end of the frame they are merged with the collapseThreshold
+    // rule, using a grid of cells of about cellSize pixels so that each
+    // area is only compared with those near it.  This gives tighter
+    // damage when many small features animate in different parts of the
+    // screen.
+    //
+    // This should only be called between frames.
+    //
+    void setCollapseGrid(int cellSize) {
+        if (cellSize <= 0) {
+            damageGrid = null;
+            damage = null;
+        } else {
+            damageGrid = new DamageGrid(cellSize);
+            damage = newRectArray(16);
+        }
+        numDamage = 0;
+    }
+
+    //
+    // Get the rectangle that an area drawn to the given target should
+    // be added to.
+    //
+    private Rectangle targetArea(int target) {
+        if (damageGrid == null) {
+            return drawTargets[target];
+        }
+        if (numDamage == damage.length) {
+            Rectangle[] a = newRectArray(damage.length * 2);
+            System.arraycopy(damage, 0, a, 0, numDamage);
+            damage = a;
+        }
+        Rectangle r = damage[numDamage++];
+        setEmpty(r);
+        return r;
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -162,7 +214,7 @@ class RenderContextBase extends RenderContext {
             r.resetPreviousFrame();
         }
         r.target = currTarget;
-        r.addAreaTo(drawTargets[currTarget]);
+        r.addAreaTo(targetArea(currTarget));
         // Add to this frame's list
         r.next = thisFrameList;
         thisFrameList = r;
@@ -191,6 +243,13 @@ class RenderContextBase extends RenderContext {
         filled.prev = null;
     }
 
+    /**
+     * {@inheritDoc}
+     **/
+    public boolean canOcclude() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -209,6 +268,7 @@ class RenderContextBase extends RenderContext {
             drawTargets[i].width = 0;
             eraseTargets[i].width = 0;
         }
+        numDamage = 0;
     }
 
     //
@@ -216,7 +276,7 @@ class RenderContextBase extends RenderContext {
     // just after setEmpty(), but at no other time.
     //
     void setFullPaint(int x, int y, int width, int height) {
-        drawTargets[0].setBounds(x, y, width, height);
+        targetArea(0).setBounds(x, y, width, height);
     }
 
     //
@@ -245,7 +305,7 @@ class RenderContextBase extends RenderContext {
         //
         DrawRecord n = lastFrameList.prev;
         while (n != lastFrameList) {
-            n.eraseLastFrame(drawTargets[n.target]);
+            n.eraseLastFrame(targetArea(n.target));
                 // This also does bookkeeping on DrawRecord.drawSequence
                 // for us.
             DrawRecord tmp = n;
@@ -273,7 +333,7 @@ class RenderContextBase extends RenderContext {
         int lastDrawSequence = 0;
         while (n != null) {
             lastDrawSequence = n.finishedFrame(drawSequence, lastDrawSequence, 
-                                               drawTargets[n.target]);
+                                               targetArea(n.target));
             drawSequence++;
             n.prev = prev;
             prev = n;
@@ -332,6 +392,21 @@ class RenderContextBase extends RenderContext {
      **/
     void collapseTargets() {
 
+        if (damageGrid != null) {
+            int n = damageGrid.collapse(damage, numDamage, collapseThreshold,
+                                        targetsCanOverlap);
+            if (n > drawTargets.length) {
+                int len = Math.max(n, drawTargets.length * 2);
+                drawTargets = newRectArray(len);
+                eraseTargets = newRectArray(len);
+            }
+            for (int i = 0; i < n; i++) {
+                drawTargets[i].setBounds(damage[i]);
+            }
+            numDrawTargets = n;
+            return;
+        }
+
                 // First, we try to optimally collapse the targets.
         numDrawTargets = collapseTargets(drawTargets);
     }
@@ -278,10 +278,18 @@ public class Box extends Feature implements Node {
             drawRecord.setChanged();
             boxPropertiesChanged = false;
         }
-        drawRecord.setSemiTransparent();
+        if (fillColor == null || hasOutline()) {
+            // A box without an outline fills every pixel of its area, 
+            // but the corners of an outline are rounded.
+            drawRecord.setSemiTransparent();
+        }
         context.addArea(drawRecord);
     }
 
+    private boolean hasOutline() {
+        return (outlineWidthX > 0 || outlineWidthY > 0) && outlineColor != null;
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -316,7 +324,7 @@ public class Box extends Feature implements Node {
         }
         int x2 = x1 + w - 1;
         int y2 = y1 + h - 1;
-        if ((outlineWidthX > 0 || outlineWidthY > 0) && outlineColor != null) {
+        if (hasOutline()) {
             gr.setColor(outlineColor);
             int tx = outlineWidthX;
             int t2x = 2*tx;
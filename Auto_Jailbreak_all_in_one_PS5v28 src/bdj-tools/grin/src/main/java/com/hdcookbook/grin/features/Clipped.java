@@ -108,6 +108,10 @@ public class Clipped extends Modifier implements Node {
             return parent.setTarget(target);
         }
 
+        public boolean canOcclude() {
+            return parent.canOcclude();
+        }
+
     };  // End of RenderContext anonymous inner class
 
 
@@ -60,16 +60,20 @@ package com.hdcookbook.grin.features;
 import com.hdcookbook.grin.Node;
 import com.hdcookbook.grin.Show;
 import com.hdcookbook.grin.Feature;
+import com.hdcookbook.grin.animator.AnimationEngine;
 import com.hdcookbook.grin.animator.DrawRecord;
 import com.hdcookbook.grin.animator.RenderContext;
 import com.hdcookbook.grin.commands.Command;
 import com.hdcookbook.grin.io.binary.GrinDataInputStream;
+import com.hdcookbook.grin.util.AssetFinder;
 import com.hdcookbook.grin.util.Debug;
 
 import java.awt.AlphaComposite;
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.AlphaComposite;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.HashMap;
 
@@ -77,7 +81,15 @@ import java.util.HashMap;
  * Modifies a child feature by applying an alpha value when drawing in
  * it.  This lets you animate a fade-in and fade-out effect.  It works
  * by specifying alpha values at a few keyframes, and doing linear
- * interpolation between those keyframes.
+ * interpolation between those keyframes.  The alpha value and its
+ * AlphaComposite for each frame are worked out when the show is 
+ * initialized.
+ * <p>
+ * A fade in SrcOver mode can be told to draw its child through an 
+ * off-screen buffer, with setBuffered(true).  This is for fades over
+ * content that doesn't change while it fades:  the child is painted
+ * into the buffer once, and each frame only draws the buffer with
+ * that frame's alpha value.
  *
  *   @author     Bill Foote (http://jovial.com)
  **/
@@ -103,6 +115,17 @@ public class Fade extends Modifier implements Node {
     private AlphaComposite currAlpha;
     private AlphaComposite lastAlpha;
 
+    private boolean buffered = false;   // See setBuffered()
+    private boolean useBuffer = false;  // true if buffered in this frame
+    private Image buffer = null;
+    private int bufferWidth;
+    private int bufferHeight;
+    private boolean bufferValid = false;
+        // True when buffer holds our child's drawing at the area 
+        // childContext found.
+    private int lastNumAreas = 0;
+    private int lastAreaHash = 0;
+
         //
         // Here, we make an inner class of RenderContext.  We
         // pass this instance to our child; it modifies calls to the
@@ -117,7 +140,47 @@ public class Fade extends Modifier implements Node {
         private int width;
         private int height;
 
+        // When useBuffer is set, we collect the bounding box of our
+        // child's areas in x, y, width and height, and note any change.
+        private int numAreas;
+        private int areaHash;
+        private boolean changed;
+
+        void startFrame() {
+            width = 0;
+            numAreas = 0;
+            areaHash = 0;
+            changed = false;
+        }
+
         public void addArea(DrawRecord r) {
+            if (useBuffer) {
+                int rx = r.getX();
+                int ry = r.getY();
+                int w = r.getWidth();
+                int h = r.getHeight();
+                if (w > 0 && h > 0) {
+                    if (width <= 0) {
+                        x = rx;
+                        y = ry;
+                        width = w;
+                        height = h;
+                    } else {
+                        int x2 = Math.max(x + width, rx + w);
+                        int y2 = Math.max(y + height, ry + h);
+                        x = Math.min(x, rx);
+                        y = Math.min(y, ry);
+                        width = x2 - x;
+                        height = y2 - y;
+                    }
+                }
+                numAreas++;
+                areaHash = ((areaHash * 31 + rx) * 31 + ry) * 31 
+                           + w * 65599 + h;
+                if (r.isChanged()) {
+                    changed = true;
+                }
+            }
             if (srcOver) {
                 r.setSemiTransparent();
             }
@@ -137,12 +200,53 @@ public class Fade extends Modifier implements Node {
             return parent.setTarget(target);
         }
 
+        public boolean canOcclude() {
+            return !srcOver && parent.canOcclude();
+        }
+
     };  // End of RenderContext anonymous inner class
 
     public Fade(Show show) {
         super(show);
     }  
 
+    /**
+     * Set whether this fade draws its child through an off-screen 
+     * buffer.  When it does, the child is painted once into a buffer
+     * from AssetFinder.createCompatibleImageBuffer(), and each frame
+     * draws the buffer with the current alpha value.  The child is only
+     * painted again when its drawing changes, that is, when one of its
+     * DrawRecord instances is marked as changed, when its areas move, or
+     * when markDisplayAreasChanged() is called.  This saves painting the
+     * child on every frame of a fade over static content, at the cost of
+     * a buffer the size of the child's bounding box.
+     * <p>
+     * The buffer is only used in SrcOver mode.  It fades the child as a
+     * whole, like one image, so where parts of the child overlap, the
+     * lower part doesn't show through the upper one as the alpha value
+     * goes down.  If the platform's image buffers don't have an alpha
+     * channel, the child is drawn directly, as it is when this is false.
+     * <p>
+     * This may be called by xlet code, so long as it's called within
+     * a command body or inside of Director.notifyNextFrame().  The
+     * default is false.
+     **/
+    public void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+        if (!buffered) {
+            releaseBuffer();
+        }
+    }
+
+    private void releaseBuffer() {
+        Image buf = buffer;
+        buffer = null;
+        bufferValid = false;
+        if (buf != null) {
+            AssetFinder.destroyImageBuffer(buf);
+        }
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -161,6 +265,7 @@ public class Fade extends Modifier implements Node {
         result.loopsRemaining = loopsRemaining;
         result.currAlpha = currAlpha;
         result.lastAlpha = lastAlpha;
+        result.buffered = buffered;
         return result;
     }
 
@@ -237,6 +342,8 @@ public class Fade extends Modifier implements Node {
             lastAlpha = null;
             currAlpha = alphas[alphaIndex];
             loopsRemaining = loopCount;
+        } else {
+            releaseBuffer();
         }
     }
 
@@ -271,12 +378,36 @@ public class Fade extends Modifier implements Node {
     }
 
 
+    /**
+     * {@inheritDoc}
+     **/
+    public void markDisplayAreasChanged() {
+        bufferValid = false;
+        super.markDisplayAreasChanged();
+    }
+
     /**
      * {@inheritDoc}
      **/
     public void addDisplayAreas(RenderContext context) {
         childContext.parent = context;
+        useBuffer = buffered && srcOver && currAlpha != null;
+        if (useBuffer) {
+            childContext.startFrame();
+        }
         super.addDisplayAreas(childContext);
+        if (useBuffer) {
+            if (childContext.changed 
+                || childContext.numAreas != lastNumAreas
+                || childContext.areaHash != lastAreaHash)
+            {
+                bufferValid = false;
+            }
+            lastNumAreas = childContext.numAreas;
+            lastAreaHash = childContext.areaHash;
+        } else {
+            bufferValid = false;
+        }
         lastAlpha = currAlpha;
     }
 
@@ -284,6 +415,9 @@ public class Fade extends Modifier implements Node {
      * {@inheritDoc}
      **/
     public void paintFrame(Graphics2D gr) {
+        if (useBuffer && paintBuffered(gr)) {
+            return;
+        }
         if (currAlpha != null) {
             Composite old = gr.getComposite();
             gr.setComposite(currAlpha);
@@ -294,6 +428,61 @@ public class Fade extends Modifier implements Node {
         }
     }
 
+    //
+    // Paint our child by way of the buffer, painting the child into it
+    // first if needed.  Returns false if we can't use a buffer.
+    //
+    private boolean paintBuffered(Graphics2D gr) {
+        int x = childContext.x;
+        int y = childContext.y;
+        int width = childContext.width;
+        int height = childContext.height;
+        if (width <= 0 || height <= 0) {
+            return true;        // Our child doesn't draw anything
+        }
+        if (!bufferValid) {
+            if (buffer == null || width > bufferWidth 
+                || height > bufferHeight) 
+            {
+                releaseBuffer();
+                int w = Math.max(width, bufferWidth);
+                int h = Math.max(height, bufferHeight);
+                Image buf = AssetFinder.createCompatibleImageBuffer(
+                                                    show.component, w, h);
+                if (buf instanceof BufferedImage
+                    && !((BufferedImage) buf).getColorModel().hasAlpha())
+                {
+                    AssetFinder.destroyImageBuffer(buf);
+                    if (Debug.LEVEL > 0) {
+                        Debug.println("Image buffers are opaque; " + this 
+                                      + " will not be buffered.");
+                    }
+                    buffered = false;
+                    useBuffer = false;
+                    return false;
+                }
+                buffer = buf;
+                bufferWidth = w;
+                bufferHeight = h;
+            }
+            Graphics2D g = AssetFinder.createGraphicsFromImageBuffer(buffer);
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(AnimationEngine.transparent);
+            g.fillRect(0, 0, width, height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.translate(-x, -y);
+            part.paintFrame(g);
+            g.dispose();
+            bufferValid = true;
+        }
+        Composite old = gr.getComposite();
+        gr.setComposite(currAlpha);
+        gr.drawImage(buffer, x, y, x + width, y + height, 
+                             0, 0, width, height, null);
+        gr.setComposite(old);
+        return true;
+    }
+
     public void readInstanceData(GrinDataInputStream in, int length) 
             throws IOException 
     {
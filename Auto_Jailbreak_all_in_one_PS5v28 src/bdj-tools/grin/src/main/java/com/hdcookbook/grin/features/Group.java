@@ -60,8 +60,10 @@ package com.hdcookbook.grin.features;
 import com.hdcookbook.grin.Node;
 import com.hdcookbook.grin.Feature;
 import com.hdcookbook.grin.Show;
+import com.hdcookbook.grin.animator.CullingContext;
 import com.hdcookbook.grin.animator.RenderContext;
 import com.hdcookbook.grin.util.Debug;
+import com.hdcookbook.grin.util.Profile;
 
 import com.hdcookbook.grin.io.binary.GrinDataInputStream;
 import java.awt.Graphics2D;
@@ -98,10 +100,35 @@ public class Group extends Feature implements Node {
     //
     private int numSetupChecked;
 
+    private static boolean cullingEnabled = true;
+
+    //
+    // Occlusion culling.  culled[i] is true when visibleParts[i] is 
+    // completely hidden by the parts after it in the current frame, and
+    // numCulled counts those parts.  See addDisplayAreas().
+    //
+    private CullingContext cullingContext = null;
+    private boolean[] culled = null;
+    private int numCulled = 0;
+
     public Group(Show show) {
         super(show);
     }
 
+    /**
+     * Turn occlusion culling of the parts of groups on or off.  When 
+     * it's on, a part of a group that is completely covered by opaque
+     * drawing of the parts after it, e.g. by a full-screen image drawn
+     * in Src mode, a box with no outline, or the area of a 
+     * <code>guarantee_fill</code>, isn't drawn.  It's on by default.
+     * This should only be called between frames, e.g. from a command.
+     *
+     * @see com.hdcookbook.grin.animator.CullingContext
+     **/
+    public static void setOcclusionCulling(boolean enabled) {
+        cullingEnabled = enabled;
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -323,6 +350,7 @@ public class Group extends Feature implements Node {
             }
         }
         this.visibleParts = visibleParts;       
+        numCulled = 0;
     }
 
     /**
@@ -413,8 +441,28 @@ public class Group extends Feature implements Node {
      * {@inheritDoc}
      **/
     public void addDisplayAreas(RenderContext context) {
-        for (int i = 0; i < visibleParts.length; i++) {
-            visibleParts[i].addDisplayAreas(context);
+        Feature[] parts = visibleParts;
+        if (!cullingEnabled || parts.length < 2 || !context.canOcclude()) {
+            numCulled = 0;
+            for (int i = 0; i < parts.length; i++) {
+                parts[i].addDisplayAreas(context);
+            }
+            return;
+        }
+        if (cullingContext == null) {
+            cullingContext = new CullingContext();
+        }
+        if (culled == null || culled.length != parts.length) {
+            culled = new boolean[parts.length];
+        }
+        cullingContext.start(context);
+        for (int i = 0; i < parts.length; i++) {
+            cullingContext.startPart();
+            parts[i].addDisplayAreas(cullingContext);
+        }
+        numCulled = cullingContext.finish(culled);
+        if (Debug.PROFILE && Debug.PROFILE_ANIMATION && numCulled > 0) {
+            Profile.countCulledFeatures(numCulled);
         }
     }
 
@@ -422,6 +470,14 @@ public class Group extends Feature implements Node {
      * {@inheritDoc}
      **/
     public void paintFrame(Graphics2D gr) {
+        if (numCulled > 0 && culled.length == visibleParts.length) {
+            for (int i = 0; i < visibleParts.length; i++) {
+                if (!culled[i]) {
+                    visibleParts[i].paintFrame(gr);
+                }
+            }
+            return;
+        }
         for (int i = 0; i < visibleParts.length; i++) {
             visibleParts[i].paintFrame(gr);
         }
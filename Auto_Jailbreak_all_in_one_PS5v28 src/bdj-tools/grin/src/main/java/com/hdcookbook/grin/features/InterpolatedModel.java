@@ -78,6 +78,13 @@ import java.util.HashMap;
  * An InterpolatedModel with no values can function as a timer.  A timer
  * simply has a number of keyframes, and triggers a set of commands after
  * those keyframes.
+ * <p>
+ * By default, values are interpolated linearly between keyframes, and
+ * are calculated each frame.  Xlet code can give a model an easing curve
+ * with setEasing() or setBezierEasing(), and can call
+ * setTableFrameLimit() to have the values of each frame calculated
+ * into a table when a model is first activated, so that a frame only
+ * costs an array lookup.
  *
  * @see Translator
  *
@@ -108,6 +115,49 @@ public class InterpolatedModel extends Feature implements Node {
      **/
     public final static int SCALE_Y_FACTOR_FIELD = 3;
 
+    /**
+     * Easing curve for linear interpolation between keyframes.  This is
+     * the default.
+     *
+     * @see #setEasing(int)
+     **/
+    public final static int EASE_LINEAR = 0;
+
+    /**
+     * Easing curve that starts slowly and speeds up between keyframes, 
+     * like CSS's "ease-in", i.e. cubic-bezier(0.42, 0, 1, 1).
+     *
+     * @see #setEasing(int)
+     **/
+    public final static int EASE_IN = 1;
+
+    /**
+     * Easing curve that starts quickly and slows down between keyframes,
+     * like CSS's "ease-out", i.e. cubic-bezier(0, 0, 0.58, 1).
+     *
+     * @see #setEasing(int)
+     **/
+    public final static int EASE_OUT = 2;
+
+    /**
+     * Easing curve that starts and ends slowly between keyframes, 
+     * like CSS's "ease-in-out", i.e. cubic-bezier(0.42, 0, 0.58, 1).
+     *
+     * @see #setEasing(int)
+     **/
+    public final static int EASE_IN_OUT = 3;
+
+    private final static int EASING_STEPS = 256;
+        // Number of steps in an easing table.  An easing table has
+        // EASING_STEPS + 1 entries, and gives the progress between two 
+        // keyframes in 1/65536 units, for evenly spaced points in time.
+        // In between those points, we interpolate linearly.
+    private static int[][] standardEasing = new int[4][];
+        // Tables for EASE_IN etc., made when first used.  Indexed by
+        // easing curve number.
+    private static int tableFrameLimit = 0;
+        // See setTableFrameLimit()
+
     /*
      * frames and values are read-only, hence they are
      * reconstructed using GrinDataInputStream.getSharedIntArray, while
@@ -132,6 +182,11 @@ public class InterpolatedModel extends Feature implements Node {
     private int repeatIndex;    // Index when currFrame is repeatFrame-1
     private int loopsRemaining; // see loopCount
     protected Command[] endCommands;
+    private int[] easing = null;        // null means linear
+    private int[][] frameTables = null;
+        // Value of each field at each frame, indexed by field and
+        // frame number.  See setTableFrameLimit().  The array for a field
+        // is null if the field isn't interpolated.
 
     /**
      * @param show      The show this feature is attached to.  The value
@@ -160,6 +215,8 @@ public class InterpolatedModel extends Feature implements Node {
         result.currIndex = currIndex;
         result.repeatIndex = repeatIndex;
         result.loopsRemaining = loopsRemaining;
+        result.easing = easing;
+        result.frameTables = frameTables;
         return result;
     }
 
@@ -209,6 +266,162 @@ public class InterpolatedModel extends Feature implements Node {
         currValues[fieldNum] = value;
     }
 
+    /**
+     * Set the easing curve that's used between each pair of keyframes.
+     * This may be called by xlet code, e.g. when the show is initialized,
+     * or within a command body while the model isn't activated.
+     *
+     * @param curve     EASE_LINEAR, EASE_IN, EASE_OUT or EASE_IN_OUT
+     *
+     * @throws IllegalArgumentException if curve is not one of these
+     *
+     * @see #setBezierEasing(int, int, int, int)
+     **/
+    public void setEasing(int curve) {
+        if (curve < EASE_LINEAR || curve > EASE_IN_OUT) {
+            throw new IllegalArgumentException();
+        }
+        if (curve == EASE_LINEAR) {
+            easing = null;
+        } else {
+            int[] table = standardEasing[curve];
+            if (table == null) {
+                if (curve == EASE_IN) {
+                    table = makeEasingTable(420, 0, 1000, 1000);
+                } else if (curve == EASE_OUT) {
+                    table = makeEasingTable(0, 0, 580, 1000);
+                } else {
+                    table = makeEasingTable(420, 0, 580, 1000);
+                }
+                standardEasing[curve] = table;
+            }
+            easing = table;
+        }
+        frameTables = null;
+    }
+
+    /**
+     * Set a cubic bezier easing curve that's used between each pair of
+     * keyframes.  Like CSS's cubic-bezier(), the curve goes from (0, 0) 
+     * to (1, 1), and (x1, y1) and (x2, y2) are its control points.  The
+     * x axis is time, and the y axis is progress between keyframes.  The
+     * values are given in mills (1/1000).  
+     * This may be called by xlet code, e.g. when the show is initialized,
+     * or within a command body while the model isn't activated.
+     *
+     * @throws IllegalArgumentException if x1 or x2 is outside of 0..1000
+     *
+     * @see #setEasing(int)
+     **/
+    public void setBezierEasing(int x1, int y1, int x2, int y2) {
+        if (x1 < 0 || x1 > 1000 || x2 < 0 || x2 > 1000) {
+            throw new IllegalArgumentException();
+        }
+        easing = makeEasingTable(x1, y1, x2, y2);
+        frameTables = null;
+    }
+
+    //
+    // Make an easing table for the given cubic bezier curve.  This is
+    // done once, when the curve is set, so we can afford floating point.
+    //
+    private static int[] makeEasingTable(int x1, int y1, int x2, int y2) {
+        double px1 = x1 / 1000.0;
+        double py1 = y1 / 1000.0;
+        double px2 = x2 / 1000.0;
+        double py2 = y2 / 1000.0;
+        int[] result = new int[EASING_STEPS + 1];
+        for (int i = 1; i < EASING_STEPS; i++) {
+            // Find the curve parameter s where x(s) is our point in time.  
+            // x(s) is monotonic because the x control points are in 0..1.
+            double x = ((double) i) / EASING_STEPS;
+            double lo = 0.0;
+            double hi = 1.0;
+            double s = x;
+            for (int j = 0; j < 32; j++) {
+                s = (lo + hi) / 2.0;
+                if (bezier(s, px1, px2) < x) {
+                    lo = s;
+                } else {
+                    hi = s;
+                }
+            }
+            result[i] = (int) Math.floor(bezier(s, py1, py2) * 65536.0 + 0.5);
+        }
+        result[0] = 0;
+        result[EASING_STEPS] = 65536;
+        return result;
+    }
+
+    private static double bezier(double s, double p1, double p2) {
+        double u = 1.0 - s;
+        return 3.0 * u * u * s * p1 + 3.0 * u * s * s * p2 + s * s * s;
+    }
+
+    /**
+     * Set the maximum length of an animation, in frames, for which a
+     * table of per-frame values is made.  When a model with interpolated
+     * fields is activated for the first time, and its last keyframe is
+     * before this limit, the value of each field at each frame is 
+     * calculated into a table, which costs four bytes per field per
+     * frame.  After that, each frame of the model's animation is just
+     * an array lookup.  The default limit is 0, which means that values
+     * are always calculated when they're needed.
+     *
+     * @param frames    The limit, in frames
+     **/
+    public static void setTableFrameLimit(int frames) {
+        tableFrameLimit = frames;
+    }
+
+    //
+    // Calculate the value of a field between two keyframes.
+    //
+    private int interpolate(int[] vs, int index, int distLast, int dist) {
+        int v0 = vs[index];
+        int v1 = vs[index + 1];
+        if (easing == null) {
+            return (v1 * distLast + v0 * (dist - distLast)) / dist;
+        }
+        int x = (int) ((((long) distLast) << 16) / dist);      // 0..65536
+        int i = x >> 8;
+        int progress;
+        if (i >= EASING_STEPS) {
+            progress = easing[EASING_STEPS];
+        } else {
+            int e = easing[i];
+            progress = e + (((easing[i + 1] - e) * (x & 0xff)) >> 8);
+        }
+        return v0 + (int) ((((long) (v1 - v0)) * progress) / 65536);
+    }
+
+    //
+    // Calculate frameTables.  Called on activation, if we're within
+    // tableFrameLimit.
+    //
+    private void makeFrameTables() {
+        int numFrames = frames[frames.length - 1] + 1;
+        int[][] tables = new int[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            int[] vs = values[i];
+            if (vs == null) {
+                continue;
+            }
+            int[] table = new int[numFrames];
+            int index = 0;
+            table[0] = vs[0];
+            for (int f = 1; f < numFrames; f++) {
+                while (f > frames[index + 1]) {
+                    index++;
+                }
+                int dist = frames[index + 1] - frames[index];
+                table[f] = interpolate(vs, index, f - frames[index], dist);
+            }
+            tables[i] = table;
+        }
+        frameTables = tables;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -281,6 +494,16 @@ public class InterpolatedModel extends Feature implements Node {
             } else {
                 currFrame = 0;
                 currIndex = 0;
+                if (frameTables == null && tableFrameLimit > 0
+                    && frames[frames.length - 1] < tableFrameLimit)
+                {
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] != null) {
+                            makeFrameTables();
+                            break;
+                        }
+                    }
+                }
                 for (int i = 0; i < currValues.length; i++) {
                     if (values[i] != null) {
                         currValues[i] = values[i][0];
@@ -326,12 +549,20 @@ public class InterpolatedModel extends Feature implements Node {
             // the frames array for a one-frame timer contains { 0 , 0 }
             Debug.assertFail();
         }
-        for (int i = 0; i < currValues.length; i++) {
-            int[] vs = values[i];
-            
-            if (vs != null) {
-                currValues[i] = (vs[nextIndex] * distLast 
-                                  + vs[currIndex] * distNext) /dist;
+        int[][] tables = frameTables;
+        if (tables != null) {
+            for (int i = 0; i < currValues.length; i++) {
+                int[] table = tables[i];
+                if (table != null) {
+                    currValues[i] = table[currFrame];
+                }
+            }
+        } else {
+            for (int i = 0; i < currValues.length; i++) {
+                int[] vs = values[i];
+                if (vs != null) {
+                    currValues[i] = interpolate(vs, currIndex, distLast, dist);
+                }
             }
         }
         if (distNext <= 0) {
@@ -150,11 +150,95 @@ public class Text extends Feature implements Node, SetupClient {
 
     private boolean changed = false;
     private DrawRecord drawRecord = new DrawRecord();
+    private TextRaster[] rasters;       // Indexed by colorIndex, or null
+    private boolean rasterTooBig;       // Too big at the last lookup
     
     public Text(Show show) {
         super(show);
     }
 
+    /**
+     * Set the size limit of the text raster cache.  Drawing a string
+     * renders its glyphs every time, which is one of the more expensive
+     * things a frame can do on a BD-J player.  With a limit greater than
+     * zero, each Text feature is instead rendered once per color into an
+     * off-screen buffer from 
+     * <code>AssetFinder.createCompatibleImageBuffer()</code>, and that
+     * buffer is drawn on every frame after that.  The buffers are shared
+     * by all Text features with the same font, colors and strings.  When
+     * they add up to more than the limit, the least recently used ones
+     * are destroyed.  Buffers are counted as four bytes per pixel.
+     * <p>
+     * The default limit is zero, which disables the cache.  Text with a
+     * transparent background can only be cached if the platform's image
+     * buffers have an alpha channel, as DVBBufferedImage does; otherwise
+     * it's drawn directly, as it is when the cache is disabled.
+     *
+     * @param bytes     The limit, in bytes of pixel memory
+     *
+     * @see #getRasterCacheBytes()
+     **/
+    public static void setRasterCacheLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        TextRaster.setLimit(bytes);
+    }
+
+    /**
+     * Get the pixel memory used by the buffers in the text raster cache.
+     *
+     * @see #setRasterCacheLimit(long)
+     **/
+    public static long getRasterCacheBytes() {
+        return TextRaster.getBytes();
+    }
+
+    /**
+     * Get the number of times a Text feature found the rendering it
+     * needed in the text raster cache.  A Text feature only looks in the
+     * cache the first time it's drawn in a given color, so this doesn't
+     * count frames.
+     *
+     * @see #setRasterCacheLimit(long)
+     * @see #resetRasterCacheCounters()
+     **/
+    public static int getRasterCacheHits() {
+        return TextRaster.getHits();
+    }
+
+    /**
+     * Get the number of times a Text feature had to render its text
+     * into a new buffer for the text raster cache.
+     *
+     * @see #setRasterCacheLimit(long)
+     * @see #resetRasterCacheCounters()
+     **/
+    public static int getRasterCacheMisses() {
+        return TextRaster.getMisses();
+    }
+
+    /**
+     * Get the number of times a Text feature was too big for the text
+     * raster cache, and was drawn directly.  These aren't counted as
+     * misses.  A Text feature looks in the cache again after the limit
+     * is raised enough for it to fit.
+     *
+     * @see #setRasterCacheLimit(long)
+     * @see #resetRasterCacheCounters()
+     **/
+    public static int getRasterCacheOversize() {
+        return TextRaster.getOversize();
+    }
+
+    /**
+     * Reset the hit, miss and oversize counts of the text raster cache
+     * to zero.
+     **/
+    public static void resetRasterCacheCounters() {
+        TextRaster.resetCounters();
+    }
+
     /**
      * {@inheritDoc}
      **/
@@ -221,6 +305,8 @@ public class Text extends Feature implements Node, SetupClient {
     private void calculateMetrics() {
         Font font = show.getFont(fontIndex);
         changed = true;
+        rasters = null;         // Our text or our metrics changed
+        rasterTooBig = false;
         FontMetrics fm = show.component.getFontMetrics(font);
         int width = 0;
         for (int i = 0; i < strings.length; i++) {
@@ -402,6 +488,11 @@ public class Text extends Feature implements Node, SetupClient {
         if (!isActivated) {
             return;
         }
+        if (TextRaster.isEnabled() 
+            && getRaster().paint(gr, alignedX, alignedY)) 
+        {
+            return;             // The raster includes our background
+        }
         if (background != null) {
             gr.setColor(background);
             gr.fillRect(alignedX, alignedY, width, height);
@@ -415,6 +506,36 @@ public class Text extends Feature implements Node, SetupClient {
         }
     }
 
+    //
+    // Get the raster for our current color, going back to the cache if
+    // we haven't looked it up yet, or if it's been evicted.  NONE isn't
+    // kept, so text that was too big is checked against the current limit
+    // each time, and looked up again once it fits.
+    //
+    private TextRaster getRaster() {
+        TextRaster[] rs = rasters;
+        if (rs == null) {
+            rs = new TextRaster[colors.length];
+            rasters = rs;
+        }
+        TextRaster r = rs[colorIndex];
+        if (r == null || !r.isValid()) {
+            if (rasterTooBig && !TextRaster.fits(width, height)) {
+                return TextRaster.NONE;
+            }
+            r = TextRaster.get(show.component, show.getFont(fontIndex), 
+                               currColor, background, strings, vspace,
+                               ascent, descent, width, height);
+            if (r == TextRaster.NONE) {
+                rasterTooBig = !TextRaster.fits(width, height);
+                return r;
+            }
+            rasterTooBig = false;
+            rs[colorIndex] = r;
+        }
+        return r;
+    }
+
     public void readInstanceData(GrinDataInputStream in, int length) 
             throws IOException {
                 
@@ -0,0 +1,312 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.features;
+
+import com.hdcookbook.grin.util.AssetFinder;
+import com.hdcookbook.grin.util.Debug;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * An off-screen rendering of the lines of a Text feature in one color.
+ * Rasters are kept in a cache that is shared by all of the Text features,
+ * keyed by the font, the colors and the strings, so that two features
+ * showing the same label share one buffer.  The cache is bounded by a
+ * byte limit, and the least recently looked up rasters are destroyed
+ * first.  A Text feature remembers the rasters it has looked up, and
+ * goes back to the cache when one of them has been evicted.
+ *
+ * @see Text#setRasterCacheLimit(long)
+ **/
+final class TextRaster {
+
+    /**
+     * A placeholder for text that can't be cached, e.g. because it's
+     * bigger than the cache or because the image buffers of the platform
+     * are opaque.  Its image is always null.  Text doesn't hold on to it,
+     * so text that was too big is looked up again once the limit allows.
+     **/
+    final static TextRaster NONE = new TextRaster(null, null, 0);
+
+    private final static Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+    private static Object lock = new Object();
+    private static Hashtable rasters = new Hashtable();
+        // Hashtable<String, TextRaster>
+    private static Vector lru = new Vector();
+        // Vector<TextRaster>, least recently looked up first
+    private static long limit = 0;
+    private static long bytes = 0;
+    private static int hits = 0;
+    private static int misses = 0;
+    private static int oversize = 0;
+    private static boolean opaqueBuffers = false;
+        // true once we've seen that the platform's buffers have no alpha
+
+    private String key;
+    private Image image;        // null once evicted
+    private long size;
+
+    private TextRaster(String key, Image image, long size) {
+        this.key = key;
+        this.image = image;
+        this.size = size;
+    }
+
+    static void setLimit(long newLimit) {
+        synchronized(lock) {
+            limit = newLimit;
+            trim(0);
+        }
+    }
+
+    static boolean isEnabled() {
+        return limit > 0;       // Racy read is OK; this is just a hint
+    }
+
+    /**
+     * Would text of the given size fit in the cache, at its current limit?
+     **/
+    static boolean fits(int width, int height) {
+        return 4L * width * height <= limit;    // Racy read, as above
+    }
+
+    static long getBytes() {
+        synchronized(lock) {
+            return bytes;
+        }
+    }
+
+    static int getHits() {
+        synchronized(lock) {
+            return hits;
+        }
+    }
+
+    static int getMisses() {
+        synchronized(lock) {
+            return misses;
+        }
+    }
+
+    static int getOversize() {
+        synchronized(lock) {
+            return oversize;
+        }
+    }
+
+    static void resetCounters() {
+        synchronized(lock) {
+            hits = 0;
+            misses = 0;
+            oversize = 0;
+        }
+    }
+
+    /**
+     * Get the raster for the given text, rendering it if it isn't in
+     * the cache.  This never returns null; NONE is returned for text
+     * that can't be cached.  The lines are drawn the way 
+     * Text.paintFrame() draws them, with the background, if any, filled
+     * in behind them.
+     **/
+    static TextRaster get(Component comp, Font font, Color color, 
+                          Color background, String[] strings, int vspace,
+                          int ascent, int descent, int width, int height)
+    {
+        if (width <= 0 || height <= 0) {
+            return NONE;
+        }
+        if (opaqueBuffers       // Racy read is OK; it only ever goes true
+            && (background == null || background.getAlpha() != 255)) 
+        {
+            return NONE;
+        }
+        String key = makeKey(font, color, background, strings, vspace);
+        long size = 4L * width * height;
+        synchronized(lock) {
+            TextRaster r = (TextRaster) rasters.get(key);
+            if (r != null) {
+                hits++;
+                lru.removeElement(r);
+                lru.addElement(r);
+                return r;
+            }
+            if (size > limit) {
+                oversize++;
+                return NONE;
+            }
+            misses++;
+        }
+        Image im = AssetFinder.createCompatibleImageBuffer(comp, width, height);
+        if (im instanceof BufferedImage 
+            && !((BufferedImage) im).getColorModel().hasAlpha()
+            && (background == null || background.getAlpha() != 255))
+        {
+            // Text drawn over an opaque buffer would hide whatever is
+            // behind it, so we leave it to Text to draw this directly.
+            // The buffers won't change, so don't try again.
+            opaqueBuffers = true;
+            AssetFinder.destroyImageBuffer(im);
+            return NONE;
+        }
+        Graphics2D g = AssetFinder.createGraphicsFromImageBuffer(im);
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(background == null ? TRANSPARENT : background);
+        g.fillRect(0, 0, width, height);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setFont(font);
+        g.setColor(color);
+        int y = ascent;
+        for (int i = 0; i < strings.length; i++) {
+            g.drawString(strings[i], 0, y);
+            y += ascent + descent + vspace;
+        }
+        g.dispose();
+
+        synchronized(lock) {
+            TextRaster r = (TextRaster) rasters.get(key);
+            if (r == null) {
+                trim(size);
+                r = new TextRaster(key, im, size);
+                rasters.put(key, r);
+                lru.addElement(r);
+                bytes += size;
+                return r;
+            }
+            // Another thread rendered the same text while we did
+            lru.removeElement(r);
+            lru.addElement(r);
+            AssetFinder.destroyImageBuffer(im);
+            return r;
+        }
+    }
+
+    //
+    // Evict the least recently looked up rasters, until there's room for
+    // needed more bytes.  Called with lock held.
+    //
+    private static void trim(long needed) {
+        while (bytes + needed > limit && lru.size() > 0) {
+            TextRaster victim = (TextRaster) lru.elementAt(0);
+            lru.removeElementAt(0);
+            rasters.remove(victim.key);
+            bytes -= victim.size;
+            if (Debug.LEVEL > 1) {
+                Debug.println("Evicting text raster "
+                              + victim.key.replace('\n', '|'));
+            }
+            // We hold lock, so no paint() can be using the buffer
+            AssetFinder.destroyImageBuffer(victim.image);
+            victim.image = null;
+        }
+    }
+
+    private static String makeKey(Font font, Color color, Color background,
+                                  String[] strings, int vspace)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(font.getName());
+        sb.append('/');
+        sb.append(font.getStyle());
+        sb.append('/');
+        sb.append(font.getSize());
+        sb.append('/');
+        sb.append(Integer.toHexString(color.getRGB()));
+        sb.append('/');
+        if (background != null) {
+            sb.append(Integer.toHexString(background.getRGB()));
+        }
+        sb.append('/');
+        sb.append(vspace);
+        for (int i = 0; i < strings.length; i++) {
+            sb.append('\n');
+            sb.append(strings[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Is this raster still in the cache?
+     **/
+    boolean isValid() {
+        return image != null;
+    }
+
+    /**
+     * Draw this raster with its upper-left hand corner at x,y.
+     *
+     * @return  false if this raster has no image, in which case the
+     *          caller needs to draw the text itself.
+     **/
+    boolean paint(Graphics2D gr, int x, int y) {
+        synchronized(lock) {
+            if (image == null) {
+                return false;
+            }
+            gr.drawImage(image, x, y, null);
+            return true;
+        }
+    }
+}
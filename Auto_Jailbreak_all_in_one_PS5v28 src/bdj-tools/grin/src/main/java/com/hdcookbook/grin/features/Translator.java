@@ -142,6 +142,10 @@ public class Translator extends Modifier implements Node {
         public int setTarget(int target) {
             return parent.setTarget(target);
         }
+
+        public boolean canOcclude() {
+            return parent.canOcclude();
+        }
     };  // End of RenderContext anonymous inner class
     
     public Translator(Show show) {
@@ -54,12 +54,16 @@
 
 package com.hdcookbook.grin.io.binary;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.awt.Color;
 import java.awt.Rectangle;
 import java.util.Hashtable;
+import java.util.Vector;
 
 import com.hdcookbook.grin.Feature;
 import com.hdcookbook.grin.GrinXHelper;
@@ -92,6 +96,15 @@ import com.hdcookbook.grin.util.Debug;
 
 /**
  * The main class to read in a Show object from a binary file format.
+ * <p>
+ * A show can be read eagerly, where every node is built before
+ * readShow returns, or lazily.  When a show is read lazily, the
+ * node declarations are read as usual, but the contents of each
+ * node are only indexed.  A node is built the first time something
+ * needs it:  when a segment is activated, when a node is looked up
+ * by its public name, or when a node that is being built refers to it.
+ * This keeps the time to the first frame of a large show proportional
+ * to what that frame uses, rather than to the size of the whole show.
  **/
 
 /*
@@ -180,14 +193,26 @@ public class GrinBinaryReader {
     private Class showCommandsClass = null;
     private String[] stringConstants = null;
     private int[][]  intArrayConstants = null;
-    private Rectangle[] rectangleConstants;
-    private Rectangle[][] rectangleArrayConstants;
+    private int[] rectangleData;                // x, y, width, height
+    private Rectangle[] rectangleConstants;     // Populated on demand
+    private int[][] rectangleArrayData;         // Rectangle constant indices
+    private Rectangle[][] rectangleArrayConstants;  // Populated on demand
+    private Hashtable colors = new Hashtable();     // Integer(rgba) -> Color
     private Command[][] commandArrayConstants;
 
     private GrinXHelper showCommands = null;
 
     private int extensionStartIndex;    // -1 if no extensions recorded
+    private String[] extensionNames = null;
     private Constructor[] extensionConstructors = null;
+        // Looked up the first time each extension class is instantiated
+
+    /*
+     * If non-null, a registered factory that's given the first chance
+     * to instantiate extension nodes, if it overrides getInstanceOf().
+     */
+    private GrinXHelper extensionFactory = null;
+    private boolean factoryCreatesExtensions = false;
     
     /*
      * If true, the binary file contains some debugging information.
@@ -199,6 +224,35 @@ public class GrinBinaryReader {
      * the extension classes.
      */
     private ClassLoader classLoader = null;
+
+    /*
+     * When a show is read lazily, this maps each node whose contents
+     * haven't been read yet to the bytes of those contents.  It's null
+     * when a show is read eagerly.
+     */
+    private Hashtable lazyContents = null;
+
+    /*
+     * Extension nodes of a lazily read show.  Their contents can't be
+     * examined without building them, so they are built as soon as the
+     * show has been indexed.
+     */
+    private Vector lazyExtensions = null;
+
+    /*
+     * Nodes built by the current call to loadNode, for initialization
+     * by the show once the outermost node has been built.  Their contents
+     * stay in lazyContents until they've been initialized too, so that
+     * isLoaded() never lets another thread at a node that isn't set up
+     * yet, and so that if building fails, they can be built again later.
+     */
+    private Vector lazyLoaded = new Vector();
+
+    /*
+     * The nodes in lazyLoaded, so that nodes that refer to each other
+     * don't recurse forever.
+     */
+    private Hashtable lazyBuilding = new Hashtable();
     
     /**
      * Constructs a GrinBinaryReader instance.
@@ -229,6 +283,48 @@ public class GrinBinaryReader {
        this(stream);
        this.classLoader = loader;
     }
+
+    /**
+     * Registers a factory for the extension nodes of the show.  This is
+     * normally an instance of the show's subclass of GrinXHelper, whose
+     * generated getInstanceOf(Show, int) method creates nodes by type
+     * id with a switch statement.  When a factory is registered:
+     * <ul>
+     *     <li>Each extension node is first offered to the factory, if
+     *         it overrides getInstanceOf(Show, int).  Only the types for
+     *         which it returns null are instantiated by reflection, and
+     *         their classes are only looked up when a node of that type
+     *         is first read.
+     *     <li>If the factory is an instance of the show's GrinXHelper
+     *         subclass, it's used as the show's factory object, rather
+     *         than loading that class with Class.forName().
+     * </ul>
+     * This must be called before readShow().
+     *
+     * @param factory   The factory, created for the Show that will be read.
+     *
+     * @see GrinXHelper#getInstanceOf(Show, int)
+     **/
+    public void setExtensionFactory(GrinXHelper factory) {
+        this.extensionFactory = factory;
+        this.factoryCreatesExtensions = factory != null
+                                        && overridesGetInstanceOf(factory);
+    }
+
+    //
+    // GrinXHelper's own getInstanceOf() throws an IOException, so a
+    // factory that doesn't override it can't create any extensions.
+    //
+    private static boolean overridesGetInstanceOf(GrinXHelper factory) {
+        Class[] paramTypes = { Show.class, Integer.TYPE };
+        try {
+            Method m = factory.getClass().getMethod("getInstanceOf", 
+                                                    paramTypes);
+            return m.getDeclaringClass() != GrinXHelper.class;
+        } catch (NoSuchMethodException ex) {
+            return false;       // Can't happen; it's public in GrinXHelper
+        }
+    }
     /**
      * Returns an instace of feature that corresponds to the index number
      * that this GrinBinaryReader keeps track of.
@@ -243,7 +339,11 @@ public class GrinBinaryReader {
         if (index < 0 || index >= featureList.length) {
             throw new IOException("non-existing feature reference");
         }  else {
-            return featureList[index];
+            Feature f = featureList[index];
+            if (lazyContents != null) {
+                readLazyContents(f);
+            }
+            return f;
         }
     }
  
@@ -258,7 +358,7 @@ public class GrinBinaryReader {
      * @see GrinBinaryWriter#getSegmentIndex(Segment)
      */
      Segment getSegmentFromIndex(int index) throws IOException {
-        if (index < 0 || index > segmentList.length) {
+        if (index < 0 || index >= segmentList.length) {
             throw new IOException("non-existing segment reference");
         }  else {
             return segmentList[index];
@@ -276,10 +376,14 @@ public class GrinBinaryReader {
      * @see GrinBinaryWriter#getRCHandlerIndex(RCHandler)
      */
     RCHandler getRCHandlerFromIndex(int index) throws IOException {
-        if (index < 0 || index > rcHandlerList.length) {
+        if (index < 0 || index >= rcHandlerList.length) {
             throw new IOException("non-existing rchandler reference");
         }  else {
-            return rcHandlerList[index];
+            RCHandler h = rcHandlerList[index];
+            if (lazyContents != null) {
+                readLazyContents(h);
+            }
+            return h;
         }
         
     }
@@ -295,16 +399,20 @@ public class GrinBinaryReader {
      * @see GrinBinaryWriter#getCommandIndex(Command)
      */
     Command getCommandFromIndex(int index) throws IOException {
-        if (index < 0 || index > commandList.length) {
+        if (index < 0 || index >= commandList.length) {
             throw new IOException("non-existing command reference " + index);
         }  else {
-            return commandList[index];
+            Command c = commandList[index];
+            if (lazyContents != null) {
+                readLazyContents(c);
+            }
+            return c;
         }
         
     }
 
     int[] getIntArrayFromReference(int index) throws IOException {
-        if (index < 0 || index > intArrayConstants.length) {
+        if (index < 0 || index >= intArrayConstants.length) {
             throw new IOException("non-existing int array reference");
         }  else {
             return intArrayConstants[index];
@@ -312,7 +420,7 @@ public class GrinBinaryReader {
     }
 
     String getStringFromReference(int index) throws IOException {
-        if (index < 0 || index > stringConstants.length) {
+        if (index < 0 || index >= stringConstants.length) {
             throw new IOException("wrong string reference ");
         }  else {
             return stringConstants[index];
@@ -320,26 +428,60 @@ public class GrinBinaryReader {
     }
 
     Rectangle getRectangleFromReference(int index) throws IOException {
-        if (index < 0 || index > rectangleConstants.length) {
+        if (index < 0 || index >= rectangleConstants.length) {
             throw new IOException("bad rectangle reference");
-        } else {
-            return rectangleConstants[index];
         }
+        Rectangle r = rectangleConstants[index];
+        if (r == null && index > 0) {
+            int i = index * 4;
+            r = new Rectangle(rectangleData[i], rectangleData[i+1],
+                              rectangleData[i+2], rectangleData[i+3]);
+            rectangleConstants[index] = r;
+        }
+        return r;
     }
     
     Rectangle[] getRectangleArrayFromReference(int index) throws IOException {
-        if (index < 0 || index > rectangleArrayConstants.length) {
+        if (index < 0 || index >= rectangleArrayConstants.length) {
             throw new IOException("bad rectangle array reference");
-        } else {
-            return rectangleArrayConstants[index];
         }
+        Rectangle[] row = rectangleArrayConstants[index];
+        if (row == null && index > 0) {
+            int[] refs = rectangleArrayData[index];
+            row = new Rectangle[refs.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = getRectangleFromReference(refs[i]);
+            }
+            rectangleArrayConstants[index] = row;
+        }
+        return row;
+    }
+
+    /*
+     * Colors are immutable, so every occurrence of a given color in
+     * a show shares one instance.
+     */
+    Color getColor(int rgba) {
+        Integer key = new Integer(rgba);
+        Color c = (Color) colors.get(key);
+        if (c == null) {
+            c = new Color(rgba, true);
+            colors.put(key, c);
+        }
+        return c;
     }
 
     Command[] getCommandArrayFromReference(int index) throws IOException {
-        if (index < 0 || index > commandArrayConstants.length) {
+        if (index < 0 || index >= commandArrayConstants.length) {
             throw new IOException("bad command array reference");
         } else {
-            return commandArrayConstants[index];
+            Command[] row = commandArrayConstants[index];
+            if (lazyContents != null && row != null) {
+                for (int i = 0; i < row.length; i++) {
+                    readLazyContents(row[i]);
+                }
+            }
+            return row;
         }
     }
     
@@ -365,6 +507,23 @@ public class GrinBinaryReader {
      */
     
     public void readShow(Show show) throws IOException {
+        readShow(show, false);
+    }
+
+    /**
+     * Reconstructs the Show object passed in as argument, optionally
+     * deferring the building of each node until it is first needed.
+     * When a show is read lazily, errors in the contents of a node
+     * are only detected when that node is built; they are reported by
+     * a RuntimeException from the show call that needed the node.
+     *
+     * @param show      An empty Show object to reconstruct.
+     * @param lazy      If true, build nodes on first use
+     * @throws IOException if binary data parsing fails.
+     *
+     * @see #loadNode(Object)
+     */
+    public void readShow(Show show, boolean lazy) throws IOException {
 
         this.show = show;
         this.showInArray = new Show[] { show } ;
@@ -374,12 +533,14 @@ public class GrinBinaryReader {
 
         stringConstants = readStringConstants(in);
         intArrayConstants = readIntArrayConstants(in);
-        rectangleConstants = readRectangleConstants(in);
-        rectangleArrayConstants = readRectangleArrayConstants(in);
-        extensionConstructors = readExtensionConstructors(in);
+        readRectangleConstants(in);
+        readRectangleArrayConstants(in);
+        readExtensionNames(in);
 
         readShowCommandsClass(in);
-        showCommands = instantiateShowCommandsCmd();
+        if (showCommands == null) {
+            showCommands = instantiateShowCommandsCmd();
+        }
         
         commandList = new Command[in.readInt()];
         readDeclarations(in, commandList);
@@ -394,19 +555,44 @@ public class GrinBinaryReader {
         debuggable = in.readBoolean();
             
         // Read in the show file
+        if (lazy) {
+            lazyExtensions = new Vector();
+        }
         featureList = new Feature[in.readInt()];
         readDeclarations(in, featureList);
         rcHandlerList = new RCHandler[in.readInt()];
         readDeclarations(in, rcHandlerList);
         segmentList = new Segment[in.readInt()];
         readDeclarations(in, segmentList);  
-        readContents(in, featureList);
-        readContents(in, rcHandlerList);
-        readContents(in, segmentList);
-        readContents(in, commandList);
+        if (lazy) {
+            Hashtable contents = new Hashtable();
+            indexContents(in, featureList, contents);
+            indexContents(in, rcHandlerList, contents);
+            indexContents(in, segmentList, contents);
+            indexContents(in, commandList, contents);
+            lazyContents = contents;
+        } else {
+            readContents(in, featureList);
+            readContents(in, rcHandlerList);
+            readContents(in, segmentList);
+            readContents(in, commandList);
+        }
 
         Segment showTop = (Segment) in.readSegmentReference();
         Group showTopGroup     = (Group) in.readFeatureReference();
+
+        if (lazy) {
+            for (int i = 0; i < lazyExtensions.size(); i++) {
+                readLazyContents(lazyExtensions.elementAt(i));
+            }
+            lazyExtensions = null;
+            readLazyContents(showTop);
+            commitLazyContents();
+            readPublicNames(featureList, publicFeatures);
+            readPublicNames(rcHandlerList, publicRCHandlers);
+            readPublicNames(segmentList, publicSegments);
+            lazyLoaded.removeAllElements();
+        }
         
         String[] fontName = in.readStringArray();
         int[] fontStyleSize = in.readSharedIntArray();
@@ -421,6 +607,72 @@ public class GrinBinaryReader {
                        showTop, showTopGroup,
                        publicSegments, publicFeatures, publicRCHandlers,
                        publicNamedCommands, fontName, fontStyleSize);
+        if (lazy) {
+            show.setLazyReader(this);
+        }
+    }
+
+    /**
+     * Determine if the contents of the given node have been read, and
+     * the node has been handed to the show for initialization.  This
+     * may be called without holding the show lock.  It's always true 
+     * for a show that was read eagerly.
+     **/
+    public boolean isLoaded(Object node) {
+        Hashtable contents = lazyContents;
+        return contents == null || !contents.containsKey(node);
+    }
+
+    /**
+     * Build the given node of a lazily read show, if that hasn't been
+     * done already.  Any nodes it refers to are built along with it,
+     * except for segments, which are built when they're activated.
+     * Once the outermost node has been built, the show is asked to
+     * initialize each of the new nodes, and only then are they reported
+     * as loaded.  This is normally called by the show; clients of the 
+     * GRIN framework shouldn't need to call it.
+     *
+     * @throws RuntimeException if the contents of the node can't be read.
+     *          In this case the node is still not loaded, and a later
+     *          call will try to build it again.
+     **/
+    public void loadNode(Object node) {
+        if (isLoaded(node)) {
+            return;
+        }
+        synchronized(show) {
+            // We're called again if a node asks the show for another one
+            // while it's being initialized.  The outer call initializes
+            // whatever we build, and commits it.
+            boolean outermost = lazyBuilding.isEmpty();
+            try {
+                readLazyContents(node);
+                if (!outermost) {
+                    return;
+                }
+                for (int i = 0; i < lazyLoaded.size(); i++) {
+                    show.initializeLoadedNode(lazyLoaded.elementAt(i));
+                }
+            } catch (IOException ex) {
+                if (Debug.LEVEL > 0) {
+                    Debug.printStackTrace(ex);
+                }
+                if (outermost) {
+                    lazyLoaded.removeAllElements();
+                    lazyBuilding.clear();
+                }
+                throw new RuntimeException("Error reading " + node 
+                                           + ":  " + ex);
+            } catch (RuntimeException ex) {
+                if (outermost) {
+                    lazyLoaded.removeAllElements();
+                    lazyBuilding.clear();
+                }
+                throw ex;
+            }
+            commitLazyContents();       // Only now can isLoaded() see them
+            lazyLoaded.removeAllElements();
+        }
     }
 
     private Hashtable readPublicNamedCommands(GrinDataInputStream in) 
@@ -508,8 +760,12 @@ public class GrinBinaryReader {
                     break;
                 case Constants.NULL: // happens for commands
                     node = null;
+                    break;
                 default:  // extensions  
                     node = instantiateExtension(identifier);
+                    if (lazyExtensions != null && node != null) {
+                        lazyExtensions.addElement(node);
+                    }
                     break;
                 }
 
@@ -519,7 +775,13 @@ public class GrinBinaryReader {
     }
 
     private Node instantiateExtension(int typeIdentifier) throws IOException {
-        if (extensionConstructors == null) {
+        if (factoryCreatesExtensions) {
+            Node node = extensionFactory.getInstanceOf(show, typeIdentifier);
+            if (node != null) {
+                return node;
+            }
+        }
+        if (extensionNames == null) {
             if (showCommands == null) {
                 throw new IOException("Missing GrinXHelper subclass for "
                                       + "instantiating extensions");
@@ -527,6 +789,12 @@ public class GrinBinaryReader {
             return showCommands.getInstanceOf(show, typeIdentifier);
         } else {
             int i = typeIdentifier - extensionStartIndex;
+            if (i < 0 || i >= extensionNames.length) {
+                throw new IOException("Bad extension type " + typeIdentifier);
+            }
+            if (extensionConstructors[i] == null) {
+                extensionConstructors[i] = findConstructor(extensionNames[i]);
+            }
             try {
                 return (Node) extensionConstructors[i].newInstance(showInArray);
             } catch (Exception ex) {
@@ -553,43 +821,44 @@ public class GrinBinaryReader {
         return array;
     }
 
-    private Rectangle[] readRectangleConstants(GrinDataInputStream in) 
+    //
+    // The rectangle constants are kept packed in an int array, and
+    // each Rectangle is only created the first time it's referred to.
+    // With a lazily read show, many of them never are.
+    //
+    private void readRectangleConstants(GrinDataInputStream in) 
             throws IOException 
     {
         checkValue(in.readByte(),
                 Constants.RECTANGLE_CONSTANTS_IDENTIFIER,
                 "Rectangle constants identifier");        
         int length = in.readInt();
-        Rectangle[] array = new Rectangle[length];
-        array[0] = null;
-        for (int i = 1; i < length; i++) {
-            Rectangle r = new Rectangle();
-            r.x = in.readInt();
-            r.y = in.readInt();
-            r.width = in.readInt();
-            r.height = in.readInt();
-            array[i] = r;
+        rectangleData = new int[length * 4];
+        for (int i = 4; i < rectangleData.length; i++) {
+            rectangleData[i] = in.readInt();
         }
-        return array;
+        rectangleConstants = new Rectangle[length];
     }
 
-    private Rectangle[][] readRectangleArrayConstants(GrinDataInputStream in) 
+    private void readRectangleArrayConstants(GrinDataInputStream in) 
             throws IOException 
     {
         checkValue(in.readByte(),
                 Constants.RECTANGLE_ARRAY_CONSTANTS_IDENTIFIER,
                 "Rectangle array constants identifier");        
         int length = in.readInt();
-        Rectangle[][] array = new Rectangle[length][];
-        array[0] = null;
+        rectangleArrayData = new int[length][];
         for (int i = 1; i < length; i++) {
-            Rectangle[] row = new Rectangle[in.readInt()];
-            array[i] = row;
+            int[] row = new int[in.readInt()];
+            rectangleArrayData[i] = row;
             for (int j = 0; j < row.length; j++) {
-                row[j] = getRectangleFromReference(in.readInt());
+                row[j] = in.readInt();
+                if (row[j] < 0 || row[j] * 4 >= rectangleData.length) {
+                    throw new IOException("bad rectangle reference");
+                }
             }
         }
-        return array;
+        rectangleArrayConstants = new Rectangle[length][];
     }
 
     private Command[][] readCommandArrayConstants(GrinDataInputStream in) 
@@ -611,7 +880,7 @@ public class GrinBinaryReader {
         return array;
     }
 
-    private Constructor[] readExtensionConstructors(GrinDataInputStream in) 
+    private void readExtensionNames(GrinDataInputStream in) 
                 throws IOException 
     {
         checkValue(in.readByte(),
@@ -619,30 +888,33 @@ public class GrinBinaryReader {
                 "Extension classes identifier");        
         extensionStartIndex = in.readInt();
         if (extensionStartIndex == -1) {
-            return null;
+            return;
         }
         int length = in.readInt();
-        Constructor[] result = new Constructor[length];
-        Class[] paramTypes = { Show.class };
+        extensionNames = new String[length];
         for (int i = 0; i <length; i++) {
-            String name = in.readUTF();
-            try {
+            extensionNames[i] = in.readUTF();
+        }
+        extensionConstructors = new Constructor[length];
+    }
+
+    private Constructor findConstructor(String name) throws IOException {
+        Class[] paramTypes = { Show.class };
+        try {
             Class cl = null;
             if (classLoader == null) {
-                        cl = Class.forName(name);
+                cl = Class.forName(name);
             } else {
                 cl = Class.forName(name, true, classLoader);
             }
-                    result[i] = cl.getDeclaredConstructor(paramTypes);
-            } catch (ClassNotFoundException ex) {
-                throw new IOException("Extension class " + name 
-                                       + " is missing:  " + ex);
-            } catch (NoSuchMethodException ex) {
-                throw new IOException("Extension class " + name 
-                                       + " missing constructor:  " + ex);
-            }
+            return cl.getDeclaredConstructor(paramTypes);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Extension class " + name 
+                                   + " is missing:  " + ex);
+        } catch (NoSuchMethodException ex) {
+            throw new IOException("Extension class " + name 
+                                   + " missing constructor:  " + ex);
         }
-        return result;
     }
 
     
@@ -653,6 +925,13 @@ public class GrinBinaryReader {
         if (className == null) {
             return;
         }
+        if (extensionFactory != null
+            && extensionFactory.getClass().getName().equals(className)) 
+        {
+            showCommandsClass = extensionFactory.getClass();
+            showCommands = extensionFactory;
+            return;
+        }
         try {
         if (classLoader == null) {
             showCommandsClass = Class.forName(className);
@@ -682,6 +961,83 @@ public class GrinBinaryReader {
         }
     }
 
+    /*
+     * Record the contents of each node in list, without building
+     * the node.
+     */
+    private void indexContents(GrinDataInputStream in, Object[] list,
+                               Hashtable contents)
+       throws IOException 
+    {
+        for (int i = 0; i < list.length; i++) {  
+            if (list[i] != null) {
+                byte[] buf = new byte[in.readInt()];
+                in.readFully(buf);
+                contents.put(list[i], buf);
+            }
+        }
+    }
+
+    /*
+     * Build a node of a lazily read show from its recorded contents, if
+     * that hasn't been done already.  The node is added to lazyLoaded, but
+     * its contents are only removed by commitLazyContents(), once
+     * everything that's being built with it has been built.
+     */
+    private void readLazyContents(Object node) throws IOException {
+        if (node == null || lazyBuilding.containsKey(node)) {
+            return;
+        }
+        byte[] buf = (byte[]) lazyContents.get(node);
+        if (buf == null) {
+            return;
+        }
+        lazyBuilding.put(node, node);
+        InputStream is = new ByteArrayInputStream(buf);
+        if (Debug.ASSERT) {
+            is = new DebugInputStream(is);
+            ((DebugInputStream) is).pushExpectedLength(buf.length);
+        }
+        GrinDataInputStream in = new GrinDataInputStream(is, this);
+        ((Node) node).readInstanceData(in, buf.length);
+        if (Debug.ASSERT) {
+            ((DebugInputStream) is).popExpectedLength();
+        }
+        lazyLoaded.addElement(node);
+    }
+
+    /*
+     * Mark the nodes in lazyLoaded as loaded, now that they have all been
+     * built and initialized.
+     */
+    private void commitLazyContents() {
+        for (int i = 0; i < lazyLoaded.size(); i++) {
+            lazyContents.remove(lazyLoaded.elementAt(i));
+        }
+        lazyBuilding.clear();
+    }
+
+    /*
+     * Public nodes are entered in the public tables when they're read,
+     * so for a lazily read show we take the names of the nodes that
+     * haven't been built yet from the start of their contents.  This
+     * is where every built-in node records its name; extension nodes
+     * have all been built by the time this is called.
+     */
+    private void readPublicNames(Object[] list, Hashtable table) 
+            throws IOException
+    {
+        for (int i = 0; i < list.length; i++) {
+            byte[] buf = (byte[]) lazyContents.get(list[i]);
+            if (buf == null || buf.length < 5 || buf[0] == 0) {
+                continue;       // Already built, or not public
+            }
+            int index = ((buf[1] & 0xff) << 24) | ((buf[2] & 0xff) << 16)
+                        | ((buf[3] & 0xff) << 8) | (buf[4] & 0xff);
+            table.put(getStringFromReference(index), list[i]);
+        }
+    }
+
     private String[] readStringConstants(GrinDataInputStream in) 
         throws IOException {
         checkValue(in.readByte(), 
@@ -689,15 +1045,17 @@ public class GrinBinaryReader {
                 "String array identifier");
         
         String[] strings = new String[in.readInt()];
-        // strings[0] is null
+        // strings[0] is null.  The strings are interned, so that names
+        // shared between shows, and with the xlet's own code, are only
+        // held once.
         for (int i = 1; i < strings.length; i++) {
-            strings[i] = in.readUTF();
+            strings[i] = in.readUTF().intern();
         }
         return strings;
     }
 
     Command[] getCommandArrayFromIndex(int index) throws IOException  {
-        if (index < 0 || index > commandArrayConstants.length) {
+        if (index < 0 || index >= commandArrayConstants.length) {
             throw new IOException("non-existing command array reference");
         }  else {
             return commandArrayConstants[index];
@@ -84,6 +84,9 @@ public class GrinDataInputStream extends DataInputStream {
     * is working with.
     */
    private GrinBinaryReader binaryReader; 
+
+   private static final Feature[] EMPTY_FEATURES = new Feature[0];
+   private static final RCHandler[] EMPTY_RCHANDLERS = new RCHandler[0];
    
    GrinDataInputStream(InputStream in, GrinBinaryReader reader) {
        super(in);
@@ -91,7 +94,8 @@ public class GrinDataInputStream extends DataInputStream {
    }
    
    /**
-    * Reads in and constructs a Color instance.
+    * Reads in a Color instance.  Colors are immutable, so all of the
+    * occurrences of a given color in a show share one instance.
     * @return A Color instance reconstructed from the input stream.
     * @throws java.io.IOException if IO error occurs.
     */
@@ -102,7 +106,7 @@ public class GrinDataInputStream extends DataInputStream {
        }
       
        int rgba = readInt();
-       return new Color(rgba, true);
+       return binaryReader.getColor(rgba);
    }
    
    /**
@@ -261,7 +265,8 @@ public class GrinDataInputStream extends DataInputStream {
    
     /**
     * Reads in refereces of Features and returns an array of  
-    * Features corresponding to the references.
+    * Features corresponding to the references.  Empty arrays
+    * are shared.
     * 
     * @return   an array of Features that is referenced from.
     */
@@ -272,7 +277,11 @@ public class GrinDataInputStream extends DataInputStream {
             return null;
         }    
         
-        Feature[] f = new Feature[readInt()];       
+        int length = readInt();
+        if (length == 0) {
+            return EMPTY_FEATURES;
+        }
+        Feature[] f = new Feature[length];       
         for (int i = 0; i < f.length; i++) {
             f[i] = readFeatureReference();
         }   
@@ -282,7 +291,7 @@ public class GrinDataInputStream extends DataInputStream {
    
    /**
     * Reads in refereces of RCHandler and returns an array of the 
-    * RCHandler.
+    * RCHandler.  Empty arrays are shared.
     * 
     * @return   an array of RCHandler that is referenced from.
     */
@@ -290,6 +299,9 @@ public class GrinDataInputStream extends DataInputStream {
            throws IOException {
        
        int length = readInt();
+       if (length == 0) {
+           return EMPTY_RCHANDLERS;
+       }
        RCHandler[] handlers = new RCHandler[length];
        for (int i = 0; i < handlers.length; i++) {
            handlers[i] = readRCHandlerReference();
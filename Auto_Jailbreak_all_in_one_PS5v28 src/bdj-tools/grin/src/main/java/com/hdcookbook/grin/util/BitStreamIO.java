@@ -123,7 +123,11 @@ import java.io.DataOutputStream;
  * This code is probably a bit slower than hand-written shifts and
  * masks, but it's simpler, and perfectly adequate for the small
  * binary data structures that are typical of Blu-ray and many other
- * environments.
+ * environments.  Byte-aligned 8, 16, 32 and 64 bit fields, which are
+ * most of the fields in those structures, are read and written with a
+ * single call on the data stream rather than a byte at a time.  Nothing
+ * is read ahead of the requested bits, so it remains safe to mix calls
+ * on the helper with direct use of the stream.
  *
  * @author Bill Foote (http://jovial.com)
  */
@@ -157,6 +161,19 @@ public class BitStreamIO {
         if (Debug.ASSERT && (numBits < 0 || numBits > 32)) {
             Debug.assertFail();
         }
+        if ((bitsProcessed & 7) == 0) {
+            switch (numBits) {
+                case 8:
+                    bitsProcessed += 8;
+                    return dis.readUnsignedByte();
+                case 16:
+                    bitsProcessed += 16;
+                    return dis.readUnsignedShort();
+                case 32:
+                    bitsProcessed += 32;
+                    return dis.readInt();
+            }
+        }
         int result = 0;
         int bitsInBuf = ( 8 - (bitsProcessed & 7)) & 7;
         bitsProcessed += numBits;
@@ -200,6 +217,22 @@ public class BitStreamIO {
         if (Debug.ASSERT && (numBits < 0 || numBits > 64)) {
             Debug.assertFail();
         }
+        if ((bitsProcessed & 7) == 0) {
+            switch (numBits) {
+                case 8:
+                    bitsProcessed += 8;
+                    return dis.readUnsignedByte();
+                case 16:
+                    bitsProcessed += 16;
+                    return dis.readUnsignedShort();
+                case 32:
+                    bitsProcessed += 32;
+                    return ((long) dis.readInt()) & 0xffffffffL;
+                case 64:
+                    bitsProcessed += 64;
+                    return dis.readLong();
+            }
+        }
         long result = 0;
         int bitsInBuf = ( 8 - (bitsProcessed & 7)) & 7;
         bitsProcessed += numBits;
@@ -244,6 +277,22 @@ public class BitStreamIO {
         if (Debug.ASSERT && (numBits < 0 || numBits > 32)) {
             Debug.assertFail();
         }
+        if ((bitsProcessed & 7) == 0) {
+            switch (numBits) {
+                case 8:
+                    bitsProcessed += 8;
+                    dos.writeByte(value);
+                    return;
+                case 16:
+                    bitsProcessed += 16;
+                    dos.writeShort(value);
+                    return;
+                case 32:
+                    bitsProcessed += 32;
+                    dos.writeInt(value);
+                    return;
+            }
+        }
         int bitsInBuf = (bitsProcessed & 7);
         bitsProcessed += numBits;
         while (numBits > 0) {
@@ -291,6 +340,26 @@ public class BitStreamIO {
         if (Debug.ASSERT && (numBits < 0 || numBits > 64)) {
             Debug.assertFail();
         }
+        if ((bitsProcessed & 7) == 0) {
+            switch (numBits) {
+                case 8:
+                    bitsProcessed += 8;
+                    dos.writeByte((int) value);
+                    return;
+                case 16:
+                    bitsProcessed += 16;
+                    dos.writeShort((int) value);
+                    return;
+                case 32:
+                    bitsProcessed += 32;
+                    dos.writeInt((int) value);
+                    return;
+                case 64:
+                    bitsProcessed += 64;
+                    dos.writeLong(value);
+                    return;
+            }
+        }
         int bitsInBuf = (bitsProcessed & 7);
         bitsProcessed += numBits;
         while (numBits > 0) {
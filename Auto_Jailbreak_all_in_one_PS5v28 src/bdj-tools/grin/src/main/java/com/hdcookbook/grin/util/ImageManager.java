@@ -63,6 +63,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.Vector;
 
 /**
  * This class manages a set of images.  It loads and flushes them as needed.
@@ -72,13 +73,39 @@ import java.util.Hashtable;
 public class ImageManager {
 
     private static Hashtable images = new Hashtable();
-    private static Hashtable imageMap = null;   
-        // Map of mosaic tile name to MosaicTile
-    private static Object lock = new Object();
+    private static volatile Hashtable imageMap = null;   
+        // Map of mosaic tile name to MosaicTile.  This is set once, 
+        // before images are loaded, so it's read without locking.
+    private static Object[] locks = new Object[16];
+        // Lock for the images with a given name hash.  Hashtable
+        // synchronizes its own accesses; these locks make the lookup,
+        // the reference count and the removal of an image atomic, 
+        // without making getImage() and ungetImage() calls on 
+        // different images contend for one global lock.
+
+    private static Object retainedLock = new Object();
+    private static Vector retainedImages = new Vector();
+        // Vector<ManagedFullImage>, the retained image cache, least 
+        // recently retained first.  See setRetainedImageBudget(long).
+    private static long retainedBudget = 0;
+    private static long retainedBytes = 0;
+    private static int retainedHits = 0;
+    private static int retainedMisses = 0;
+    private static int retainedEvictions = 0;
+
+    static {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
 
     private ImageManager() {
     }
 
+    private static Object getLock(String name) {
+        return locks[(name.hashCode() & 0x7fffffff) % locks.length];
+    }
+
     /**
      * Get an image.  Each call to getImage should be balanced
      * by a call to ungetImage when you no longer need the image.
@@ -92,26 +119,49 @@ public class ImageManager {
      * @see ManagedImage
      **/
     public static ManagedImage getImage(String name) {
+        Object lock = getLock(name);
+        MosaicTile t = null;
+        ManagedImage im;
         synchronized(lock) {
-            ManagedImage im = (ManagedImage) images.get(name);
+            im = (ManagedImage) images.get(name);
             if (im == null) {
-                if (imageMap != null) {
-                    MosaicTile t = (MosaicTile) imageMap.get(name);
-                    if (t != null) {
-                        im = new ManagedSubImage(name, t.mosaicName, 
-                                                 t.placement);
-                    } else if (Debug.LEVEL > 0) {
+                Hashtable map = imageMap;
+                if (map != null) {
+                    t = (MosaicTile) map.get(name);
+                    if (t == null && Debug.LEVEL > 0) {
                         Debug.println(name + " not found in image map.");
                     }
                 }
-                if (im == null) {
+                if (t == null) {
                     im = new ManagedFullImage(name);
+                    images.put(name, im);
                 }
+            }
+            if (im != null) {
+                im.addReference();
+                return im;
+            }
+        }
+        //
+        // The image is a tile in a mosaic.  We get the mosaic without 
+        // holding the lock for the tile, so that we never hold two of
+        // our locks at once.  If another thread gets the tile in the
+        // meantime, we give back our reference to the mosaic.
+        //
+        ManagedFullImage mosaic = (ManagedFullImage) getImage(t.mosaicName);
+        synchronized(lock) {
+            im = (ManagedImage) images.get(name);
+            if (im == null) {
+                im = new ManagedSubImage(name, mosaic, t.placement);
                 images.put(name, im);
+                mosaic = null;
             }
             im.addReference();
-            return im;
         }
+        if (mosaic != null) {
+            ungetImage(mosaic);
+        }
+        return im;
     }
 
     /**
@@ -130,7 +180,7 @@ public class ImageManager {
      **/
     public static ManagedImage getImage(URL url) {
         String name = url.toExternalForm();
-        synchronized(lock) {
+        synchronized(getLock(name)) {
             ManagedImage im = (ManagedImage) images.get(name);
             if (im == null) {
                 im = new ManagedFullImage(name, url);
@@ -152,7 +202,7 @@ public class ImageManager {
      * @see ManagedImage
      **/
     public static void getImage(ManagedImage im) {
-        synchronized(lock) {
+        synchronized(getLock(im.getName())) {
             if (!im.isReferenced()) {
                 throw new IllegalStateException();
             }
@@ -168,19 +218,27 @@ public class ImageManager {
      * @see ManagedImage
      **/
     public static void ungetImage(ManagedImage im) {
-        synchronized(lock) {
+        boolean destroy = false;
+        synchronized(getLock(im.getName())) {
             im.removeReference();
             if (!im.isReferenced()) {
                 images.remove(im.getName());
-                im.destroy();
+                destroy = true;
             }
         }
+        if (destroy) {
+            im.destroy();
+                // Once removed from images, no other thread can get im,
+                // so this is safe outside of the lock.  Destroying a
+                // mosaic tile ungets the mosaic, which takes a different
+                // lock.
+        }
     }
 
     static void readImageMap(String fileName, Hashtable map) throws IOException 
     {
         // Reads the file written by 
-        // com.hdcookbook.grin.build.mosaic.MosaicMaker.makeMosaics()
+        // com.hdcookbook.grin.build.mosaic.MosaicMaker.write()
         // This maps the original image file name to the name of a
         // mosaic image, and the position within that mosaic.
         DataInputStream dis = null;
@@ -231,8 +289,176 @@ public class ImageManager {
     }
 
     static void setImageMap(Hashtable map) {
-        synchronized(lock) {
-            imageMap = map;
+        imageMap = map;
+    }
+
+    /**
+     * Set the pixel memory budget for the retained image cache.  When
+     * the last client of a loaded image unprepares it, the image is
+     * normally flushed right away.  With a budget greater than zero,
+     * the image is instead kept loaded in the retained image cache, so
+     * that preparing it again, e.g. when navigating back to a menu, 
+     * doesn't decode the image again.  When the images in the cache
+     * add up to more than the budget, the least recently retained ones
+     * are flushed.  Images are counted as four bytes per pixel; an
+     * image that's a tile in a mosaic retains its entire mosaic.
+     * <p>
+     * The default budget is zero, which disables the cache.  On a
+     * BD-J player, the budget should leave room in the graphics memory
+     * for the images that the show has prepared.
+     *
+     * @param bytes     The budget, in bytes of pixel memory
+     *
+     * @see #getRetainedImageBytes()
+     * @see #getRetainedImageHits()
+     **/
+    public static void setRetainedImageBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        synchronized(retainedLock) {
+            retainedBudget = bytes;
+        }
+        trimRetainedImages();
+    }
+
+    /**
+     * Get the pixel memory used by the images in the retained image
+     * cache.
+     *
+     * @see #setRetainedImageBudget(long)
+     **/
+    public static long getRetainedImageBytes() {
+        synchronized(retainedLock) {
+            return retainedBytes;
+        }
+    }
+
+    /**
+     * Get the number of times an image was prepared that was kept
+     * loaded by the retained image cache.
+     *
+     * @see #setRetainedImageBudget(long)
+     * @see #resetRetainedImageCounters()
+     **/
+    public static int getRetainedImageHits() {
+        synchronized(retainedLock) {
+            return retainedHits;
+        }
+    }
+
+    /**
+     * Get the number of times an image was prepared that wasn't loaded,
+     * while the retained image cache was enabled.  Each miss means 
+     * that the image will be decoded.
+     *
+     * @see #setRetainedImageBudget(long)
+     * @see #resetRetainedImageCounters()
+     **/
+    public static int getRetainedImageMisses() {
+        synchronized(retainedLock) {
+            return retainedMisses;
+        }
+    }
+
+    /**
+     * Get the number of images that were flushed from the retained image
+     * cache to stay within its budget.
+     *
+     * @see #setRetainedImageBudget(long)
+     * @see #resetRetainedImageCounters()
+     **/
+    public static int getRetainedImageEvictions() {
+        synchronized(retainedLock) {
+            return retainedEvictions;
+        }
+    }
+
+    /**
+     * Reset the hit, miss and eviction counts of the retained image
+     * cache to zero.
+     **/
+    public static void resetRetainedImageCounters() {
+        synchronized(retainedLock) {
+            retainedHits = 0;
+            retainedMisses = 0;
+            retainedEvictions = 0;
+        }
+    }
+
+    private static long getPixelBytes(ManagedFullImage im) {
+        return 4L * im.getWidth() * im.getHeight();
+    }
+
+    //
+    // Called by ManagedFullImage, with its lock held, when its last client
+    // unprepares it.  Returns true if im is put in the cache, in which
+    // case the caller must call trimRetainedImages() once it has released
+    // its lock.
+    //
+    static boolean retainImage(ManagedFullImage im) {
+        long bytes = getPixelBytes(im);
+        synchronized(retainedLock) {
+            if (bytes > retainedBudget) {
+                return false;
+            }
+            retainedImages.addElement(im);
+            retainedBytes += bytes;
+            return true;
+        }
+    }
+
+    //
+    // Called by ManagedFullImage, with its lock held, when a retained 
+    // image is prepared by a client (hit is true), or destroyed.
+    //
+    static void unretainImage(ManagedFullImage im, boolean hit) {
+        synchronized(retainedLock) {
+            if (retainedImages.removeElement(im)) {
+                retainedBytes -= getPixelBytes(im);
+            }
+            if (hit) {
+                retainedHits++;
+            }
+        }
+    }
+
+    //
+    // Called by ManagedFullImage, with its lock held, when an image that
+    // isn't loaded is prepared.
+    //
+    static void countRetainedMiss() {
+        synchronized(retainedLock) {
+            if (retainedBudget > 0) {
+                retainedMisses++;
+            }
+        }
+    }
+
+    //
+    // Flush the least recently retained images until the cache is within
+    // its budget.  Images are flushed outside of retainedLock, and this
+    // must not be called with a ManagedFullImage lock held, since it
+    // takes the locks of the images it evicts.
+    //
+    static void trimRetainedImages() {
+        for (;;) {
+            ManagedFullImage victim;
+            synchronized(retainedLock) {
+                if (retainedBytes <= retainedBudget 
+                    || retainedImages.size() == 0) 
+                {
+                    return;
+                }
+                victim = (ManagedFullImage) retainedImages.elementAt(0);
+                retainedImages.removeElementAt(0);
+                retainedBytes -= getPixelBytes(victim);
+                retainedEvictions++;
+            }
+            if (Debug.LEVEL > 1) {
+                Debug.println("Evicting retained image " + victim);
+            }
+            victim.releaseRetained();
         }
     }
 }
@@ -82,6 +82,12 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
     private int height = 0;
         // If there's an error loading, width and height are left at 0
     private boolean flushing = false;
+    private boolean retained = false;
+        // True when the last client unprepared us, and ImageManager's
+        // retained image cache is holding a prepare to keep us loaded.
+        // See ImageManager.setRetainedImageBudget(long).
+    private long loadStartTime;
+        // When we went from READY TO LOAD to LOADING, for Metrics
 
     /////////////////////////////////
     //    STATE MODEL              //
@@ -202,7 +208,17 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
     public synchronized void prepare() {
             // See ManagedImage's main class documentation under
             //  "ManagedImage contract - image loading and unloading".
+        if (retained) {
+            // The retained image cache holds a prepare that keeps us
+            // LOADED.  Our new client takes it over.
+            retained = false;
+            ImageManager.unretainImage(this, true);
+            return;
+        }
         numPrepares++;
+        if (numPrepares == 1 && image == null) {
+            ImageManager.countRetainedMiss();
+        }
         // This might move us from UNLOADED to READY TO LOAD
     }
 
@@ -286,6 +302,7 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
         } else {
             image = Toolkit.getDefaultToolkit().createImage(url);
         }
+        loadStartTime = System.currentTimeMillis();
         notifyAll();
         // Now our state is LOADING
 
@@ -309,6 +326,9 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
     public boolean 
     imageUpdate(Image img, int infoflags, int x, int y, int width, int height)
     {
+        long loadTime;
+        int w;
+        int h;
         synchronized(this) {
             if (img != image) {
                     // They've lost interest in us.  So sad.
@@ -347,11 +367,15 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
             } else {
                 return true;
             }
+            loadTime = System.currentTimeMillis() - loadStartTime;
+            w = this.width;
+            h = this.height;
         }
 
         // At this point, the image just finished loading completely, and
         // we are outside of the synchronized block.  Our thread might
         // be holding locks, however.
+        Metrics.imageLoaded(w, h, loadTime);
         AssetFinder.notifyLoaded(this);
 
         return false;
@@ -361,19 +385,46 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
      * {@inheritDoc}
      **/
     public void unprepare() {
+        unprepare(false);
+    }
+
+    //
+    // If release is false, this is a client's unprepare, and the final
+    // unprepare of a LOADED image gives it to ImageManager's retained
+    // image cache, rather than flushing it.  If release is true, the 
+    // cache is giving up its prepare, if it still holds it.
+    //
+    private void unprepare(boolean release) {
             // See ManagedImage's main class documentation under
             //  "ManagedImage contract - image loading and unloading".
         int w = 0;
         int h = 0;
         boolean notify = false;
         Image flush = null;
+        boolean retain = false;
         synchronized(this) {
-            numPrepares--;
-            if (numPrepares > 0) {
-                // If we're in READY TO LOAD, LOADING, LOADED, or
-                // perhaps FLUSHING
-                return;
-            } else {
+            if (release) {
+                if (!retained) {
+                    // A client prepared us after the cache decided
+                    // to let go of us.
+                    return;
+                }
+                retained = false;
+            } else if (numPrepares == 1 && loaded && width > 0
+                       && !flushing && ImageManager.retainImage(this)) 
+            {
+                // We stay LOADED, and the cache's prepare takes over from
+                // that of our last client.
+                retained = true;
+                retain = true;
+            }
+            if (!retain) {
+                numPrepares--;
+                if (numPrepares > 0) {
+                    // If we're in READY TO LOAD, LOADING, LOADED, or
+                    // perhaps FLUSHING
+                    return;
+                }
                 // Now we want to be in UNLOADED, but we're going to have
                 // to go through FLUSHING first.
                 if (image != null) {
@@ -390,6 +441,12 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
                 notifyAll();
             }
         }
+        if (retain) {
+            // We were retained.  Making room in the cache might flush 
+            // other images, so that's done outside of our lock.
+            ImageManager.trimRetainedImages();
+            return;
+        }
         if (flush != null) {
                 // We needed to pull the flush() call outside of the 
                 // synchronized block.  See the discussion about the PBP
@@ -411,6 +468,7 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
         // non-local locks.
         //
         if (notify) {
+            Metrics.imageUnloaded(w, h);
             AssetFinder.notifyUnloaded(this, w, h);
         }
     }
@@ -450,7 +508,22 @@ public class ManagedFullImage extends ManagedImage implements ImageObserver {
         }
     }
 
+    //
+    // Called by ImageManager to evict us from the retained image cache.
+    //
+    void releaseRetained() {
+        unprepare(true);
+    }
+
     void destroy() {
+        synchronized(this) {
+            if (retained) {
+                ImageManager.unretainImage(this, false);
+            }
+        }
+        unprepare(true);
+            // Flushes us if we were retained.  We're unreferenced, so 
+            // no client can prepare us again.
         if (Debug.LEVEL > 0 && loaded) {
             Debug.println("Warning:  Destroying loaded image " + this + ".");
             Debug.println("          unprepare() should always be called before ungetImage().");
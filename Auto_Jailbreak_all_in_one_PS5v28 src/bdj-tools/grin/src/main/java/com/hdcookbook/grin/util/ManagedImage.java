@@ -125,7 +125,9 @@ import java.awt.Rectangle;
  * it must call <code>unprepare()</code>.  In other words, each call to
  * <code>prepare()</code> must eventually be balanced by a call to
  * <code>unprepare()</code>.  When that final call to <code>unprepare()</code>
- * is received, the image is unloaded (by calling <code>Image.flush()</code>).
+ * is received, the image is unloaded (by calling <code>Image.flush()</code>),
+ * unless <code>ImageManager</code>'s retained image cache is enabled, in
+ * which case it might stay loaded for a while in case it's prepared again.
  * <p>
  * The GRIN features <code>fixed_image</code> and <code>image_sequence</code>
  * <code>prepare()</code> their images when the feature is in the active
@@ -72,9 +72,14 @@ public class ManagedSubImage extends ManagedImage {
     private Rectangle placement;
     private int numReferences = 0;
 
-    ManagedSubImage(String name, String mosaicName, Rectangle placement) {
+    //
+    // The caller has done ImageManager.getImage() on the mosaic; this
+    // reference is released by destroy().
+    //
+    ManagedSubImage(String name, ManagedFullImage mosaic, Rectangle placement) 
+    {
         this.name = name;
-        this.mosaic = (ManagedFullImage) ImageManager.getImage(mosaicName);
+        this.mosaic = mosaic;
         this.placement = placement;
     }
 
@@ -0,0 +1,486 @@
+
+/*  
+ * Copyright (c) 2007, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * An always-on registry of runtime metrics for GRIN.  Unlike Profile, 
+ * which needs Debug.PROFILE and a remote computer, this keeps a small,
+ * fixed set of counters, gauges and histograms in memory in production
+ * builds, and an xlet can dump them as JSON whenever it wants, e.g. to
+ * a log file or a debug screen.
+ * <p>
+ * Histograms have fixed power-of-two buckets:  bucket 0 counts the 
+ * value 0, and bucket i counts values from 2<sup>i-1</sup> up to 
+ * 2<sup>i</sup> - 1.  Recording a value is a handful of array operations,
+ * with no heap allocation.
+ * <p>
+ * The metrics are shared by all shows and animation engines in the VM,
+ * so they're written by the animation thread of each engine, the setup
+ * thread of each show, and the image loading threads.  Every update is
+ * made with one lock held.  It's only held for a few array operations,
+ * so contention is rare, and a snapshot is always consistent.
+ *
+ * @see #writeJSON(java.io.Writer)
+ **/
+public class Metrics {
+
+    /**
+     * Histogram of the time taken to render each frame the animation
+     * engine shows, in microseconds.  This covers finding the damaged
+     * areas, erasing and painting them, and getting them to the screen.
+     **/
+    public final static int FRAME_TIME = 0;
+
+    /**
+     * Histogram of the time taken by each model update of the animation
+     * engine, in microseconds.  Model updates run the show's commands
+     * and advance its features to the next frame.
+     **/
+    public final static int MODEL_TIME = 1;
+
+    /**
+     * Histogram of the number of pixels repainted in each frame the
+     * animation engine shows.
+     **/
+    public final static int REPAINT_AREA = 2;
+
+    /**
+     * Histogram of the time between a feature being scheduled for setup
+     * and its setup being finished, in milliseconds.
+     **/
+    public final static int SETUP_LATENCY = 3;
+
+    /**
+     * Histogram of the time between starting to load an image and its
+     * pixels being available, in milliseconds.
+     **/
+    public final static int IMAGE_LOAD_TIME = 4;
+
+    private final static int NUM_HISTOGRAMS = 5;
+
+    /**
+     * Counter of frames shown by animation engines.
+     **/
+    public final static int FRAMES_SHOWN = 0;
+
+    /**
+     * Counter of frames whose model was updated, but that were dropped
+     * because the animation fell behind.
+     **/
+    public final static int FRAMES_DROPPED = 1;
+
+    /**
+     * Counter of setups finished by the SetupManager.
+     **/
+    public final static int SETUPS_DONE = 2;
+
+    /**
+     * Counter of images loaded.
+     **/
+    public final static int IMAGES_LOADED = 3;
+
+    private final static int NUM_COUNTERS = 4;
+
+    /**
+     * Gauge of the number of features waiting to be set up, in the 
+     * queues of all SetupManager instances.
+     **/
+    public final static int SETUP_QUEUE_DEPTH = 0;
+
+    /**
+     * Gauge of the number of images whose pixels are loaded.
+     **/
+    public final static int IMAGES_RESIDENT = 1;
+
+    /**
+     * Gauge of the pixel memory of loaded images, counted as four bytes
+     * per pixel.
+     **/
+    public final static int IMAGE_BYTES_RESIDENT = 2;
+
+    private final static int NUM_GAUGES = 3;
+
+    private final static String[] histogramNames = {
+        "frameTime", "modelTime", "repaintArea", "setupLatency", 
+        "imageLoadTime"
+    };
+    private final static String[] histogramUnits = {
+        "us", "us", "pixels", "ms", "ms"
+    };
+    private final static String[] counterNames = {
+        "framesShown", "framesDropped", "setupsDone", "imagesLoaded"
+    };
+    private final static String[] gaugeNames = {
+        "setupQueueDepth", "imagesResident", "imageBytesResident"
+    };
+
+    private final static int NUM_BUCKETS = 32;
+
+    private static boolean enabled = true;
+    private static int[][] buckets = new int[NUM_HISTOGRAMS][NUM_BUCKETS];
+    private static int[] histogramCounts = new int[NUM_HISTOGRAMS];
+    private static long[] histogramSums = new long[NUM_HISTOGRAMS];
+    private static int[] histogramMaxes = new int[NUM_HISTOGRAMS];
+    private static long[] counters = new long[NUM_COUNTERS];
+    private static long[] gauges = new long[NUM_GAUGES];
+    private static long[] gaugePeaks = new long[NUM_GAUGES];
+    private static long startTime = System.currentTimeMillis();
+    private static Object lock = new Object();
+
+    private Metrics() {
+    }
+
+    /**
+     * Turn the collection of metrics on or off.  It's on by default.
+     * The gauges are kept up to date even when this is off, so that
+     * they're right when it's turned back on.
+     **/
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Tell if metrics are being collected.
+     *
+     * @see #setEnabled(boolean)
+     **/
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record a value in a histogram.  Negative values are recorded as 0.
+     * This may be called from any thread.
+     *
+     * @param histogram One of the histogram constants, e.g. FRAME_TIME
+     * @param value     The value to record
+     **/
+    public static void record(int histogram, long value) {
+        if (!enabled) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        } else if (value > Integer.MAX_VALUE) {
+            value = Integer.MAX_VALUE;
+        }
+        int v = (int) value;
+        int bucket = 0;
+        while (v >> bucket != 0) {
+            bucket++;
+        }
+        synchronized(lock) {
+            buckets[histogram][bucket]++;
+            histogramCounts[histogram]++;
+            histogramSums[histogram] += v;
+            if (v > histogramMaxes[histogram]) {
+                histogramMaxes[histogram] = v;
+            }
+        }
+    }
+
+    /**
+     * Add one to a counter.  This may be called from any thread.
+     *
+     * @param counter   One of the counter constants, e.g. FRAMES_SHOWN
+     **/
+    public static void count(int counter) {
+        if (enabled) {
+            synchronized(lock) {
+                counters[counter]++;
+            }
+        }
+    }
+
+    /**
+     * Set the value of a gauge, and update its peak value.  This may be
+     * called from any thread.
+     *
+     * @param gauge     One of the gauge constants, e.g. SETUP_QUEUE_DEPTH
+     * @param value     The new value
+     **/
+    public static void setGauge(int gauge, long value) {
+        synchronized(lock) {
+            gauges[gauge] = value;
+            if (value > gaugePeaks[gauge]) {
+                gaugePeaks[gauge] = value;
+            }
+        }
+    }
+
+    //
+    // Called by ManagedFullImage when an image's pixels are loaded.
+    //
+    static void imageLoaded(int width, int height, long loadMillis) {
+        synchronized(lock) {
+            setGauge(IMAGES_RESIDENT, gauges[IMAGES_RESIDENT] + 1);
+            setGauge(IMAGE_BYTES_RESIDENT, 
+                     gauges[IMAGE_BYTES_RESIDENT] + 4L * width * height);
+            count(IMAGES_LOADED);
+            record(IMAGE_LOAD_TIME, loadMillis);
+        }
+    }
+
+    //
+    // Called by ManagedFullImage when a loaded image is flushed.
+    //
+    static void imageUnloaded(int width, int height) {
+        synchronized(lock) {
+            setGauge(IMAGES_RESIDENT, gauges[IMAGES_RESIDENT] - 1);
+            setGauge(IMAGE_BYTES_RESIDENT, 
+                     gauges[IMAGE_BYTES_RESIDENT] - 4L * width * height);
+        }
+    }
+
+    /**
+     * Get the value of a counter.
+     *
+     * @param counter   One of the counter constants, e.g. FRAMES_SHOWN
+     **/
+    public static long getCount(int counter) {
+        synchronized(lock) {
+            return counters[counter];
+        }
+    }
+
+    /**
+     * Get the current value of a gauge.
+     *
+     * @param gauge     One of the gauge constants, e.g. SETUP_QUEUE_DEPTH
+     **/
+    public static long getGauge(int gauge) {
+        synchronized(lock) {
+            return gauges[gauge];
+        }
+    }
+
+    /**
+     * Get the number of values recorded in a histogram.
+     *
+     * @param histogram One of the histogram constants, e.g. FRAME_TIME
+     **/
+    public static int getHistogramCount(int histogram) {
+        synchronized(lock) {
+            return histogramCounts[histogram];
+        }
+    }
+
+    /**
+     * Get a percentile of the values recorded in a histogram.  The value
+     * is the bound of the bucket holding the percentile (see
+     * getBucketBound(int)), or the largest value recorded if that is less,
+     * so it's within a factor of two of the real percentile.
+     *
+     * @param histogram One of the histogram constants, e.g. FRAME_TIME
+     * @param percent   The percentile, from 0 to 100
+     *
+     * @return the percentile, or -1 if no values have been recorded
+     *
+     * @throws IllegalArgumentException if percent is out of range
+     **/
+    public static long getPercentile(int histogram, int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException();
+        }
+        synchronized(lock) {
+            int[] b = buckets[histogram];
+            int count = histogramCounts[histogram];
+            int max = histogramMaxes[histogram];
+            if (count == 0) {
+                return -1;
+            }
+            long rank = (((long) count) * percent + 99) / 100;
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += b[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Get the largest value counted by a histogram bucket, that is,
+     * 2<sup>bucket</sup> - 1.  This is the bound used to label the
+     * buckets in the snapshot and to report percentiles.
+     **/
+    public static long getBucketBound(int bucket) {
+        return (1L << bucket) - 1;
+    }
+
+    /**
+     * Reset the counters, histograms and gauge peaks to zero.  Gauges
+     * keep their current value, and their peak becomes that value.
+     **/
+    public static void reset() {
+        synchronized(lock) {
+            for (int i = 0; i < NUM_HISTOGRAMS; i++) {
+                int[] b = buckets[i];
+                for (int j = 0; j < NUM_BUCKETS; j++) {
+                    b[j] = 0;
+                }
+                histogramCounts[i] = 0;
+                histogramSums[i] = 0;
+                histogramMaxes[i] = 0;
+            }
+            for (int i = 0; i < NUM_COUNTERS; i++) {
+                counters[i] = 0;
+            }
+            for (int i = 0; i < NUM_GAUGES; i++) {
+                gaugePeaks[i] = gauges[i];
+            }
+            startTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Get a snapshot of the metrics, in the form JsonIO writes.  The
+     * result is a HashMap with these entries:
+     * <pre>
+     *     "elapsedMillis" : time since the metrics were started or reset
+     *     "heap"          : { "total" : t, "free" : f }, from Runtime
+     *     "counters"      : { name : value, ... }
+     *     "gauges"        : { name : { "value" : v, "peak" : p }, ... }
+     *     "histograms"    : { name : { "unit" : u, "count" : c, 
+     *                                  "sum" : s, "max" : m,
+     *                                  "p50" : x, "p90" : y, "p99" : z,
+     *                                  "buckets" : [ [ bound, n ], ... ] },
+     *                         ... }
+     * </pre>
+     * Only the buckets with values are given.  Each is labeled with the
+     * largest value it counts, as given by getBucketBound(int), which is
+     * also the value the percentiles are reported as.
+     *
+     * @see JsonIO#writeJSON(java.io.Writer, java.lang.Object)
+     **/
+    public static HashMap getSnapshot() {
+        synchronized(lock) {
+            HashMap result = new HashMap();
+            result.put("elapsedMillis", 
+                       new Long(System.currentTimeMillis() - startTime));
+            Runtime rt = Runtime.getRuntime();
+            HashMap map = new HashMap();
+            map.put("total", new Long(rt.totalMemory()));
+            map.put("free", new Long(rt.freeMemory()));
+            result.put("heap", map);
+            map = new HashMap();
+            for (int i = 0; i < NUM_COUNTERS; i++) {
+                map.put(counterNames[i], new Long(counters[i]));
+            }
+            result.put("counters", map);
+            map = new HashMap();
+            for (int i = 0; i < NUM_GAUGES; i++) {
+                HashMap g = new HashMap();
+                g.put("value", new Long(gauges[i]));
+                g.put("peak", new Long(gaugePeaks[i]));
+                map.put(gaugeNames[i], g);
+            }
+            result.put("gauges", map);
+            map = new HashMap();
+            for (int i = 0; i < NUM_HISTOGRAMS; i++) {
+                HashMap h = new HashMap();
+                h.put("unit", histogramUnits[i]);
+                h.put("count", new Integer(histogramCounts[i]));
+                h.put("sum", new Long(histogramSums[i]));
+                h.put("max", new Integer(histogramMaxes[i]));
+                h.put("p50", new Long(getPercentile(i, 50)));
+                h.put("p90", new Long(getPercentile(i, 90)));
+                h.put("p99", new Long(getPercentile(i, 99)));
+                int[] b = buckets[i];
+                int n = 0;
+                for (int j = 0; j < NUM_BUCKETS; j++) {
+                    if (b[j] != 0) {
+                        n++;
+                    }
+                }
+                Object[] arr = new Object[n];
+                n = 0;
+                for (int j = 0; j < NUM_BUCKETS; j++) {
+                    if (b[j] != 0) {
+                        arr[n++] = new Object[] { 
+                            new Long(getBucketBound(j)), new Integer(b[j]) 
+                        };
+                    }
+                }
+                h.put("buckets", arr);
+                map.put(histogramNames[i], h);
+            }
+            result.put("histograms", map);
+            return result;
+        }
+    }
+
+    /**
+     * Write a snapshot of the metrics to out as JSON.
+     *
+     * @throws IOException if there is an underlying IO exception
+     *
+     * @see #getSnapshot()
+     **/
+    public static void writeJSON(Writer out) throws IOException {
+        JsonIO.writeJSON(out, getSnapshot());
+        out.flush();
+    }
+}
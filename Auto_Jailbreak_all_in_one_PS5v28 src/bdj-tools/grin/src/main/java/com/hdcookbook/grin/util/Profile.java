@@ -117,6 +117,21 @@ public class Profile {
     private static byte[] stopBuf = new byte[5];
     private static int token = 0;
 
+    private final static int FRAME_TIME_BUCKET = 100;
+        // Width of a frame time histogram bucket, in microseconds
+    private final static int FRAME_TIME_BUCKETS = 1000;
+        // Number of buckets.  The last one holds every frame time
+        // at or above 100 ms.
+    private static int[] frameTimes = null;
+    private static int frameTimeCount = 0;
+    private static int frameTimeMax = 0;
+
+    private static int culledFeatures = 0;      // In the frame being built
+    private static int lastCulledFeatures = 0;
+    private static byte[] culledMessage = null;
+    private final static String CULLED_MESSAGE = "culled features: ";
+    private final static int CULLED_DIGITS = 6;
+
     /**
      * Constant for the thread ID of the GRIN animation thread.
      * @see #startTimer(byte[], byte)
@@ -361,4 +376,171 @@ public class Profile {
             }
         }
     }
+
+    /**
+     * Record the time between two frames, for the frame time percentiles.
+     * The animation engine calls this for each frame it shows when 
+     * Debug.PROFILE_ANIMATION is set.  Frame times are kept in a
+     * histogram with 100 microsecond buckets, so the values given
+     * by getFrameTimePercentile() have that resolution.  The
+     * histogram is shared by all animation engines.  This is a NOP if
+     * Debug.PROFILE is false.
+     *
+     * @param microseconds      The frame time, in microseconds
+     *
+     * @see #getFrameTimePercentile(int)
+     */
+    public static synchronized void recordFrameTime(int microseconds) {
+        if (!Debug.PROFILE) {
+            return;
+        }
+        if (frameTimes == null) {
+            frameTimes = new int[FRAME_TIME_BUCKETS];
+        }
+        if (microseconds < 0) {
+            microseconds = 0;
+        }
+        int bucket = microseconds / FRAME_TIME_BUCKET;
+        if (bucket >= FRAME_TIME_BUCKETS) {
+            bucket = FRAME_TIME_BUCKETS - 1;
+        }
+        frameTimes[bucket]++;
+        frameTimeCount++;
+        if (microseconds > frameTimeMax) {
+            frameTimeMax = microseconds;
+        }
+    }
+
+    /**
+     * Get a percentile of the frame times recorded since the last
+     * call to resetFrameTimes().  The value is the upper bound of the
+     * histogram bucket that holds the given percentile, or the longest
+     * frame time seen if that is less.  For example, 
+     * getFrameTimePercentile(99) gives a frame time that 99% of
+     * frames didn't exceed, to within 100 microseconds.
+     *
+     * @param percent   The percentile, from 0 to 100
+     *
+     * @return the frame time in microseconds, or -1 if no frame times
+     *         have been recorded.
+     *
+     * @throws IllegalArgumentException if percent is out of range
+     *
+     * @see #recordFrameTime(int)
+     */
+    public static synchronized int getFrameTimePercentile(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException();
+        }
+        if (frameTimeCount == 0) {
+            return -1;
+        }
+        long rank = (((long) frameTimeCount) * percent + 99) / 100;
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < FRAME_TIME_BUCKETS; i++) {
+            seen += frameTimes[i];
+            if (seen >= rank) {
+                int result = (i + 1) * FRAME_TIME_BUCKET;
+                if (result > frameTimeMax || i == FRAME_TIME_BUCKETS - 1) {
+                    result = frameTimeMax;
+                }
+                return result;
+            }
+        }
+        return frameTimeMax;    // Not reached
+    }
+
+    /**
+     * Get the number of frame times recorded since the last call to
+     * resetFrameTimes().
+     *
+     * @see #recordFrameTime(int)
+     */
+    public static synchronized int getFrameTimeCount() {
+        return frameTimeCount;
+    }
+
+    /**
+     * Discard the frame times recorded so far.
+     *
+     * @see #recordFrameTime(int)
+     */
+    public static synchronized void resetFrameTimes() {
+        if (frameTimes != null) {
+            for (int i = 0; i < frameTimes.length; i++) {
+                frameTimes[i] = 0;
+            }
+        }
+        frameTimeCount = 0;
+        frameTimeMax = 0;
+    }
+
+    /**
+     * Count features that were skipped in the frame being built, because
+     * they were completely hidden by opaque features drawn over them.
+     * Groups call this when Debug.PROFILE_ANIMATION is set.  This is a
+     * NOP if Debug.PROFILE is false.
+     *
+     * @param n         The number of features culled
+     *
+     * @see com.hdcookbook.grin.animator.CullingContext
+     * @see #sendCulledFeatures()
+     */
+    public static synchronized void countCulledFeatures(int n) {
+        if (!Debug.PROFILE) {
+            return;
+        }
+        culledFeatures += n;
+    }
+
+    /**
+     * Finish counting the culled features of a frame, and send the 
+     * count to the remote computer as a message.  The animation engine
+     * calls this once per frame, after the display areas of the frame
+     * have been added, when Debug.PROFILE_ANIMATION is set.  This is a
+     * NOP if Debug.PROFILE is false.
+     *
+     * @see #countCulledFeatures(int)
+     * @see #getCulledFeatures()
+     */
+    public static synchronized void sendCulledFeatures() {
+        if (!Debug.PROFILE) {
+            return;
+        }
+        lastCulledFeatures = culledFeatures;
+        culledFeatures = 0;
+        if (socket == null) {
+            return;
+        }
+        if (culledMessage == null) {
+            StringBuffer sb = new StringBuffer(CULLED_MESSAGE);
+            for (int i = 0; i < CULLED_DIGITS; i++) {
+                sb.append('0');
+            }
+            culledMessage = makeMessage(sb.toString());
+        }
+        // Write the count in decimal over the zeros, without generating
+        // heap traffic.
+        int n = lastCulledFeatures;
+        for (int i = culledMessage.length - 1; 
+             i >= culledMessage.length - CULLED_DIGITS; i--) 
+        {
+            culledMessage[i] = (byte) ('0' + (n % 10));
+            n /= 10;
+        }
+        sendMessage(culledMessage);
+    }
+
+    /**
+     * Get the number of features culled in the last frame for which 
+     * sendCulledFeatures() was called.
+     *
+     * @see #countCulledFeatures(int)
+     */
+    public static synchronized int getCulledFeatures() {
+        return lastCulledFeatures;
+    }
 }
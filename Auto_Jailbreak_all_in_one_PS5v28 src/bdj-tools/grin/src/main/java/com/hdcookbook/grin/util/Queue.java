@@ -59,6 +59,11 @@ import java.util.NoSuchElementException;
 
 /**
  * This class maintains a queue that avoids generating heap traffic.
+ * The queue is a ring buffer.  If it fills up, the buffer is replaced
+ * by one twice the size, which is then kept, so a burst of entries
+ * (like a run of remote control keypresses) costs one allocation, and
+ * adding and removing entries stays constant-time no matter how far
+ * the queue has grown.
  *
  * @author Bill Foote (http://jovial.com)
  */
@@ -68,28 +73,57 @@ public class Queue {
     private Object[] buffer;
     private int addPos = 0;
     private int removePos = 0;
-    private Queue overflow = null;
 
     /**
      * Create a queue.  It will fill up to the given capacity
      * without creating any new objects.  If the queue gets more
-     * entries than this, it will start allocating objects.
+     * entries than this, it will grow its buffer.
      **/
     public Queue(int capacity) {
-        buffer = new Object[capacity];
+        buffer = new Object[capacity + 1];
+            // One slot is always empty, so that a full buffer can be
+            // told apart from an empty one.
     }
 
     public synchronized void add(Object el) {
         int n = (addPos + 1) % buffer.length;
-        if (n != removePos) {
-            buffer[addPos] = el;
-            addPos = n;
-        } else {        // overflow
-            if (overflow == null) {
-                overflow = new Queue(buffer.length);
-            }
-            overflow.add(el);
+        if (n == removePos) {
+            grow();
+            n = addPos + 1;
         }
+        buffer[addPos] = el;
+        addPos = n;
+    }
+
+    /**
+     * Add all of the given elements, in order.  No other thread's
+     * elements will be interleaved with them.
+     **/
+    public synchronized void addAll(Object[] els) {
+        for (int i = 0; i < els.length; i++) {
+            add(els[i]);
+        }
+    }
+
+    //
+    // Move the contents to a buffer twice the size.  Afterwards, the
+    // contents start at index 0.
+    //
+    private void grow() {
+        Object[] b = new Object[buffer.length * 2];
+        int count;
+        if (addPos >= removePos) {
+            count = addPos - removePos;
+            System.arraycopy(buffer, removePos, b, 0, count);
+        } else {
+            int tail = buffer.length - removePos;
+            System.arraycopy(buffer, removePos, b, 0, tail);
+            System.arraycopy(buffer, 0, b, tail, addPos);
+            count = tail + addPos;
+        }
+        buffer = b;
+        removePos = 0;
+        addPos = count;
     }
 
     public synchronized boolean isEmpty() {
@@ -100,19 +134,12 @@ public class Queue {
      * @throws NoSuchElementException if isEmpty() is true
      **/
     public synchronized Object remove() {
-        if (isEmpty()) {
+        if (addPos == removePos) {
             throw new NoSuchElementException();
         }
         Object result = buffer[removePos];
         buffer[removePos] = null;
         removePos = (removePos + 1) % buffer.length;
-        if (overflow != null) {
-            buffer[addPos] = overflow.remove();
-            addPos = (addPos + 1) % buffer.length;
-            if (overflow.isEmpty()) {
-                overflow = null;
-            }
-        }
         return result;
     }
     
@@ -57,39 +57,85 @@
 package com.hdcookbook.grin.util;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
 
 /**
- * A SetupManager manages a low-priority thread that's used to set up
- * GRIN features, by doing things like loading images.  This way, image
- * loading and other setup work can proceed in the background, while
+ * A SetupManager manages a pool of low-priority threads that are used to
+ * set up GRIN features, by doing things like loading images.  This way, 
+ * image loading and other setup work can proceed in the background, while
  * other features (that are already set up) animate or are otherwise
  * active.
  * <p>
- * At present, all setup work is serialized into one thread, but a
- * future extension might allow for concurrent execution of setup
- * activity (e.g. for a dual-core system or suchlike).
+ * By default, all setup work is serialized into one thread.  On a
+ * multi-core system, setNumThreads() can be used to let several
+ * clients set up concurrently.  The threads are shared by all
+ * SetupManager instances.
+ * <p>
+ * Each client is scheduled with a priority.  Clients that are needed
+ * now, like the features of a segment that's being activated, are set 
+ * up before speculative ones, like the features in a segment's setup
+ * clause.
  *
  *   @author     Bill Foote (http://jovial.com)
  **/
 public class SetupManager implements Runnable {
 
-    private SetupClient[] settingUp;
-    int first;       // index into setting up.  Wraps.
-    int lastPlusOne; // index into setting up.  Wraps.
+    /**
+     * Scheduling priority for setup work that's done in advance, like
+     * loading the features in a segment's setup clause.
+     *
+     * @see #setSchedulingPriority(int)
+     **/
+    public final static int PRIORITY_SPECULATIVE = 0;
+
+    /**
+     * Scheduling priority for setup work that's needed now, like loading
+     * the active features of a segment that's being activated.  This
+     * is the default.
+     *
+     * @see #setSchedulingPriority(int)
+     **/
+    public final static int PRIORITY_NEEDED = 1;
+
+    private ArrayList needed;           // ArrayList<SetupClient>
+    private ArrayList speculative;      // ArrayList<SetupClient>
+    private ArrayList inProgress;       // ArrayList<SetupClient>
+        // Clients that a worker thread has taken from needed or
+        // speculative, and is currently setting up.
+    private int priority = PRIORITY_NEEDED;
+        // See setSchedulingPriority()
+    private SetupClient[] scheduledClients;
+    private long[] scheduleTimes;
+    private int numScheduled;
+        // When each client that's waiting for setup was first scheduled,
+        // for the setup latency in Metrics.  These are parallel arrays, so
+        // scheduling a client doesn't allocate anything.
+
     private static Object monitor = new Object();
     private static SetupManager worker = null;
+    private static int numThreads = 1;
+        // See setNumThreads()
+    private int runningThreads;
+    private int busyThreads;
+        // These two are only used in the worker singleton.
     private ArrayList managers;
         // ArrayList<SetupManager>, contains all running managers managed
-        // by a given thread.  This is null for most SetupManager instances,
-        // but populated for the worker singleton.
+        // by the worker threads.  This is null for most SetupManager
+        // instances, but populated for the worker singleton.
         //
         // Making this an instance variable rather than a static only
         // costs four bytes, and is a simple way to avoid a race condition
         // if the number of managers briefly becomes 0, then becomes
         // > 0 again.
 
+    private static int queuedClients = 0;
+        // The number of clients in the needed and speculative lists of
+        // all managers, for Metrics.
+    private static int setupsDone = 0;
+    private static long setupTime = 0;
+    private static long busyStartTime;
+        // Used to report setup throughput.  See getSetupsDone() and
+        // getSetupTime().
+
     private static byte[] profileSetup; // Profiling setup calls
 
     static {
@@ -104,9 +150,12 @@ public class SetupManager implements Runnable {
      **/
     public SetupManager(int numFeatures) {
         managers = null;
-        settingUp = new SetupClient[numFeatures + 1];
-        first = 0;
-        lastPlusOne = 0;
+        needed = new ArrayList(numFeatures);
+        speculative = new ArrayList(numFeatures);
+        inProgress = new ArrayList(4);
+        int n = Math.max(numFeatures, 1);
+        scheduledClients = new SetupClient[n];
+        scheduleTimes = new long[n];
     }
 
     //
@@ -125,6 +174,25 @@ public class SetupManager implements Runnable {
             // be 1 or 2, and should never be large.
     }
 
+    /**
+     * Set the number of threads used to do setup work.  The default is
+     * one thread, which is what's appropriate on a single-core player.
+     * If the threads are already running and num is bigger than the
+     * current number, more are started when a SetupManager is next
+     * started; if num is smaller, the extra threads keep running until
+     * all SetupManagers have been stopped.
+     *
+     * @throws IllegalArgumentException if num < 1
+     **/
+    public static void setNumThreads(int num) {
+        if (num < 1) {
+            throw new IllegalArgumentException();
+        }
+        synchronized(monitor) {
+            numThreads = num;
+        }
+    }
+
     /**
      * Start providing service from this SetupManager.  This must be
      * balanced by a call to stop().
@@ -135,7 +203,11 @@ public class SetupManager implements Runnable {
         synchronized(monitor) {
             if (worker == null) {
                 worker = new SetupManager();
-                Thread t = new Thread(worker, "SetupManager");
+            }
+            while (worker.runningThreads < numThreads) {
+                worker.runningThreads++;
+                Thread t = new Thread(worker, "SetupManager " 
+                                              + worker.runningThreads);
                 t.setDaemon(true);
                 t.setPriority(3);
                 t.start();
@@ -164,6 +236,11 @@ public class SetupManager implements Runnable {
             if (i >= 0) {
                 worker.managers.remove(i);
             }
+            addQueued(-(needed.size() + speculative.size()));
+            for (int j = 0; j < numScheduled; j++) {
+                scheduledClients[j] = null;
+            }
+            numScheduled = 0;
             if (worker.managers.size() == 0) {
                 monitor.notifyAll();
                 // run() will set worker null, unless more work
@@ -172,81 +249,156 @@ public class SetupManager implements Runnable {
         }
     }
 
+    /**
+     * Set the priority that's given to clients passed to 
+     * scheduleSetup(SetupClient).  This is called by the segment
+     * that's being activated, so that the features it needs now 
+     * are set up before the features it's loading in advance.
+     *
+     * @param priority  PRIORITY_NEEDED or PRIORITY_SPECULATIVE
+     *
+     * @return the old priority value
+     *
+     * @see #PRIORITY_NEEDED
+     * @see #PRIORITY_SPECULATIVE
+     **/
+    public int setSchedulingPriority(int priority) {
+        synchronized(monitor) {
+            int old = this.priority;
+            this.priority = priority;
+            return old;
+        }
+    }
+
+    /**
+     * Schedule a client for setup, with the priority given to the
+     * last call to setSchedulingPriority().
+     *
+     * @see #setSchedulingPriority(int)
+     **/
     public void scheduleSetup(SetupClient f) {
         synchronized(monitor) {
-            int nextLastPlusOne = next(lastPlusOne);
-            if (first == nextLastPlusOne) {
-                //
-                // This is a little complicated to explain...  settingUp
-                // is intentionally one bigger than the maximum number of
-                // clients we can possibly have.  However, there's an
-                // outside possibility that a feature might call scheduleSetup()
-                // a second time, before the first setup is done -- this might
-                // happen if the feature goes out of setting up state, and
-                // back into it, before it gets a chance to set up.
-                //
-                // Normally, this is harmless - there would just be two
-                // entries on settingUp, and the thread would get to them
-                // in order.  The contract of SetupClient says to just
-                // return if no setup is required, so the second time it's
-                // called would be a NOP.  However, it's just
-                // possible that the duplicate entries on settingUp might
-                // cause us to fill up the array.
-                //
-                // In this rare case, we need to purge the array of
-                // duplicates.  Since it's rare, we go ahead and
-                // create heap traffic by using a HashSet.
-                HashSet set = new HashSet();
-                for (int i = first; i != lastPlusOne; i = next(i)) {
-                    set.add(settingUp[i]);
-                }
-                set.add(f);
-                if (Debug.ASSERT && set.size() >= settingUp.length) {
-                    // If this happens, settingUp is too small, but it
-                    // can't be, because it's one bigger than the total
-                    // number of features.
-                    Debug.assertFail();
-                }
-                first = 0;
-                lastPlusOne = 0;
-                for (Iterator it = set.iterator(); it.hasNext(); ) {
-                    settingUp[lastPlusOne] = (SetupClient) it.next();
-                    lastPlusOne++;
-                }
-                for (int i = lastPlusOne; i < settingUp.length; i++) {
-                    settingUp[i] = null;
+            scheduleSetup(f, priority);
+        }
+    }
+
+    /**
+     * Schedule a client for setup with the given priority.  If the client
+     * is already scheduled, it's only moved if the new priority is higher.
+     *
+     * @param priority  PRIORITY_NEEDED or PRIORITY_SPECULATIVE
+     **/
+    public void scheduleSetup(SetupClient f, int priority) {
+        synchronized(monitor) {
+            //
+            // A feature might call scheduleSetup() a second time, before
+            // the first setup is done -- this might happen if the feature 
+            // goes out of setting up state, and back into it, before it 
+            // gets a chance to set up, or if a feature in the setup clause
+            // of one segment becomes needed by the next segment.  The
+            // lists are no longer than the number of features in the show,
+            // so it's cheap to keep them free of duplicates.
+            //
+            if (needed.contains(f)) {
+                return;
+            }
+            if (priority >= PRIORITY_NEEDED) {
+                if (!speculative.remove(f)) {
+                    addQueued(1);
                 }
-            } else {
-                // Otherwise, we've got room in settingUp, so we just
-                // append
-                settingUp[lastPlusOne] = f;
-                lastPlusOne = nextLastPlusOne;
+                needed.add(f);
+            } else if (!speculative.contains(f)) {
+                speculative.add(f);
+                addQueued(1);
             }
+            markScheduled(f);
             monitor.notifyAll();
         }
     }
 
-    private int next(int i) {
-        i++;
-        if (i >= settingUp.length) {
-            return 0;
-        } else {
-            return i;
+    /**
+     * Move the given clients that are scheduled with speculative priority
+     * up to needed priority, behind the clients that are already
+     * needed.  This is called when a segment is activated, because the
+     * features it needs were likely scheduled speculatively, by the
+     * setup clause of the segment before it.  Clients that aren't
+     * scheduled speculatively are left alone.
+     **/
+    public void promote(SetupClient[] clients) {
+        synchronized(monitor) {
+            for (int i = 0; i < clients.length; i++) {
+                SetupClient c = clients[i];
+                if (speculative.remove(c)) {
+                    if (!needed.contains(c)) {
+                        needed.add(c);
+                    } else {
+                        addQueued(-1);
+                    }
+                }
+            }
         }
     }
 
-    private boolean hasWork() {
-        return first != lastPlusOne;
-    }
-    
-    private void doWork() {
-        SetupClient work;
-        synchronized(monitor) {
-            if (!hasWork()) {
+    //
+    // Remember when a client was first scheduled, if we don't already
+    // know.  Called with monitor held.
+    //
+    private void markScheduled(SetupClient f) {
+        for (int i = 0; i < numScheduled; i++) {
+            if (scheduledClients[i] == f) {
                 return;
             }
-            work = settingUp[first];
         }
+        if (numScheduled == scheduledClients.length) {
+            SetupClient[] clients = new SetupClient[numScheduled * 2];
+            long[] times = new long[numScheduled * 2];
+            System.arraycopy(scheduledClients, 0, clients, 0, numScheduled);
+            System.arraycopy(scheduleTimes, 0, times, 0, numScheduled);
+            scheduledClients = clients;
+            scheduleTimes = times;
+        }
+        scheduledClients[numScheduled] = f;
+        scheduleTimes[numScheduled] = System.currentTimeMillis();
+        numScheduled++;
+    }
+
+    //
+    // Forget when a client was scheduled, and return that time, or -1 if
+    // we don't know it.  Called with monitor held.
+    //
+    private long takeScheduleTime(SetupClient f) {
+        for (int i = 0; i < numScheduled; i++) {
+            if (scheduledClients[i] == f) {
+                long result = scheduleTimes[i];
+                numScheduled--;
+                scheduledClients[i] = scheduledClients[numScheduled];
+                scheduleTimes[i] = scheduleTimes[numScheduled];
+                scheduledClients[numScheduled] = null;
+                return result;
+            }
+        }
+        return -1L;
+    }
+
+    //
+    // Take the next client off our lists that isn't being set up by 
+    // another thread, and mark it as in progress.  Called with
+    // monitor held.
+    //
+    private SetupClient takeWork(ArrayList list) {
+        for (int i = 0; i < list.size(); i++) {
+            SetupClient c = (SetupClient) list.get(i);
+            if (!inProgress.contains(c)) {
+                list.remove(i);
+                inProgress.add(c);
+                addQueued(-1);
+                return c;
+            }
+        }
+        return null;
+    }
+    
+    private void doWork(SetupClient work, ArrayList from) {
         if (work.needsMoreSetup()) {
             int tok;
             if (Debug.PROFILE && Debug.PROFILE_SETUP) {
@@ -257,8 +409,9 @@ public class SetupManager implements Runnable {
                 Profile.stopTimer(tok);
             }
             // The check of needsMoreSetup() above isn't strictly necessary,
-            // but it is possible that it's false (due to the settingUp
-            // array being purged of duplicates).  That's admittedly rare,
+            // but it is possible that it's false (e.g. if the client
+            // was taken out of setup mode while it was scheduled).
+            // That's admittedly rare,
             // but calling doSomeSetup() unnecessarily reduces the value
             // of an optimization in Show.  It's also counter-intuitive
             // that doSomeSetup() could be called even if needsMoreSetup()
@@ -269,60 +422,161 @@ public class SetupManager implements Runnable {
             // to cope with).
         }
         synchronized(monitor) {
-            if (hasWork() && !settingUp[first].needsMoreSetup()) {
-                // There's a slight chance that settingUp changed out from
-                // under us, but even if it did, this logic is safe.  At
-                // worst, the client we just set up is somewhere else in
-                // settingUp, and will therefore be quickly eliminated when
-                // we get to it in the future.
-                settingUp[first] = null;
-                first = next(first);
+            inProgress.remove(work);
+            if (work.needsMoreSetup()) {
+                if (!needed.contains(work) && !speculative.contains(work)) {
+                    // doSomeSetup() only did part of the work, so we put
+                    // the client back at the head of its list.
+                    from.add(0, work);
+                    addQueued(1);
+                }
+            } else {
+                long scheduled = takeScheduleTime(work);
+                if (scheduled != -1L) {
+                    Metrics.record(Metrics.SETUP_LATENCY, 
+                                   System.currentTimeMillis() - scheduled);
+                }
             }
+            setupsDone++;
+            Metrics.count(Metrics.SETUPS_DONE);
+            monitor.notifyAll();
+                // Another thread might be waiting for work that was
+                // in progress.
         }
     }
 
     /**
-     * This isn't really public; it's only called by our worker thread.
+     * Get the number of calls to SetupClient.doSomeSetup() made by
+     * the setup threads, since the last call to resetSetupStatistics().
+     * Together with getSetupTime(), this gives the throughput of setup 
+     * work, like image decoding.
+     *
+     * @see #getSetupTime()
+     **/
+    public static int getSetupsDone() {
+        synchronized(monitor) {
+            return setupsDone;
+        }
+    }
+
+    /**
+     * Get the elapsed time, in ms, during which at least one setup 
+     * thread was busy, since the last call to resetSetupStatistics().
+     * Time spent in a setup that's still running isn't counted.
+     *
+     * @see #getSetupsDone()
+     **/
+    public static long getSetupTime() {
+        synchronized(monitor) {
+            return setupTime;
+        }
+    }
+
+    /**
+     * Reset the setup statistics to zero.
+     *
+     * @see #getSetupsDone()
+     * @see #getSetupTime()
+     **/
+    public static void resetSetupStatistics() {
+        synchronized(monitor) {
+            setupsDone = 0;
+            setupTime = 0;
+            busyStartTime = System.currentTimeMillis();
+        }
+    }
+
+    //
+    // Called with monitor held, when clients are added to or taken off
+    // the needed and speculative lists.
+    //
+    private static void addQueued(int delta) {
+        queuedClients += delta;
+        Metrics.setGauge(Metrics.SETUP_QUEUE_DEPTH, queuedClients);
+    }
+
+    //
+    // Called with monitor held, when a worker thread goes from idle to
+    // busy (busy true), or from busy to idle.
+    //
+    private void setBusy(boolean busy) {
+        if (busy) {
+            if (busyThreads == 0) {
+                busyStartTime = System.currentTimeMillis();
+            }
+            busyThreads++;
+        } else {
+            busyThreads--;
+            if (busyThreads == 0) {
+                long t = System.currentTimeMillis() - busyStartTime;
+                setupTime += t;
+                if (Debug.LEVEL > 1) {
+                    Debug.println("Setup threads idle after " + t 
+                                  + " ms; " + setupsDone 
+                                  + " setups in " + setupTime + " ms.");
+                }
+            }
+        }
+    }
+
+    /**
+     * This isn't really public; it's only called by our worker threads.
      **/
     public void run() {
         if (Debug.LEVEL > 0) {
             Debug.println("Setup thread starts.");
         }
-        SetupManager found = null;
+        boolean busy = false;
         for (;;) {
+            SetupManager found = null;
+            SetupClient work = null;
+            ArrayList from = null;
             synchronized(monitor) {
                 if (managers.size() == 0) {
                     if (Debug.ASSERT && worker != this) {
                         Debug.assertFail();
                     }
-                    worker = null;
+                    if (busy) {
+                        setBusy(false);
+                    }
+                    runningThreads--;
+                    if (runningThreads == 0) {
+                        worker = null;
+                    }
                     break;      // exits thread
                 }
-                if (found != null && !found.hasWork()) {
-                    found = null;
+                // Needed work in any show comes before speculative work
+                for (int i = 0; work == null && i < managers.size(); i++) {
+                    found = (SetupManager) managers.get(i);
+                    from = found.needed;
+                    work = found.takeWork(from);
                 }
-                for (int i = 0; found == null && i < managers.size(); i++)  {
-                    SetupManager m = (SetupManager) managers.get(i);
-                    if (m.hasWork()) {
-                        found = m;
-                    }
+                for (int i = 0; work == null && i < managers.size(); i++) {
+                    found = (SetupManager) managers.get(i);
+                    from = found.speculative;
+                    work = found.takeWork(from);
+                }
+                if (busy != (work != null)) {
+                    busy = !busy;
+                    setBusy(busy);
                 }
-                if (found == null) {
+                if (work == null) {
                     try {
                         monitor.wait();
                     } catch (InterruptedException ex) {
+                        runningThreads--;
+                        if (runningThreads == 0) {
+                            worker = null;
+                        }
                         break;          // bail out of thread
                     }
+                    continue;
                 }
             }
-            if (found != null) {
-                found.doWork();
-            }
+            found.doWork(work, from);
         }
         if (Debug.LEVEL > 0) {
             Debug.println("Setup thread exits.");
         }
     }
 }
-
-
@@ -0,0 +1,462 @@
+
+/*  
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.io.binary;
+
+import com.hdcookbook.grin.Show;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Checks that reading a show lazily gives the same result as reading it
+ * eagerly.  Each show file is read both ways; then every node of the 
+ * lazily read show is built through GrinBinaryReader.loadNode(), and the
+ * two shows are compared field by field.  References between nodes must
+ * point at the corresponding node of the same show, and everything else
+ * must be equal.
+ * <pre>
+ *    LazyReadHarness file.grin ...
+ *    LazyReadHarness -sample
+ * </pre>
+ * Extension classes used by the shows need to be on the classpath.  With
+ * -sample, a small show that uses each kind of node is written to a
+ * temporary file and checked.
+ **/
+public class LazyReadHarness {
+
+    private static final String[] LISTS = {
+        "featureList", "rcHandlerList", "segmentList", "commandList"
+    };
+
+    private IdentityHashMap nodes = new IdentityHashMap();
+        // IdentityHashMap<Object, Object>, eager node to lazy node
+    private IdentityHashMap compared = new IdentityHashMap();
+        // IdentityHashMap<Object, Object>, non-node objects already done
+    private List differences = new ArrayList();      // List<String>
+
+    private LazyReadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage:  LazyReadHarness file.grin ...");
+            System.out.println("        LazyReadHarness -sample");
+            System.exit(1);
+        }
+        if (args.length == 1 && args[0].equals("-sample")) {
+            File f = File.createTempFile("sample", ".grin");
+            f.deleteOnExit();
+            writeSample(f);
+            args = new String[] { f.getPath() };
+        }
+        boolean failed = false;
+        for (int i = 0; i < args.length; i++) {
+            List diffs = new LazyReadHarness().check(args[i]);
+            if (diffs.isEmpty()) {
+                System.out.println(args[i] + ":  lazy and eager agree.");
+            } else {
+                failed = true;
+                System.out.println(args[i] + ":  " + diffs.size() 
+                                   + " difference(s)");
+                for (int j = 0; j < diffs.size(); j++) {
+                    System.out.println("    " + diffs.get(j));
+                }
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private List check(String fileName) throws Exception {
+        Show eager = new Show(null);
+        GrinBinaryReader eagerReader = read(fileName, eager, false);
+        Show lazy = new Show(null);
+        GrinBinaryReader lazyReader = read(fileName, lazy, true);
+
+        nodes.put(eager, lazy);
+        nodes.put(eager.getDirector(), lazy.getDirector());
+        Object[][] eagerLists = new Object[LISTS.length][];
+        Object[][] lazyLists = new Object[LISTS.length][];
+        for (int i = 0; i < LISTS.length; i++) {
+            eagerLists[i] = (Object[]) get(eagerReader, LISTS[i]);
+            lazyLists[i] = (Object[]) get(lazyReader, LISTS[i]);
+            if (eagerLists[i].length != lazyLists[i].length) {
+                differences.add(LISTS[i] + " length " + eagerLists[i].length
+                                + " != " + lazyLists[i].length);
+                return differences;
+            }
+            for (int j = 0; j < eagerLists[i].length; j++) {
+                nodes.put(eagerLists[i][j], lazyLists[i][j]);
+            }
+        }
+        for (int i = 0; i < LISTS.length; i++) {
+            for (int j = 0; j < lazyLists[i].length; j++) {
+                lazyReader.loadNode(lazyLists[i][j]);
+                if (!lazyReader.isLoaded(lazyLists[i][j])) {
+                    differences.add(LISTS[i] + "[" + j + "] not loaded");
+                }
+            }
+        }
+        for (int i = 0; i < LISTS.length; i++) {
+            for (int j = 0; j < eagerLists[i].length; j++) {
+                compareFields(eagerLists[i][j], lazyLists[i][j],
+                              LISTS[i] + "[" + j + "] " + eagerLists[i][j]);
+            }
+        }
+        compareFields(eager, lazy, "show");
+        return differences;
+    }
+
+    private static GrinBinaryReader read(String fileName, Show show,
+                                         boolean lazy) 
+            throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+        try {
+            GrinBinaryReader reader = new GrinBinaryReader(in);
+            reader.readShow(show, lazy);
+            return reader;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Object get(Object obj, String name) throws Exception {
+        Field f = obj.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(obj);
+    }
+
+    private void compare(Object a, Object b, String path) throws Exception {
+        if (a == b) {
+            return;
+        } else if (a == null || b == null) {
+            differences.add(path + ":  " + a + " != " + b);
+            return;
+        } else if (nodes.containsKey(a)) {
+            if (nodes.get(a) != b) {
+                differences.add(path + ":  refers to " + b 
+                                + " instead of the copy of " + a);
+            }
+            return;
+        } else if (a.getClass() != b.getClass()) {
+            differences.add(path + ":  " + a.getClass().getName() + " != "
+                            + b.getClass().getName());
+            return;
+        }
+        Class cl = a.getClass();
+        if (cl.isArray()) {
+            int len = Array.getLength(a);
+            if (len != Array.getLength(b)) {
+                differences.add(path + ":  length " + len + " != " 
+                                + Array.getLength(b));
+                return;
+            }
+            for (int i = 0; i < len; i++) {
+                compare(Array.get(a, i), Array.get(b, i), 
+                        path + "[" + i + "]");
+            }
+        } else if (a instanceof Hashtable) {
+            Hashtable ha = (Hashtable) a;
+            Hashtable hb = (Hashtable) b;
+            if (ha.size() != hb.size()) {
+                differences.add(path + ":  size " + ha.size() + " != " 
+                                + hb.size());
+                return;
+            }
+            for (Enumeration e = ha.keys(); e.hasMoreElements(); ) {
+                Object key = e.nextElement();
+                Object other = nodes.containsKey(key) ? nodes.get(key) : key;
+                compare(ha.get(key), hb.get(other), path + "{" + key + "}");
+            }
+        } else if (a instanceof Vector) {
+            compare(((Vector) a).toArray(), ((Vector) b).toArray(), path);
+        } else if (cl == Object.class) {
+            return;             // A lock
+        } else if (cl.getName().startsWith("java.")) {
+            if (!a.equals(b)) {
+                differences.add(path + ":  " + a + " != " + b);
+            }
+        } else if (!compared.containsKey(a)) {
+            compared.put(a, b);
+            compareFields(a, b, path);
+        }
+    }
+
+    private void compareFields(Object a, Object b, String path) 
+            throws Exception
+    {
+        for (Class cl = a.getClass(); 
+             cl != null && !cl.getName().startsWith("java."); 
+             cl = cl.getSuperclass()) 
+        {
+            Field[] fields = cl.getDeclaredFields();
+            for (int i = 0; i < fields.length; i++) {
+                Field f = fields[i];
+                if (Modifier.isStatic(f.getModifiers())
+                    || (cl == Show.class && f.getName().equals("lazyReader")))
+                {
+                    continue;
+                }
+                f.setAccessible(true);
+                compare(f.get(a), f.get(b), path + "." + f.getName());
+            }
+        }
+    }
+
+    //
+    // A show with a private and a public Box, a Group and an Assembly
+    // that refer to them, a public CommandRCHandler, two public segments
+    // and an ActivateSegmentCommand that's also a public named command.
+    // The features are only reached through the first segment, the
+    // handler and the command, so lazily most of them are built late.
+    //
+    private static void writeSample(File file) throws IOException {
+        String[] strings = { null, "S:Initialize", "S:Other", "F:Group",
+                             "F:Assembly", "F:Box", "H:Enter", "C:Go",
+                             "T:Default", "a", "b" };
+        DataOutputStream out 
+            = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(Constants.GRINSCRIPT_IDENTIFIER);
+        out.writeInt(Constants.GRINSCRIPT_VERSION);
+        out.writeByte(Constants.STRING_CONSTANTS_IDENTIFIER);
+        out.writeInt(strings.length);
+        for (int i = 1; i < strings.length; i++) {
+            out.writeUTF(strings[i]);
+        }
+        out.writeByte(Constants.INT_ARRAY_CONSTANTS_IDENTIFIER);
+        out.writeInt(2);
+        out.writeInt(0);                // int[1] is empty
+        out.writeByte(Constants.RECTANGLE_CONSTANTS_IDENTIFIER);
+        out.writeInt(1);
+        out.writeByte(Constants.RECTANGLE_ARRAY_CONSTANTS_IDENTIFIER);
+        out.writeInt(1);
+        out.writeByte(Constants.EXTENSION_CLASSES_IDENTIFIER);
+        out.writeInt(-1);
+        out.writeInt(0);                // No show commands class
+
+        out.writeInt(1);                // Commands
+        out.writeInt(Constants.ACTIVATESEGMENT_CMD_IDENTIFIER);
+        out.writeByte(Constants.COMMAND_ARRAY_CONSTANTS_IDENTIFIER);
+        out.writeInt(2);
+        out.writeInt(1);                // command array 1 is { command 0 }
+        out.writeInt(0);
+
+        out.writeInt(4);                // Segment stack depth
+        out.writeByte(Constants.NON_NULL);
+        out.writeInt(1);
+        out.writeInt(8);                // Draw targets
+        out.writeByte(Constants.NULL);  // Sticky images
+        out.writeInt(1);
+        out.writeInt(7);
+        out.writeInt(0);                // C:Go is command 0
+        out.writeBoolean(false);        // Not debuggable
+
+        int[] features = { Constants.BOX_IDENTIFIER, 
+                           Constants.GROUP_IDENTIFIER,
+                           Constants.ASSEMBLY_IDENTIFIER,
+                           Constants.BOX_IDENTIFIER,
+                           Constants.GROUP_IDENTIFIER };
+        out.writeInt(features.length);
+        for (int i = 0; i < features.length; i++) {
+            out.writeInt(features[i]);
+        }
+        out.writeInt(1);
+        out.writeInt(Constants.COMMAND_RCHANDLER_IDENTIFIER);
+        out.writeInt(2);
+        out.writeInt(Constants.SEGMENT_IDENTIFIER);
+        out.writeInt(Constants.SEGMENT_IDENTIFIER);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream n = new DataOutputStream(bos);
+
+        // Feature 0:  private Box
+        n.writeBoolean(false);
+        writeBox(n, 10);
+        writeNode(out, bos);
+        // Feature 1:  Group F:Group of features 0 and 3
+        n.writeBoolean(true);
+        n.writeInt(3);
+        writeFeatures(n, new int[] { 0, 3 });
+        writeNode(out, bos);
+        // Feature 2:  Assembly F:Assembly, a = feature 0, b = feature 1
+        n.writeBoolean(true);
+        n.writeInt(4);
+        n.writeByte(Constants.NON_NULL);
+        n.writeInt(2);
+        n.writeInt(9);
+        n.writeInt(10);
+        writeFeatures(n, new int[] { 0, 1 });
+        writeNode(out, bos);
+        // Feature 3:  Box F:Box
+        n.writeBoolean(true);
+        n.writeInt(5);
+        writeBox(n, 20);
+        writeNode(out, bos);
+        // Feature 4:  the private show top group
+        n.writeBoolean(false);
+        writeFeatures(n, new int[0]);
+        writeNode(out, bos);
+
+        // RC handler 0:  H:Enter, runs command array 1
+        n.writeBoolean(true);
+        n.writeInt(6);
+        n.writeInt(0x10);
+        n.writeBoolean(false);
+        n.writeInt(1);
+        writeNode(out, bos);
+
+        // Segment 0:  S:Initialize, shows feature 2, goes to S:Other
+        n.writeBoolean(true);
+        n.writeInt(1);
+        writeFeatures(n, new int[] { 2 });
+        writeFeatures(n, new int[0]);
+        n.writeInt(1);
+        n.writeByte(Constants.NON_NULL);
+        n.writeInt(0);
+        n.writeInt(0);
+        n.writeBoolean(true);
+        n.writeInt(1);
+        n.writeInt(0x10);
+        n.writeInt(0);
+        n.writeInt(0);
+        writeNode(out, bos);
+        // Segment 1:  S:Other, shows feature 3
+        n.writeBoolean(true);
+        n.writeInt(2);
+        writeFeatures(n, new int[] { 3 });
+        writeFeatures(n, new int[0]);
+        n.writeInt(0);
+        n.writeInt(0);
+        n.writeBoolean(false);
+        n.writeInt(0);
+        n.writeInt(0);
+        n.writeInt(0);
+        n.writeInt(0);
+        writeNode(out, bos);
+
+        // Command 0:  activate S:Other
+        n.writeBoolean(false);
+        n.writeBoolean(false);
+        n.writeByte(Constants.NON_NULL);
+        n.writeInt(1);
+        writeNode(out, bos);
+
+        out.writeByte(Constants.NON_NULL);
+        out.writeInt(0);                // Show top segment
+        out.writeByte(Constants.NON_NULL);
+        out.writeInt(4);                // Show top group
+        out.writeByte(Constants.NON_NULL);
+        out.writeInt(0);                // No fonts
+        out.writeInt(1);
+        out.writeInt(1);                // Scale and offset
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.close();
+    }
+
+    private static void writeBox(DataOutputStream n, int x) 
+            throws IOException
+    {
+        n.writeInt(x);
+        n.writeInt(x);
+        n.writeInt(100);
+        n.writeInt(50);
+        n.writeInt(2);
+        n.writeInt(2);
+        n.writeByte(Constants.NON_NULL);
+        n.writeInt(0xffff0000);
+        n.writeByte(Constants.NULL);
+        n.writeBoolean(false);          // Not scaled
+    }
+
+    private static void writeFeatures(DataOutputStream n, int[] indices)
+            throws IOException
+    {
+        n.writeByte(Constants.NON_NULL);
+        n.writeInt(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            n.writeByte(Constants.NON_NULL);
+            n.writeInt(indices[i]);
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, 
+                                  ByteArrayOutputStream bos)
+            throws IOException
+    {
+        out.writeInt(bos.size());
+        bos.writeTo(out);
+        bos.reset();
+    }
+}
@@ -0,0 +1,350 @@
+
+/*  
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Randomized round-trip and timing harness for BitStreamIO.  BitStreamIO
+ * reads and writes byte-aligned 8, 16, 32 and 64 bit fields with a single
+ * call on the data stream, and other fields a byte at a time.  This 
+ * checks that the two paths agree.  For random field layouts, it writes
+ * the fields three ways: with BitStreamIO as given, with BitStreamIO with
+ * each field split in two (so the byte-at-a-time path handles every bit),
+ * and with a bit-at-a-time reference encoder.  The three must produce the
+ * same bytes, and reading them back both ways must give the original 
+ * values.  Then it times reading a layout of aligned fields both ways.
+ * <pre>
+ *    BitStreamIOHarness [-seed n] [-layouts n] [-iterations n]
+ * </pre>
+ **/
+public class BitStreamIOHarness {
+
+    private BitStreamIOHarness() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = System.currentTimeMillis();
+        int numLayouts = 10000;
+        int iterations = 100000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            } else if (args[i].equals("-layouts")) {
+                numLayouts = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-iterations")) {
+                iterations = Integer.parseInt(args[i + 1]);
+            } else {
+                usage();
+            }
+        }
+        if ((args.length % 2) != 0) {
+            usage();
+        }
+        Random rand = new Random(seed);
+        System.out.println("Checking " + numLayouts + " layouts, seed " 
+                           + seed);
+        for (int i = 0; i < numLayouts; i++) {
+            int[] widths = randomLayout(rand);
+            long[] values = randomValues(rand, widths);
+            String error = check(widths, values);
+            if (error != null) {
+                System.out.println("FAILED:  " + error);
+                System.out.println("    widths " + toString(widths));
+                System.out.println("    values " + toString(values));
+                System.exit(1);
+            }
+        }
+        System.out.println("All layouts round-trip identically.");
+        time(rand, iterations);
+    }
+
+    private static void usage() {
+        System.out.println("Usage:  BitStreamIOHarness [-seed n] " 
+                           + "[-layouts n] [-iterations n]");
+        System.exit(1);
+    }
+
+    //
+    // A list of field widths from 1 to 64, about half of them aligned
+    // word sizes, padded to a whole number of bytes.
+    //
+    private static int[] randomLayout(Random rand) {
+        int n = 1 + rand.nextInt(16);
+        int[] widths = new int[n + 1];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            if (rand.nextBoolean()) {
+                widths[i] = 8 << rand.nextInt(4);
+            } else {
+                widths[i] = 1 + rand.nextInt(64);
+            }
+            total += widths[i];
+        }
+        int pad = (8 - (total & 7)) & 7;
+        if (pad == 0) {
+            int[] w = new int[n];
+            System.arraycopy(widths, 0, w, 0, n);
+            return w;
+        }
+        widths[n] = pad;
+        return widths;
+    }
+
+    private static long[] randomValues(Random rand, int[] widths) {
+        long[] values = new long[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            values[i] = rand.nextLong() & mask(widths[i]);
+        }
+        return values;
+    }
+
+    private static long mask(int width) {
+        return (width == 64) ? -1L : ((1L << width) - 1);
+    }
+
+    //
+    // Returns null if everything agrees, or else a description of the
+    // first difference.
+    //
+    private static String check(int[] widths, long[] values) 
+            throws IOException 
+    {
+        byte[] direct = write(widths, values, false);
+        byte[] split = write(widths, values, true);
+        byte[] reference = writeReference(widths, values);
+        if (!equal(direct, reference)) {
+            return "BitStreamIO wrote " + toString(direct) 
+                   + ", reference wrote " + toString(reference);
+        }
+        if (!equal(split, reference)) {
+            return "BitStreamIO with split fields wrote " + toString(split) 
+                   + ", reference wrote " + toString(reference);
+        }
+        long[] read = read(reference, widths, false);
+        long[] readSplit = read(reference, widths, true);
+        for (int i = 0; i < widths.length; i++) {
+            if (read[i] != values[i]) {
+                return "field " + i + " read as " + read[i];
+            }
+            if (readSplit[i] != values[i]) {
+                return "field " + i + " read in two parts as " + readSplit[i];
+            }
+        }
+        return null;
+    }
+
+    private static byte[] write(int[] widths, long[] values, boolean split)
+            throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        BitStreamIO bio = new BitStreamIO();
+        for (int i = 0; i < widths.length; i++) {
+            int w = widths[i];
+            long v = values[i];
+            if (split && w > 1) {
+                int hi = w / 2 + 1;     // Never a multiple of 8 when w is
+                int lo = w - hi;
+                writeField(bio, dos, hi, v >>> lo);
+                writeField(bio, dos, lo, v & mask(lo));
+            } else {
+                writeField(bio, dos, w, v);
+            }
+        }
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    //
+    // Use writeBits() when it can take the field, so both methods are
+    // tested.
+    //
+    private static void writeField(BitStreamIO bio, DataOutputStream dos,
+                                   int width, long value)
+            throws IOException
+    {
+        if (width < 32) {
+            bio.writeBits(dos, width, (int) value);
+        } else if (width == 32 && (value & 1) == 0) {
+            bio.writeBits(dos, width, (int) value);
+        } else {
+            bio.writeBitsLong(dos, width, value);
+        }
+    }
+
+    private static long[] read(byte[] data, int[] widths, boolean split)
+            throws IOException
+    {
+        DataInputStream dis 
+                = new DataInputStream(new ByteArrayInputStream(data));
+        BitStreamIO bio = new BitStreamIO();
+        long[] result = new long[widths.length];
+        for (int i = 0; i < widths.length; i++) {
+            int w = widths[i];
+            if (split && w > 1) {
+                int hi = w / 2 + 1;
+                int lo = w - hi;
+                long v = readField(bio, dis, hi) << lo;
+                result[i] = v | readField(bio, dis, lo);
+            } else {
+                result[i] = readField(bio, dis, w);
+            }
+        }
+        return result;
+    }
+
+    private static long readField(BitStreamIO bio, DataInputStream dis,
+                                  int width)
+            throws IOException
+    {
+        if (width < 32) {
+            return bio.readBits(dis, width);
+        } else {
+            return bio.readBitsLong(dis, width);
+        }
+    }
+
+    //
+    // The obvious encoder:  one bit at a time, most significant first.
+    //
+    private static byte[] writeReference(int[] widths, long[] values) {
+        int total = 0;
+        for (int i = 0; i < widths.length; i++) {
+            total += widths[i];
+        }
+        byte[] result = new byte[total / 8];
+        int pos = 0;
+        for (int i = 0; i < widths.length; i++) {
+            for (int b = widths[i] - 1; b >= 0; b--) {
+                if (((values[i] >>> b) & 1) != 0) {
+                    result[pos >> 3] |= (byte) (0x80 >> (pos & 7));
+                }
+                pos++;
+            }
+        }
+        return result;
+    }
+
+    //
+    // Time reading a structure of aligned fields, with and without
+    // splitting them.
+    //
+    private static void time(Random rand, int iterations) throws IOException {
+        int[] widths = { 8, 16, 32, 64, 8, 8, 16, 32 };
+        long[] values = randomValues(rand, widths);
+        byte[] data = writeReference(widths, values);
+        for (int pass = 0; pass < 2; pass++) {  // The first is warm-up
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < iterations; i++) {
+                read(data, widths, false);
+            }
+            long aligned = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            for (int i = 0; i < iterations; i++) {
+                read(data, widths, true);
+            }
+            long split = System.currentTimeMillis() - start;
+            if (pass == 1) {
+                System.out.println(iterations + " reads of " 
+                                   + toString(widths) + ":  " + aligned 
+                                   + " ms aligned, " + split 
+                                   + " ms byte at a time.");
+            }
+        }
+    }
+
+    private static boolean equal(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toString(byte[] a) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < a.length; i++) {
+            sb.append(Integer.toHexString((a[i] & 0xff) | 0x100).substring(1));
+        }
+        return sb.toString();
+    }
+
+    private static String toString(int[] a) {
+        StringBuffer sb = new StringBuffer("{");
+        for (int i = 0; i < a.length; i++) {
+            sb.append((i == 0) ? " " : ", ").append(a[i]);
+        }
+        return sb.append(" }").toString();
+    }
+
+    private static String toString(long[] a) {
+        StringBuffer sb = new StringBuffer("{");
+        for (int i = 0; i < a.length; i++) {
+            sb.append((i == 0) ? " " : ", ").append(Long.toHexString(a[i]));
+        }
+        return sb.append(" }").toString();
+    }
+}
@@ -58,10 +58,8 @@ import java.io.IOException;
 import java.io.DataInputStream;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import net.java.bd.tools.xml.JAXBRegistry;
 
 public class IdReader {
 
@@ -111,12 +109,7 @@ public class IdReader {
 
      public Id readXml(InputStream reader) throws JAXBException {
 
-        String className = Id.class.getName();
-        String pkgName = className.substring(0, className.lastIndexOf('.'));
-        JAXBContext jc = JAXBContext.newInstance(pkgName);
-        Unmarshaller u = jc.createUnmarshaller();
-        u.setEventHandler(new DefaultValidationEventHandler());
-        return (Id) u.unmarshal(reader);
+        return JAXBRegistry.unmarshal(Id.class, reader);
 
      }
 
@@ -67,10 +67,20 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.InputStream;
 
+import net.java.bd.tools.xml.DigestManifest;
+
 public class Main {
     
    public static void main(String[] args) throws Exception {
        
+       DigestManifest manifest = null;
+       if (args.length >= 2 && args[0].equals("-manifest")) {
+           manifest = new DigestManifest(new File(args[1]));
+           String[] rest = new String[args.length - 2];
+           System.arraycopy(args, 2, rest, 0, rest.length);
+           args = rest;
+       }
+
        if (args.length < 2) {
            System.out.println("Missing input and output arguments");
            usage();
@@ -90,6 +100,15 @@ public class Main {
            usage();
        }
        
+       String tool = null;
+       if (manifest != null) {
+           tool = DigestManifest.toolVersion(Main.class, DigestManifest.class);
+       }
+       if (manifest != null && manifest.isUpToDate(new File(input), new File(output), tool)) {
+           System.out.println(output + " is up to date.");
+           return;
+       }
+
        Id idObject = null;
        FileInputStream fin = new FileInputStream(input);
        DataInputStream din = new DataInputStream(new BufferedInputStream(fin));
@@ -108,18 +127,24 @@ public class Main {
           new IdWriter().writeId(idObject, dout);           
        }
        dout.close();
+
+       if (manifest != null) {
+           manifest.record(new File(input), new File(output), tool);
+       }
    }
    
    public static void usage() {
        System.out.println("\n\nThis is a tool to convert id.bdmv to an xml format and back.\n\n");
        System.out.println("Usage:");
-       System.out.println("\n" + Main.class.getName() + " Input Output \n");
+       System.out.println("\n" + Main.class.getName() + " [-manifest Manifest] Input Output \n");
        System.out.println("where Input can be one of");
        System.out.println("   location of id.bdmv");
        System.out.println("   location of id.xml");
        System.out.println("and the Output can be one of");
        System.out.println("   id.bdmv");
        System.out.println("   id.xml");       
+       System.out.println("Manifest is an optional file with the digests of the last conversion;");
+       System.out.println("if neither Input nor Output changed since then, nothing is converted.");
        
        System.exit(1);
    }
@@ -57,12 +57,19 @@ package net.java.bd.tools.index;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import net.java.bd.tools.xml.BitFieldCodec;
 //import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 /*
  * BD-ROM Part 3-1 5.2.2 AppInfoBDMV
  */
 public class AppInfoBDMV {
+
+    // The two flag bytes that follow the length field, see 3-1 5.2.2.2
+    private static final BitFieldCodec FLAGS = BitFieldCodec.compile(
+            "reserved:1 initial_output_mode_preference:1" +
+            " SS_content_exist_flag:1 reserved:5 video_format:4 frame_rate:4");
+    
     
     byte[] contentProviderData = new byte[32];
     InitialOutputModePreferenceType initialOutputModePreference
@@ -201,34 +208,28 @@ public class AppInfoBDMV {
         // 8*32 user data
         
         din.skipBytes(4); // reserved
-        byte b = din.readByte();
-        if ((b & 0x40) != 0) {
+        long bits = FLAGS.readBits(din);
+        if (FLAGS.getField(bits, 0) != 0) {
             initialOutputModePreference =
                 InitialOutputModePreferenceType.Mode3D;
         } else {
             initialOutputModePreference =
                 InitialOutputModePreferenceType.Mode2D;
         }
-        ssContentExistFlag = (b & 0x20) != 0;
-        b = din.readByte();
-        videoFormat = VideoFormat.getFromEncoding(b >> 4);
-        frameRate = FrameRate.getFromEncoding(b & 0xf);
+        ssContentExistFlag = FLAGS.getField(bits, 1) != 0;
+        videoFormat = VideoFormat.getFromEncoding((int) FLAGS.getField(bits, 2));
+        frameRate = FrameRate.getFromEncoding((int) FLAGS.getField(bits, 3));
         din.read(contentProviderData);
     }
     
     public void writeObject(DataOutputStream dout) throws IOException {
         dout.writeInt(34);
-        int i = 0;
-        if (initialOutputModePreference == InitialOutputModePreferenceType.Mode3D) {
-            i |= 0x40;
-        }
-        if (ssContentExistFlag) {
-            i |= 0x20;
-        }
-        dout.writeByte(i);
-        i = videoFormat.getEncoding() << 4;
-        i |= frameRate.getEncoding();
-        dout.writeByte(i);
+        FLAGS.write(dout, new long[] {
+            (initialOutputModePreference
+                    == InitialOutputModePreferenceType.Mode3D) ? 1 : 0,
+            ssContentExistFlag ? 1 : 0,
+            videoFormat.getEncoding(),
+            frameRate.getEncoding() });
         dout.write(contentProviderData);
     }
 
@@ -57,10 +57,8 @@ package net.java.bd.tools.index;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import net.java.bd.tools.xml.JAXBRegistry;
 
 public class IndexWriter {
 
@@ -72,14 +70,7 @@ public class IndexWriter {
      
      public void writeXml(Index idObject, OutputStream writer) 
              throws JAXBException, IOException {
-        String className = Index.class.getName();
-        String pkgName = className.substring(0, className.lastIndexOf('.'));
-        JAXBContext jc = JAXBContext.newInstance(pkgName);
-        Marshaller m = jc.createMarshaller();
-        m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        m.setEventHandler(new DefaultValidationEventHandler());
-        m.marshal(idObject, writer);
+        JAXBRegistry.marshal(idObject, writer);
         writer.flush();
      } 
 
@@ -0,0 +1,145 @@
+/*  
+ * Copyright (c) 2008, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.build.mosaic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+public class Main {
+
+    public static void main(String[] args) throws Exception {
+        MosaicMaker.Heuristic heuristic = MosaicMaker.Heuristic.MAXRECTS;
+        int maxWidth = 1920;
+        int maxHeight = 1080;
+        int padding = 0;
+        String prefix = "";
+        String baseName = "mosaic";
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                if (i + 1 >= args.length) {
+                    usage();
+                }
+                String value = args[i + 1];
+                if (args[i].equals("-heuristic")) {
+                    heuristic = MosaicMaker.Heuristic.valueOf(
+                                    value.toUpperCase(Locale.ROOT));
+                } else if (args[i].equals("-size")) {
+                    int x = value.indexOf('x');
+                    if (x < 0) {
+                        usage();
+                    }
+                    maxWidth = Integer.parseInt(value.substring(0, x));
+                    maxHeight = Integer.parseInt(value.substring(x + 1));
+                } else if (args[i].equals("-padding")) {
+                    padding = Integer.parseInt(value);
+                } else if (args[i].equals("-prefix")) {
+                    prefix = value;
+                } else if (args[i].equals("-name")) {
+                    baseName = value;
+                } else {
+                    System.out.println("Unknown option " + args[i]);
+                    usage();
+                }
+                i++;
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Bad value for " + args[i] + ": " 
+                               + args[i + 1]);
+            usage();
+        }
+        if (args.length - i != 2) {
+            System.out.println("Missing input and output arguments");
+            usage();
+        }
+        File input = new File(args[i]);
+        File output = new File(args[i + 1]);
+        if (!input.isDirectory()) {
+            System.out.println("Directory " + input + " not found.");
+            usage();
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Can't create " + output);
+        }
+
+        MosaicMaker maker = new MosaicMaker(maxWidth, maxHeight, padding,
+                                            heuristic);
+        maker.addDirectory(input, prefix, output.getCanonicalFile());
+        maker.pack();
+        maker.write(output, prefix, baseName, 
+                    new File(output, baseName + ".map"));
+        maker.printReport(System.out, baseName);
+    }
+
+    public static void usage() {
+        System.out.println("\n\nThis is a tool to pack images into mosaics for GRIN.\n\n");
+        System.out.println("Usage:");
+        System.out.println("\n" + Main.class.getName() + " [Options] InputDir OutputDir\n");
+        System.out.println("Every .png, .jpg and .gif image under InputDir is packed into");
+        System.out.println("OutputDir/Name_0.png, OutputDir/Name_1.png and so on, and the image map");
+        System.out.println("for AssetFinder.setImageMap() is written to OutputDir/Name.map.");
+        System.out.println("OutputDir is skipped if it is under InputDir.");
+        System.out.println("Options are:");
+        System.out.println("   -heuristic maxrects|shelf  Bin packing heuristic (default maxrects)");
+        System.out.println("   -size WxH                  Maximum mosaic size (default 1920x1080)");
+        System.out.println("   -padding N                 Pixels between images (default 0)");
+        System.out.println("   -prefix P                  Prefix of the image and mosaic names in");
+        System.out.println("                              the image map, e.g. images/ (default none)");
+        System.out.println("   -name Name                 Base name of the output files (default mosaic)");
+
+        System.exit(1);
+    }
+}
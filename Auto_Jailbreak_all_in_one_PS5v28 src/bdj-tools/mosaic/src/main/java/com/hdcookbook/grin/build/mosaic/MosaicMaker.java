@@ -0,0 +1,525 @@
+/*  
+ * Copyright (c) 2008, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+
+package com.hdcookbook.grin.build.mosaic;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Packs a set of images into a small number of mosaic images, and writes
+ * the image map that maps each image name to its mosaic and its position
+ * within that mosaic.  The image map is read by GRIN with
+ * <code>AssetFinder.setImageMap()</code>, after which
+ * <code>ImageManager.getImage()</code> gives a tile of a mosaic for the
+ * name of an image that was packed.  Loading one mosaic instead of many
+ * small images saves a disc seek and an image decode per image.
+ * <p>
+ * Packing rectangles into as few mosaics as possible is NP-hard, so this
+ * uses a heuristic.  The images are packed several times, each time
+ * sorted in a different order, and the result with the fewest mosaics
+ * and the smallest total mosaic area is kept.  Each mosaic is cropped
+ * to the area its tiles use.
+ */
+public class MosaicMaker {
+
+    /**
+     * The bin packing heuristic used to place each image in a mosaic.
+     */
+    public enum Heuristic {
+        /**
+         * Maximal rectangles, best short side fit.  The free space of
+         * a mosaic is kept as a list of maximal free rectangles, and each
+         * image goes where it leaves the smallest leftover on its
+         * shorter side.  This usually packs tightest.
+         */
+        MAXRECTS,
+
+        /**
+         * Shelves.  Images are put side by side on horizontal shelves,
+         * in the shelf that wastes the least height.  This is fast, and
+         * works well when the images are of similar heights, like the
+         * frames of an image sequence.
+         */
+        SHELF
+    }
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private final int padding;
+    private final Heuristic heuristic;
+    private final List<Tile> tiles = new ArrayList<Tile>();
+    private List<Mosaic> mosaics = null;
+
+    private static class Tile {
+        final String name;
+        final BufferedImage image;
+
+        Tile(String name, BufferedImage image) {
+            this.name = name;
+            this.image = image;
+        }
+
+        int getWidth() {
+            return image.getWidth();
+        }
+
+        int getHeight() {
+            return image.getHeight();
+        }
+    }
+
+    /**
+     * The sort orders that are tried.  Each one sorts in decreasing
+     * order, with the image name as the last key so the output doesn't
+     * depend on the order the images were added in.
+     */
+    private static final List<Comparator<Tile>> ORDERS = Arrays.asList(
+        byKey(t -> (long) t.getWidth() * t.getHeight()),
+        byKey(t -> Math.max(t.getWidth(), t.getHeight())),
+        byKey(t -> t.getHeight()),
+        byKey(t -> t.getWidth()),
+        byKey(t -> t.getWidth() + t.getHeight())
+    );
+
+    private interface Key {
+        long of(Tile t);
+    }
+
+    private static Comparator<Tile> byKey(Key key) {
+        return (a, b) -> {
+            int c = Long.compare(key.of(b), key.of(a));
+            return c != 0 ? c : a.name.compareTo(b.name);
+        };
+    }
+
+    /**
+     * Creates a MosaicMaker.
+     *
+     * @param maxWidth  The maximum width of a mosaic image
+     * @param maxHeight The maximum height of a mosaic image
+     * @param padding   Number of transparent pixels left between tiles
+     * @param heuristic The bin packing heuristic
+     */
+    public MosaicMaker(int maxWidth, int maxHeight, int padding,
+                       Heuristic heuristic) 
+    {
+        if (maxWidth <= 0 || maxHeight <= 0 || padding < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.padding = padding;
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Adds an image to be packed.
+     *
+     * @param name  The name GRIN uses to get the image, e.g.
+     *              "images/button_selected.png"
+     * @param image The image
+     *
+     * @throws IOException if the image is too big for a mosaic
+     */
+    public void addImage(String name, BufferedImage image) throws IOException {
+        if (image.getWidth() > maxWidth || image.getHeight() > maxHeight) {
+            throw new IOException("Image " + name + " is " + image.getWidth()
+                                  + "x" + image.getHeight() 
+                                  + ", which is bigger than a mosaic");
+        }
+        tiles.add(new Tile(name, image));
+        mosaics = null;
+    }
+
+    /**
+     * Adds every .png, .jpg and .gif image in a directory and its
+     * subdirectories.  Each image is named by its path relative to dir,
+     * with '/' as the separator, after the given prefix.
+     *
+     * @param dir       The directory
+     * @param prefix    Prefix for the image names, e.g. "images/", or ""
+     * @param exclude   A directory to skip, or null
+     */
+    public void addDirectory(File dir, String prefix, File exclude) 
+            throws IOException 
+    {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Can't read directory " + dir);
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (exclude == null || !f.getCanonicalFile().equals(exclude)) {
+                    addDirectory(f, prefix + f.getName() + "/", exclude);
+                }
+                continue;
+            }
+            String lower = f.getName().toLowerCase(Locale.ROOT);
+            if (!(lower.endsWith(".png") || lower.endsWith(".jpg")
+                  || lower.endsWith(".jpeg") || lower.endsWith(".gif"))) 
+            {
+                continue;
+            }
+            BufferedImage image = ImageIO.read(f);
+            if (image == null) {
+                throw new IOException("Can't decode image " + f);
+            }
+            addImage(prefix + f.getName(), image);
+        }
+    }
+
+    /**
+     * Packs the images added so far into mosaics.
+     *
+     * @return the number of mosaics
+     */
+    public int pack() {
+        List<Mosaic> best = null;
+        long bestArea = 0;
+        for (Comparator<Tile> order : ORDERS) {
+            List<Tile> sorted = new ArrayList<Tile>(tiles);
+            Collections.sort(sorted, order);
+            List<Mosaic> result = new ArrayList<Mosaic>();
+            for (Tile t : sorted) {
+                boolean placed = false;
+                for (int i = 0; !placed && i < result.size(); i++) {
+                    placed = result.get(i).place(t);
+                }
+                if (!placed) {
+                    Mosaic m = new Mosaic();
+                    placed = m.place(t);
+                    assert placed;  // addImage() checked the size
+                    result.add(m);
+                }
+            }
+            long area = 0;
+            for (Mosaic m : result) {
+                area += (long) m.getWidth() * m.getHeight();
+            }
+            if (best == null || result.size() < best.size()
+                || (result.size() == best.size() && area < bestArea))
+            {
+                best = result;
+                bestArea = area;
+            }
+        }
+        mosaics = best;
+        return mosaics.size();
+    }
+
+    /**
+     * Gets the fill ratio of the packed mosaics, that is, the image
+     * area divided by the total area of the mosaics.
+     */
+    public double getFillRatio() {
+        long used = 0;
+        long total = 0;
+        for (Mosaic m : getMosaics()) {
+            used += m.getUsedArea();
+            total += (long) m.getWidth() * m.getHeight();
+        }
+        return total == 0 ? 1.0 : ((double) used) / total;
+    }
+
+    /**
+     * Writes the mosaic images and the image map.  Mosaic i is written
+     * to <code>outputDir/baseName_i.png</code>, and is called
+     * <code>prefix + baseName_i.png</code> in the image map.
+     *
+     * @param outputDir The directory for the mosaics
+     * @param prefix    Prefix for the mosaic names in the image map
+     * @param baseName  Base name of the mosaic files
+     * @param mapFile   The image map file to write
+     */
+    public void write(File outputDir, String prefix, String baseName,
+                      File mapFile) throws IOException 
+    {
+        List<Mosaic> ms = getMosaics();
+        String[] names = new String[ms.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = baseName + "_" + i + ".png";
+            Mosaic m = ms.get(i);
+            BufferedImage image = new BufferedImage(m.getWidth(), 
+                                                    m.getHeight(),
+                                                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            for (int j = 0; j < m.tiles.size(); j++) {
+                Rectangle r = m.placements.get(j);
+                g.drawImage(m.tiles.get(j).image, r.x, r.y, null);
+            }
+            g.dispose();
+            File f = new File(outputDir, names[i]);
+            if (!ImageIO.write(image, "png", f)) {
+                throw new IOException("Can't write " + f);
+            }
+        }
+
+        // This is the format read by ImageManager.readImageMap()
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mapFile)));
+        try {
+            out.writeInt(names.length);
+            for (String name : names) {
+                out.writeUTF(prefix + name);
+            }
+            out.writeInt(tiles.size());
+            for (int i = 0; i < ms.size(); i++) {
+                Mosaic m = ms.get(i);
+                for (int j = 0; j < m.tiles.size(); j++) {
+                    Rectangle r = m.placements.get(j);
+                    out.writeUTF(m.tiles.get(j).name);
+                    out.writeInt(i);
+                    out.writeInt(r.x);
+                    out.writeInt(r.y);
+                    out.writeInt(r.width);
+                    out.writeInt(r.height);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Prints the size, image count and fill ratio of each mosaic.
+     */
+    public void printReport(PrintStream out, String baseName) {
+        List<Mosaic> ms = getMosaics();
+        for (int i = 0; i < ms.size(); i++) {
+            Mosaic m = ms.get(i);
+            long area = (long) m.getWidth() * m.getHeight();
+            out.println(String.format(Locale.ROOT, 
+                        "%s_%d.png: %dx%d, %d images, %.1f%% filled",
+                        baseName, i, m.getWidth(), m.getHeight(),
+                        m.tiles.size(), 
+                        area == 0 ? 100.0 : 100.0 * m.getUsedArea() / area));
+        }
+        out.println(String.format(Locale.ROOT, 
+                    "%d images in %d mosaics (%s), %.1f%% filled",
+                    tiles.size(), ms.size(), 
+                    heuristic.name().toLowerCase(Locale.ROOT),
+                    100.0 * getFillRatio()));
+    }
+
+    private List<Mosaic> getMosaics() {
+        if (mosaics == null) {
+            pack();
+        }
+        return mosaics;
+    }
+
+    /**
+     * One mosaic being packed.  Each tile takes up its size plus the
+     * padding to its right and below it.
+     */
+    private class Mosaic {
+        final List<Tile> tiles = new ArrayList<Tile>();
+        final List<Rectangle> placements = new ArrayList<Rectangle>();
+        private final List<Rectangle> free = new ArrayList<Rectangle>();
+            // For MAXRECTS, the maximal free rectangles.
+        private final List<Rectangle> shelves = new ArrayList<Rectangle>();
+            // For SHELF, each shelf's used width and height.
+        private int shelvesHeight = 0;
+        private int width = 0;
+        private int height = 0;
+
+        Mosaic() {
+            free.add(new Rectangle(0, 0, maxWidth + padding, 
+                                   maxHeight + padding));
+                // The padding after the last tile in a row or column
+                // may fall outside of the mosaic.
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        long getUsedArea() {
+            long area = 0;
+            for (Rectangle r : placements) {
+                area += (long) r.width * r.height;
+            }
+            return area;
+        }
+
+        boolean place(Tile t) {
+            int w = t.getWidth() + padding;
+            int h = t.getHeight() + padding;
+            Rectangle r;
+            if (heuristic == Heuristic.SHELF) {
+                r = placeOnShelf(w, h);
+            } else {
+                r = placeInFreeRect(w, h);
+            }
+            if (r == null) {
+                return false;
+            }
+            r.width = t.getWidth();
+            r.height = t.getHeight();
+            tiles.add(t);
+            placements.add(r);
+            width = Math.max(width, r.x + r.width);
+            height = Math.max(height, r.y + r.height);
+            return true;
+        }
+
+        private Rectangle placeOnShelf(int w, int h) {
+            Rectangle best = null;
+            for (Rectangle s : shelves) {
+                if (s.height >= h && s.width + w <= maxWidth + padding
+                    && (best == null || s.height < best.height)) 
+                {
+                    best = s;
+                }
+            }
+            if (best == null) {
+                if (shelvesHeight + h > maxHeight + padding) {
+                    return null;
+                }
+                best = new Rectangle(0, shelvesHeight, 0, h);
+                shelves.add(best);
+                shelvesHeight += h;
+            }
+            Rectangle r = new Rectangle(best.width, best.y, w, h);
+            best.width += w;
+            return r;
+        }
+
+        private Rectangle placeInFreeRect(int w, int h) {
+            Rectangle best = null;
+            int bestShort = Integer.MAX_VALUE;
+            int bestLong = Integer.MAX_VALUE;
+            for (Rectangle f : free) {
+                if (f.width < w || f.height < h) {
+                    continue;
+                }
+                int dw = f.width - w;
+                int dh = f.height - h;
+                int shortSide = Math.min(dw, dh);
+                int longSide = Math.max(dw, dh);
+                if (shortSide < bestShort 
+                    || (shortSide == bestShort && longSide < bestLong)) 
+                {
+                    best = f;
+                    bestShort = shortSide;
+                    bestLong = longSide;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            Rectangle used = new Rectangle(best.x, best.y, w, h);
+            splitFreeRects(used);
+            return used;
+        }
+
+        private void splitFreeRects(Rectangle used) {
+            List<Rectangle> added = new ArrayList<Rectangle>();
+            for (int i = free.size() - 1; i >= 0; i--) {
+                Rectangle f = free.get(i);
+                if (!f.intersects(used)) {
+                    continue;
+                }
+                free.remove(i);
+                if (used.x > f.x) {
+                    added.add(new Rectangle(f.x, f.y, used.x - f.x, f.height));
+                }
+                if (used.x + used.width < f.x + f.width) {
+                    int x = used.x + used.width;
+                    added.add(new Rectangle(x, f.y, f.x + f.width - x, 
+                                            f.height));
+                }
+                if (used.y > f.y) {
+                    added.add(new Rectangle(f.x, f.y, f.width, used.y - f.y));
+                }
+                if (used.y + used.height < f.y + f.height) {
+                    int y = used.y + used.height;
+                    added.add(new Rectangle(f.x, y, f.width, 
+                                            f.y + f.height - y));
+                }
+            }
+            free.addAll(added);
+            // Remove the free rectangles that are inside another one
+            for (int i = free.size() - 1; i >= 0; i--) {
+                Rectangle a = free.get(i);
+                for (int j = 0; j < free.size(); j++) {
+                    if (j != i && free.get(j).contains(a)) {
+                        free.remove(i);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -57,10 +57,8 @@ package net.java.bd.tools.movieobject;
 import java.io.IOException;
 import java.io.DataInputStream;
 import java.io.InputStream;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import net.java.bd.tools.xml.JAXBRegistry;
 
 public class MovieObjectReader {
 
@@ -73,12 +71,7 @@ public class MovieObjectReader {
 
      public MovieObjectFile readXml(InputStream reader) 
              throws JAXBException {
-        String className = MovieObjectFile.class.getName();
-        String pkgName = className.substring(0, className.lastIndexOf('.'));
-        JAXBContext jc = JAXBContext.newInstance(pkgName);
-        Unmarshaller u = jc.createUnmarshaller();
-        u.setEventHandler(new DefaultValidationEventHandler());
-        return (MovieObjectFile) u.unmarshal(reader);
+        return JAXBRegistry.unmarshal(MovieObjectFile.class, reader);
      }
      
 }
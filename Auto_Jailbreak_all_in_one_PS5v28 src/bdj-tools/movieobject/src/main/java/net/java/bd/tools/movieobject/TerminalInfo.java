@@ -58,8 +58,14 @@ package net.java.bd.tools.movieobject;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import net.java.bd.tools.xml.BitFieldCodec;
 
 public class TerminalInfo {
+
+    private static final BitFieldCodec LAYOUT = BitFieldCodec.compile(
+            "resume_intention_flag:1 menu_call_mask:1 title_search_mask:1" +
+            " reserved_for_word_align:13");
+
     boolean resume_intention_flag;
     boolean menu_call_mask;
     boolean title_search_mask;
@@ -87,26 +93,17 @@ public class TerminalInfo {
         // 1 bit menu_call_mask,
         // 1 bit title_search_mask,
         // 13 bit word_align
-        byte b = din.readByte();
-        din.skipBytes(1);
+        long bits = LAYOUT.readBits(din);
  
-        setResumeIntentionFlag((b & 0x80) != 0);
-        setMenuCallMask((b & 0x40) != 0); 
-        setTitleSearchMask((b & 0x20) != 0);
+        setResumeIntentionFlag(LAYOUT.getField(bits, 0) != 0);
+        setMenuCallMask(LAYOUT.getField(bits, 1) != 0); 
+        setTitleSearchMask(LAYOUT.getField(bits, 2) != 0);
     }
     
     public void writeObject(DataOutputStream dout) throws IOException {
-        byte b = 0;
-        if (getResumeIntentionFlag()) {
-            b |= 0x80;
-        } 
-        if (getMenuCallMask()) {
-            b |= 0x40;
-        }
-        if (getTitleSearchMask() ) {
-            b |= 0x20;
-        }
-        dout.writeByte(b);
-        dout.writeByte(0);
+        LAYOUT.write(dout, new long[] {
+            getResumeIntentionFlag() ? 1 : 0,
+            getMenuCallMask() ? 1 : 0,
+            getTitleSearchMask() ? 1 : 0 });
     } 
 }
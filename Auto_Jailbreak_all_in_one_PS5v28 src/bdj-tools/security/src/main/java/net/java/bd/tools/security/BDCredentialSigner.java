@@ -62,6 +62,7 @@ import java.util.Enumeration;
 import sun.tools.jar.Main; // this may not work on Apple's jdk!
 import java.io.IOException;
 import java.io.File;
+import java.io.PrintWriter;
 
 public class BDCredentialSigner {
     
@@ -73,9 +74,18 @@ public class BDCredentialSigner {
     static CredentialUtil.Builder cBuilder;
     static boolean generateCred = true;
     static boolean updateCerts = true;
+    static boolean verifyOnly = false;
+    static int threads = 1;
+    static String reportFileName;
+    static String granteeRootCert = "app.discroot.crt";
+    static List<String> jarFileNames = new ArrayList<String>();
     
     public static void main(String args[]) throws  Exception {   
         parseArgs(args);
+        if (verifyOnly) {
+            verifyJars();
+            return;
+        }
         CredentialUtil cUtil = cBuilder.build();
         if (permReqFileName == null) {
             printUsageAndExit("Please specify the permission request file " +
@@ -130,6 +140,36 @@ public class BDCredentialSigner {
         }
     }
     
+    private static void verifyJars() throws Exception {
+        if (permReqFileName == null || jarFileNames.isEmpty()) {
+            printUsageAndExit("Please specify the permission request file " +
+                    "and the jar files to verify");
+        }
+        CredentialVerifier.Session session = new CredentialVerifier.Session();
+        List<CredentialVerifier.Result> results = session.verifyAll(
+                jarFileNames, permReqFileName, granteeRootCert,
+                isBudaCredential, threads);
+        int failed = 0;
+        for (CredentialVerifier.Result r : results) {
+            if (debug) {
+                System.out.print(r.log);
+            }
+            System.out.println((r.passed ? "PASSED " : "FAILED ") +
+                    r.jarfile + ": " + r.message);
+            if (!r.passed) {
+                failed++;
+            }
+        }
+        if (reportFileName != null) {
+            try (PrintWriter pw = new PrintWriter(reportFileName, "UTF-8")) {
+                session.writeReport(results, pw);
+            }
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
     private static void extractFile(String jarFileName, String fileToExtract) {
         String jarOpt = "-xf";
         if (debug) {
@@ -191,6 +231,19 @@ public class BDCredentialSigner {
            } else if (opt.equals("-gecert")) {
                 if (++i == args.length) errorNeedArgument(opt);
                 cBuilder = cBuilder.granteeRootCert(args[i]);
+                granteeRootCert = args[i];
+            } else if (opt.equals("-verify")) {
+                verifyOnly = true;
+            } else if (opt.equals("-threads")) {
+                if (++i == args.length) errorNeedArgument(opt);
+                try {
+                    threads = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    printUsageAndExit("Invalid thread count: " + args[i]);
+                }
+            } else if (opt.equals("-report")) {
+                if (++i == args.length) errorNeedArgument(opt);
+                reportFileName = args[i];
             } else if (opt.equals("-store")) {
                  if (++i == args.length) errorNeedArgument(opt);
                  cBuilder = cBuilder.granteeKeyStore(args[i]);
@@ -224,6 +277,7 @@ public class BDCredentialSigner {
                     list.add(args[i]);
                     sBuilder = sBuilder.jarfiles(list);
                     jarFileName = opt;
+                    jarFileNames.add(opt);
                 }
             }
         }
@@ -245,7 +299,8 @@ public class BDCredentialSigner {
                            "credentials");  
         System.err.println("-----------------------------------------------------------------------\n");
         
-        System.err.println("usage: BDCredentialSigner [options] permission-request-file jarfile\n");
+        System.err.println("usage: BDCredentialSigner [options] permission-request-file jarfile");
+        System.err.println("       BDCredentialSigner -verify [options] permission-request-file jarfiles..\n");
         System.err.println("Valid Options:");
         System.err.println(" -gencred             \t:Generate credentials;Output:PRF with credentials");
         System.err.println(" -buda                \t:Generate BUDA credentials (default: Persistence storage credentials)");
@@ -262,6 +317,10 @@ public class BDCredentialSigner {
         System.err.println(" -alias alias         \t:Alias for the signing key");
         System.err.println(" -keypass password    \t:Password for accessing the signing key");
         System.err.println(" -gacerts             \t:File containing grantor certificate chain");
+        System.err.println(" -verify              \t:Verify the credentials of the jar files (grantee root from -gecert,");
+        System.err.println("                      \t default:\"app.discroot.crt\")");
+        System.err.println(" -threads n           \t:Verify up to n jar files concurrently");
+        System.err.println(" -report filename     \t:Write a JSON verification report");
         System.err.println(" -debug               \t:Prints debug messages");
         System.err.println(" -help                \t:Prints this message");
         System.err.println();
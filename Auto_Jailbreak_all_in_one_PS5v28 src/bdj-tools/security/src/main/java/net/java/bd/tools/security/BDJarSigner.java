@@ -0,0 +1,427 @@
+/*  
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.security;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import sun.security.pkcs.ContentInfo;
+import sun.security.pkcs.PKCS7;
+import sun.security.pkcs.SignerInfo;
+import sun.security.x509.AlgorithmId;
+import sun.security.x509.X500Name;
+
+/**
+ * Signs jar files for BD-J without going through jarsigner.
+ * Each jar is read once: every entry is digested as it is read, then
+ * the manifest, the BD-J signature file (SIG-BD00.SF, with the
+ * BDJ-Signature-Version header already in place) and the PKCS#7
+ * signature block (SIG-BD00.RSA) are written in front of the original
+ * entries.
+ * <p>
+ * The private key, certificate chain and Signature are looked up once and
+ * reused for every jar signed with the same instance.  Instances may be
+ * shared between threads: entries are digested on the calling thread and
+ * only the final RSA operation is serialized on the shared Signature.
+ */
+public class BDJarSigner {
+
+    static final String MANIFEST_FILE = JarFile.MANIFEST_NAME;
+    static final String SIG_FILE = "META-INF/SIG-BD00.SF";
+    static final String SIG_BLOCK_FILE = "META-INF/SIG-BD00.RSA";
+
+    private static final String DIGEST_ATTR =
+            SecurityUtil.DIGEST_ALG + "-Digest";
+    private static final String CREATED_BY =
+            System.getProperty("java.version") + " ("
+            + System.getProperty("java.vendor") + ")";
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LF = {'\n'};
+    private static final int MAX_LINE = 72;
+
+    private final PrivateKey key;
+    private final X509Certificate[] chain;
+    private final Signature signer;
+    private final ThreadLocal<MessageDigest> messageDigests =
+            new ThreadLocal<MessageDigest>();
+    private final AlgorithmId digestAlgId;
+    private final AlgorithmId sigAlgId;
+    private volatile boolean debug;
+
+    public BDJarSigner(KeyStore store, String alias, char[] password)
+            throws GeneralSecurityException {
+        key = (PrivateKey) store.getKey(alias, password);
+        if (key == null) {
+            throw new GeneralSecurityException("No private key found for alias "
+                    + alias);
+        }
+        Certificate[] certs = store.getCertificateChain(alias);
+        if (certs == null || certs.length == 0) {
+            throw new GeneralSecurityException("No certificate chain found for alias "
+                    + alias);
+        }
+        chain = new X509Certificate[certs.length];
+        for (int i = 0; i < certs.length; i++) {
+            chain[i] = (X509Certificate) certs[i];
+        }
+        signer = Signature.getInstance(SecurityUtil.SIG_ALG);
+        messageDigests.set(MessageDigest.getInstance(SecurityUtil.DIGEST_ALG));
+        digestAlgId = AlgorithmId.get(SecurityUtil.DIGEST_ALG);
+        sigAlgId = AlgorithmId.get(SecurityUtil.SIG_ALG);
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * Signs the given jar in place.  The signed jar is written next to
+     * the original and moved over it once complete, so a failure leaves
+     * the original untouched.
+     * @return the number of uncompressed entry bytes read from the jar
+     */
+    public long sign(File jar) throws IOException, GeneralSecurityException {
+        return sign(jar, false);
+    }
+
+    /**
+     * Re-signs an already signed jar in place, covering only the entries
+     * listed in its existing SIG-BD00.SF.  Entries added after the jar
+     * was signed are copied after the signed ones, unsigned and with
+     * their original compression method.
+     * @return the number of uncompressed entry bytes read from the jar
+     */
+    public long signOriginal(File jar)
+            throws IOException, GeneralSecurityException {
+        return sign(jar, true);
+    }
+
+    private long sign(File jar, boolean originalOnly)
+            throws IOException, GeneralSecurityException {
+        Path target = jar.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(),
+                jar.getName(), ".tmp");
+        try {
+            long bytes;
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                bytes = sign(jar, os, originalOnly);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return bytes;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes a signed copy of the jar to the given stream, which is
+     * left open.  With originalOnly set, only the entries listed in the
+     * jar's existing SIG-BD00.SF (and directories) are signed; see
+     * {@link #signOriginal(File)}.
+     * @return the number of uncompressed entry bytes read from the jar
+     */
+    public long sign(File jar, OutputStream os, boolean originalOnly)
+            throws IOException, GeneralSecurityException {
+        MessageDigest md = messageDigests.get();
+        if (md == null) {
+            md = MessageDigest.getInstance(SecurityUtil.DIGEST_ALG);
+            messageDigests.set(md);
+        }
+        byte[] buf = new byte[32 * 1024];
+        long bytes = 0;
+        try (JarFile jf = new JarFile(jar, false)) {
+            List<JarEntry> entries = new ArrayList<JarEntry>();
+            List<byte[]> contents = new ArrayList<byte[]>();
+            List<byte[]> entryDigests = new ArrayList<byte[]>();
+            List<JarEntry> unsigned = new ArrayList<JarEntry>();
+            Manifest original = null;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            Set<String> signedNames = null;
+            if (originalOnly) {
+                JarEntry sigEntry = jf.getJarEntry(SIG_FILE);
+                if (sigEntry == null) {
+                    throw new IOException("The jar file is not already signed: "
+                            + jar + "; do not use the -original-only option");
+                }
+                try (InputStream in = jf.getInputStream(sigEntry)) {
+                    signedNames = new Manifest(in).getEntries().keySet();
+                }
+            }
+
+            // The manifest has to precede the entries it describes, so
+            // entry data is kept in memory between reading and writing.
+            for (Enumeration<JarEntry> e = jf.entries(); e.hasMoreElements();) {
+                JarEntry je = e.nextElement();
+                String name = je.getName();
+                if (MANIFEST_FILE.equalsIgnoreCase(name)) {
+                    try (InputStream in = jf.getInputStream(je)) {
+                        original = new Manifest(in);
+                    }
+                    continue;
+                }
+                if (SIG_FILE.equalsIgnoreCase(name)
+                        || SIG_BLOCK_FILE.equalsIgnoreCase(name)) {
+                    continue;
+                }
+                if (signedNames != null && !je.isDirectory()
+                        && !signedNames.contains(name)) {
+                    // added after the jar was signed; copied as is below
+                    unsigned.add(je);
+                    continue;
+                }
+                bos.reset();
+                try (InputStream in = jf.getInputStream(je)) {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        md.update(buf, 0, n);
+                        bos.write(buf, 0, n);
+                        bytes += n;
+                    }
+                }
+                entries.add(je);
+                contents.add(bos.toByteArray());
+                entryDigests.add(md.digest());
+            }
+
+            ByteArrayOutputStream mf = new ByteArrayOutputStream();
+            ByteArrayOutputStream sf = new ByteArrayOutputStream();
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            Base64.Encoder b64 = Base64.getEncoder();
+
+            writeMainSection(mf, original);
+            for (int i = 0; i < entries.size(); i++) {
+                String name = entries.get(i).getName();
+                if (entries.get(i).isDirectory() || isSignatureRelated(name)) {
+                    continue;
+                }
+                Attributes attrs = (original == null) ? null
+                        : original.getAttributes(name);
+                String digest = b64.encodeToString(entryDigests.get(i));
+
+                section.reset();
+                writeHeader(section, "Name", name, CRLF);
+                if (attrs != null) {
+                    for (Map.Entry<Object, Object> a : attrs.entrySet()) {
+                        String attrName = a.getKey().toString();
+                        if (!attrName.toUpperCase().endsWith("-DIGEST")) {
+                            writeHeader(section, attrName,
+                                    (String) a.getValue(), CRLF);
+                        }
+                    }
+                }
+                writeHeader(section, DIGEST_ATTR, digest, CRLF);
+                section.write(CRLF);
+                section.writeTo(mf);
+
+                writeHeader(sf, "Name", name, LF);
+                writeHeader(sf, DIGEST_ATTR,
+                        b64.encodeToString(md.digest(section.toByteArray())), LF);
+                sf.write(LF);
+            }
+            byte[] manifest = mf.toByteArray();
+
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            writeHeader(head, "Signature-Version", "1.0", LF);
+            writeHeader(head, "Created-By", CREATED_BY, LF);
+            writeHeader(head, "BDJ-Signature-Version", "1.0", LF);
+            writeHeader(head, DIGEST_ATTR + "-Manifest",
+                    b64.encodeToString(md.digest(manifest)), LF);
+            head.write(LF);
+            sf.writeTo(head);
+            byte[] sigFile = head.toByteArray();
+
+            JarOutputStream jout = new JarOutputStream(os);
+            jout.putNextEntry(new JarEntry(MANIFEST_FILE));
+            jout.write(manifest);
+            jout.putNextEntry(new JarEntry(SIG_FILE));
+            jout.write(sigFile);
+            jout.putNextEntry(new JarEntry(SIG_BLOCK_FILE));
+            signatureBlock(sigFile).encodeSignedData(jout);
+            for (int i = 0; i < entries.size(); i++) {
+                JarEntry je = new JarEntry(entries.get(i));
+                je.setCompressedSize(-1);
+                jout.putNextEntry(je);
+                jout.write(contents.get(i));
+            }
+            for (JarEntry entry : unsigned) {
+                JarEntry je = new JarEntry(entry);
+                je.setCompressedSize(-1);
+                jout.putNextEntry(je);
+                try (InputStream in = jf.getInputStream(entry)) {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        jout.write(buf, 0, n);
+                        bytes += n;
+                    }
+                }
+            }
+            jout.finish();
+            if (debug) {
+                System.out.println("Signed " + jar + " (" + entries.size()
+                        + " entries, " + unsigned.size() + " unsigned)");
+            }
+        }
+        return bytes;
+    }
+
+    private PKCS7 signatureBlock(byte[] sigFile) throws GeneralSecurityException {
+        byte[] signature;
+        synchronized (signer) {
+            signer.initSign(key);
+            signer.update(sigFile);
+            signature = signer.sign();
+        }
+        X509Certificate cert = chain[0];
+        SignerInfo si = new SignerInfo(
+                X500Name.asX500Name(cert.getIssuerX500Principal()),
+                cert.getSerialNumber(), digestAlgId, sigAlgId, signature);
+        return new PKCS7(new AlgorithmId[] { digestAlgId },
+                new ContentInfo(ContentInfo.DATA_OID, null),
+                chain, new SignerInfo[] { si });
+    }
+
+    private static void writeMainSection(ByteArrayOutputStream out,
+            Manifest original) throws IOException {
+        Attributes main = (original == null) ? null
+                : original.getMainAttributes();
+        String version = (main == null) ? null
+                : main.getValue(Attributes.Name.MANIFEST_VERSION);
+        writeHeader(out, Attributes.Name.MANIFEST_VERSION.toString(),
+                (version == null) ? "1.0" : version, CRLF);
+        if (main == null) {
+            writeHeader(out, "Created-By", CREATED_BY, CRLF);
+        } else {
+            for (Map.Entry<Object, Object> a : main.entrySet()) {
+                if (!Attributes.Name.MANIFEST_VERSION.equals(a.getKey())) {
+                    writeHeader(out, a.getKey().toString(),
+                            (String) a.getValue(), CRLF);
+                }
+            }
+        }
+        out.write(CRLF);
+    }
+
+    /**
+     * Writes one "name: value" header, continuing lines longer than
+     * 72 bytes as the jar specification requires.
+     */
+    private static void writeHeader(ByteArrayOutputStream out, String name,
+            String value, byte[] eol) throws IOException {
+        byte[] line = (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int limit = MAX_LINE;
+        while (line.length - start > limit) {
+            int end = start + limit;
+            // Don't split a multi-byte UTF-8 sequence across lines.
+            while ((line[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            out.write(line, start, end - start);
+            out.write(eol);
+            out.write(' ');
+            start = end;
+            limit = MAX_LINE - 1;
+        }
+        out.write(line, start, line.length - start);
+        out.write(eol);
+    }
+
+    /**
+     * Signature files and the manifest are not digested, matching what
+     * jarsigner does.
+     */
+    static boolean isSignatureRelated(String name) {
+        String upper = name.toUpperCase();
+        if (!upper.startsWith("META-INF/") || upper.indexOf('/', 9) >= 0) {
+            return false;
+        }
+        return upper.equals(MANIFEST_FILE)
+                || upper.startsWith("META-INF/SIG-")
+                || upper.endsWith(".SF")
+                || upper.endsWith(".RSA")
+                || upper.endsWith(".DSA")
+                || upper.endsWith(".EC");
+    }
+}
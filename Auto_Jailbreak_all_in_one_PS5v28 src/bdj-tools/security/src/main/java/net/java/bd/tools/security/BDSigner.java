@@ -129,6 +129,15 @@ public class BDSigner {
                 printUsageAndExit("");
             } else if (opt.equals("-debug")) {
                 builder = builder.debug();
+            } else if (opt.equals("-threads")) {
+                if (++i == args.length) {
+                    errorNeedArgument(opt);
+                }
+                try {
+                    builder = builder.threads(Integer.parseInt(args[i]));
+                } catch (NumberFormatException e) {
+                    printUsageAndExit("Invalid thread count: " + args[i]);
+                }
             } else {
                 if (args[i].endsWith(".xml")) {
                     builder = builder.bumf(args[i]);
@@ -208,6 +217,7 @@ public class BDSigner {
         System.err.println(" -onlinekey          \t:Path to binary file (from BDA) containing RSA private key for creating online.sig file");
         System.err.println(" -onlinecrt          \t:Path to online.crt file (from BDA)");
         System.err.println(" -nodiscroot         \t:Generate online.sig without using application disc root file");
+        System.err.println(" -threads n          \t:Sign up to n jar files concurrently");
         System.err.println(" -debug              \t:Prints debug messages");
         System.err.println(" -help               \t:Prints this message");
         System.err.println("\nExample: java net.java.bd.tools.security.BDSigner 00000.jar\n");
@@ -53,14 +53,18 @@
  */
 package net.java.bd.tools.security;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 
 import java.math.BigInteger;
 
+import java.security.MessageDigest;
 import java.security.Signature;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -70,9 +74,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
 
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
@@ -102,6 +113,10 @@ import static net.java.bd.tools.security.CredentialUtil.*;
  * The verify() method takes: the path to the signed jarfile, the location
  * of the permission request file within the jar file, and the path to the
  * grantee root certificate. 
+ * <p>
+ * To verify many jar files, use a {@link Session}: it caches the parsed
+ * certificates and permission request files, so the same producer and
+ * root certificates are only decoded once, and can verify jars concurrently.
  * 
  * @author Jaya Hangal  
  */
@@ -112,48 +127,336 @@ class CredentialVerifier {
             String rootCert,
             boolean isBudaCredential)
             throws Exception {
-        JarFile jf = new JarFile(jarfile);
-        ZipEntry je = jf.getEntry(permReqFileName);
-        if (je == null) {
-            verifyError("Jar Entry:" + permReqFileName + " not found.");
+        try {
+            new Session().verify(jarfile, permReqFileName, rootCert,
+                    isBudaCredential, System.out);
+        } catch (VerificationException e) {
+            verifyError(e.getMessage());
         }
+    }
+
+    static private void verifyError(String errMsg) {
+        System.out.println("===========================");
+        System.out.println("VERFICATION FAILED:" + errMsg);
+        System.out.println("===========================");
+        System.exit(1);
+    }
+
+    /**
+     * Thrown when a credential doesn't verify.
+     */
+    static class VerificationException extends Exception {
+        VerificationException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * The outcome of verifying one jar file in a session.
+     */
+    static class Result {
+        final String jarfile;
+        final boolean passed;
+        final String message;
+        final String log;
+        final long nanos;
+
+        Result(String jarfile, boolean passed, String message, String log,
+                long nanos) {
+            this.jarfile = jarfile;
+            this.passed = passed;
+            this.message = message;
+            this.log = log;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * The fields of a permission request file that take part in credential
+     * verification, extracted once per distinct file.
+     */
+    static class PermissionRequest {
+        long granteeOrgId;
+        int granteeAppId;
+        String grantorOrg;
+        long grantorId;
+        byte[] certChainFileId;     // null if <certchainfileid> is missing
+        byte[] signature;           // null if <signature> is missing
+        String expDate;
+        List<Files> files = new ArrayList<Files>();
+    }
+
+    /**
+     * A verification session.  Parsed certificates and permission request
+     * files are cached by the digest of their encoded form.  The
+     * certificates in a jar's signature block are cached one by one, so
+     * jars signed with the same producer chain only decode it once, even
+     * though each jar's signature block is different.  Sessions are safe
+     * to use from several threads.
+     */
+    static class Session {
+        private final ConcurrentMap<String, X509Certificate> signerCerts =
+                new ConcurrentHashMap<String, X509Certificate>();
+        private final ConcurrentMap<String, X509Certificate> rootCerts =
+                new ConcurrentHashMap<String, X509Certificate>();
+        private final ConcurrentMap<String, PermissionRequest> permRequests =
+                new ConcurrentHashMap<String, PermissionRequest>();
+        final AtomicInteger signerCertHits = new AtomicInteger();
+        final AtomicInteger signerCertMisses = new AtomicInteger();
+        final AtomicInteger rootCertHits = new AtomicInteger();
+        final AtomicInteger rootCertMisses = new AtomicInteger();
+        final AtomicInteger permReqHits = new AtomicInteger();
+        final AtomicInteger permReqMisses = new AtomicInteger();
+
+        /**
+         * Verifies the credentials of a single jar file, writing progress
+         * to out.
+         * @throws VerificationException if the credentials don't verify
+         */
+        void verify(String jarfile, String permReqFileName, String rootCert,
+                boolean isBudaCredential, PrintStream out) throws Exception {
+            byte[] permReqData;
+            byte[] sigBlockData;
+            try (JarFile jf = new JarFile(jarfile)) {
+                JarEntry je = jf.getJarEntry(permReqFileName);
+                if (je == null) {
+                    throw new VerificationException("Jar Entry:" + permReqFileName
+                            + " not found.");
+                }
+                permReqData = readEntry(jf, je);
+                je = jf.getJarEntry("META-INF/SIG-BD00.RSA");
+                if (je == null) {
+                    throw new VerificationException(
+                            "Jar Entry:META-INF/SIG-BD00.RSA not found.");
+                }
+                sigBlockData = readEntry(jf, je);
+            }
+            PermissionRequest pr = getPermissionRequest(permReqData,
+                    isBudaCredential);
+            out.println("*************** Verifying Credentials ***********");
+            out.println("Grantor's organization Id:" + pr.grantorOrg);
+
+            Collection<X509Certificate> certs = getSignerCerts(sigBlockData);
+            out.println("# of certs in the signed Jar File:" + certs.size());
+            List<X509Certificate> grantorCerts = verifyCertChainFileId(pr,
+                    certs, out);
+
+            // Lets reorder the certificates to form the trusted path to the root
+            grantorCerts = getCertPath(grantorCerts);
+            out.println("Found the grantor chain length:" + grantorCerts.size());
+            printCerts(grantorCerts, out);
+            if (grantorCerts.size() < 1) {
+                throw new VerificationException("Unable to find grantor certificates");
+            }
+            out.println("####### <certchainfileid> Verification PASSED #######");
+            verifySignature(pr, getRootCert(rootCert), grantorCerts,
+                    isBudaCredential, out);
+            out.println("*************** Verification Done ***********");
+        }
+
+        /**
+         * Verifies the credentials of every jar file on up to threads worker
+         * threads.  The results are in the same order as jarfiles.
+         */
+        List<Result> verifyAll(List<String> jarfiles,
+                final String permReqFileName, final String rootCert,
+                final boolean isBudaCredential, int threads) throws Exception {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(threads, jarfiles.size())));
+            try {
+                List<Future<Result>> futures = new ArrayList<Future<Result>>();
+                for (final String jarfile : jarfiles) {
+                    futures.add(pool.submit(new Callable<Result>() {
+                        public Result call() {
+                            return verifyOne(jarfile, permReqFileName, rootCert,
+                                    isBudaCredential);
+                        }
+                    }));
+                }
+                List<Result> results = new ArrayList<Result>();
+                for (Future<Result> f : futures) {
+                    try {
+                        results.add(f.get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        throw (cause instanceof Exception) ? (Exception) cause : e;
+                    }
+                }
+                return results;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        private Result verifyOne(String jarfile, String permReqFileName,
+                String rootCert, boolean isBudaCredential) {
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(log, true);
+            long start = System.nanoTime();
+            boolean passed = false;
+            String message;
+            try {
+                verify(jarfile, permReqFileName, rootCert, isBudaCredential, out);
+                passed = true;
+                message = "Verification PASSED";
+            } catch (VerificationException e) {
+                message = e.getMessage();
+            } catch (Exception e) {
+                message = e.toString();
+            }
+            if (!passed) {
+                out.println("VERFICATION FAILED:" + message);
+            }
+            out.close();
+            return new Result(jarfile, passed, message, log.toString(),
+                    System.nanoTime() - start);
+        }
+
+        /**
+         * Writes the results as a JSON document.
+         */
+        void writeReport(List<Result> results, PrintWriter pw) {
+            int failed = 0;
+            pw.println("{");
+            pw.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                if (!r.passed) {
+                    failed++;
+                }
+                pw.print("    {\"jar\": " + quote(r.jarfile)
+                        + ", \"passed\": " + r.passed
+                        + ", \"millis\": " + (r.nanos / 1000000)
+                        + ", \"message\": " + quote(r.message) + "}");
+                pw.println((i < results.size() - 1) ? "," : "");
+            }
+            pw.println("  ],");
+            pw.println("  \"passed\": " + (results.size() - failed) + ",");
+            pw.println("  \"failed\": " + failed + ",");
+            pw.println("  \"signerCertificateCacheHits\": " 
+                    + signerCertHits.get() + ",");
+            pw.println("  \"signerCertificateCacheMisses\": " 
+                    + signerCertMisses.get() + ",");
+            pw.println("  \"rootCertificateCacheHits\": " 
+                    + rootCertHits.get() + ",");
+            pw.println("  \"rootCertificateCacheMisses\": " 
+                    + rootCertMisses.get() + ",");
+            pw.println("  \"permissionRequestCacheHits\": " + permReqHits.get() + ",");
+            pw.println("  \"permissionRequestCacheMisses\": " + permReqMisses.get());
+            pw.println("}");
+            pw.flush();
+        }
+
+        private List<X509Certificate> getSignerCerts(byte[] sigBlockData)
+                throws Exception {
+            List<X509Certificate> certs = new ArrayList<X509Certificate>();
+            CertificateFactory cf = null;
+            for (byte[] data : splitCertificates(sigBlockData)) {
+                String key = digest(data);
+                X509Certificate cert = signerCerts.get(key);
+                if (cert != null) {
+                    signerCertHits.incrementAndGet();
+                } else {
+                    signerCertMisses.incrementAndGet();
+                    if (cf == null) {
+                        cf = CertificateFactory.getInstance("X.509");
+                    }
+                    cert = (X509Certificate) cf.generateCertificate(
+                            new ByteArrayInputStream(data));
+                    X509Certificate prev = signerCerts.putIfAbsent(key, cert);
+                    if (prev != null) {
+                        cert = prev;
+                    }
+                }
+                certs.add(cert);
+            }
+            return certs;
+        }
+
+        private X509Certificate getRootCert(String granteeRootCertName)
+                throws Exception {
+            byte[] data = java.nio.file.Files.readAllBytes(
+                    new File(granteeRootCertName).toPath());
+            String key = digest(data);
+            X509Certificate cert = rootCerts.get(key);
+            if (cert != null) {
+                rootCertHits.incrementAndGet();
+                return cert;
+            }
+            rootCertMisses.incrementAndGet();
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            cert = (X509Certificate) cf.generateCertificate(
+                    new ByteArrayInputStream(data));
+            X509Certificate prev = rootCerts.putIfAbsent(key, cert);
+            return (prev != null) ? prev : cert;
+        }
+
+        private PermissionRequest getPermissionRequest(byte[] data,
+                boolean isBudaCredential) throws Exception {
+            String key = (isBudaCredential ? "buda:" : "file:") + digest(data);
+            PermissionRequest pr = permRequests.get(key);
+            if (pr != null) {
+                permReqHits.incrementAndGet();
+                return pr;
+            }
+            permReqMisses.incrementAndGet();
+            pr = parsePermissionRequest(data, isBudaCredential);
+            PermissionRequest prev = permRequests.putIfAbsent(key, pr);
+            return (prev != null) ? prev : pr;
+        }
+    }
+
+    static PermissionRequest parsePermissionRequest(byte[] data,
+            boolean isBudaCredential) throws Exception {
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        Document doc = factory.newDocumentBuilder().parse(jf.getInputStream(je));
+        Document doc = factory.newDocumentBuilder().parse(
+                new ByteArrayInputStream(data));
         Element e = doc.getDocumentElement();
+        PermissionRequest pr = new PermissionRequest();
         Node credNode;
         if (isBudaCredential) {
             credNode = getNodeWithTag(e, BUDA_CRED_TAG);
         } else {
             credNode = getNodeWithTag(e, FILE_CRED_TAG);
         }
+        if (credNode == null) {
+            throw new VerificationException("No credential element in the"
+                    + " permission request file");
+        }
         Node grantorNode = getNodeWithTag(credNode, GRANTOR_ID_TAG);
-        String grantorOrg = ((Element) grantorNode).getAttribute("id");
-        System.out.println("*************** Verifying Credentials ***********");
-        System.out.println("Grantor's organization Id:" + grantorOrg);
+        pr.grantorOrg = ((Element) grantorNode).getAttribute("id");
 
         // remove 0x suffix from the orgId field of the permission request file
-        grantorOrg = grantorOrg.substring(2);
-        long grantorId = Long.parseLong(grantorOrg, 16);
-        List<X509Certificate> grantorCerts = verifyCertChainFileId(credNode,
-                grantorId, jarfile);
-
-        // Lets reorder the certificates to form the trusted path to the root
-        grantorCerts = getCertPath(grantorCerts);
-        System.out.println("Found the grantor chain length:" + grantorCerts.size());
-        printCerts(grantorCerts);
-        if (grantorCerts.size() < 1) {
-            verifyError("Unable to find grantor certificates");
-        }
-        System.out.println("####### <certchainfileid> Verification PASSED #######");
-        verifySignature(e, grantorId, jarfile, rootCert, grantorCerts, isBudaCredential);
-        System.out.println("*************** Verification Done ***********");
-    }
+        pr.grantorId = Long.parseLong(pr.grantorOrg.substring(2), 16);
 
-    static private void verifyError(String errMsg) {
-        System.out.println("===========================");
-        System.out.println("VERFICATION FAILED:" + errMsg);
-        System.out.println("===========================");
-        System.exit(1);
+        String geOrgId = e.getAttribute("orgid");
+        pr.granteeOrgId = Long.parseLong(geOrgId.substring(2), 16);
+        String geAppId = e.getAttribute("appid");
+        pr.granteeAppId = Integer.parseInt(geAppId.substring(2), 16);
+
+        NodeList credAttrs = credNode.getChildNodes();
+        for (int i = 0; i < credAttrs.getLength(); i++) {
+            Node cNode = credAttrs.item(i);
+            if (cNode.getNodeName().equals(EXP_DATE_TAG)) {
+                pr.expDate = ((Element) cNode).getAttribute("date");
+            } else if (cNode.getNodeName().equals(FILE_NAME_TAG)) {
+                String filePath = cNode.getTextContent();
+                NamedNodeMap fileAttrs = cNode.getAttributes();
+                String read = fileAttrs.getNamedItem("read").getNodeValue();
+                String write = fileAttrs.getNamedItem("write").getNodeValue();
+                pr.files.add(new Files(read, write, filePath));
+            }
+        }
+        Node fileIdNode = getNodeWithTag(credNode, FILE_ID_TAG);
+        if (fileIdNode != null) {
+            pr.certChainFileId = Base64.getDecoder().decode(
+                    fileIdNode.getTextContent());
+        }
+        Node signNode = getNodeWithTag(credNode, SIGNATURE_TAG);
+        if (signNode != null) {
+            pr.signature = Base64.getDecoder().decode(signNode.getTextContent());
+        }
+        return pr;
     }
 
     // Assertion: Build a certpath to ensure that the certificate chain
@@ -166,27 +469,30 @@ class CredentialVerifier {
     }
 
     static void printCerts(Collection certs) {
+        printCerts(certs, System.out);
+    }
+
+    static void printCerts(Collection certs, PrintStream out) {
         Iterator i = certs.iterator();
         int count = 1;
         while (i.hasNext()) {
             X509Certificate cert = (X509Certificate) i.next();
-            System.out.println(count + ". " + cert.getSubjectX500Principal());
+            out.println(count + ". " + cert.getSubjectX500Principal());
             count++;
         }
     }
 
-    static private List<X509Certificate> verifyCertChainFileId(Node credNode,
-            long grantorId, String jarFileName) throws Exception {
-        Node fileIdNode = getNodeWithTag(credNode, FILE_ID_TAG);
-        if (fileIdNode == null) {
-            verifyError("No elements in the permission request file with tag: " +
-                    FILE_ID_TAG);
+    static private List<X509Certificate> verifyCertChainFileId(
+            PermissionRequest pr, Collection<X509Certificate> certs,
+            PrintStream out) throws Exception {
+        if (pr.certChainFileId == null) {
+            throw new VerificationException("No elements in the permission"
+                    + " request file with tag: " + FILE_ID_TAG);
         }
-        String base64Data = fileIdNode.getTextContent();
-        byte[] derData = Base64.getDecoder().decode(base64Data);
+        long grantorId = pr.grantorId;
 
         // issuerAndSerialNumber
-        DerInputStream derin = new DerInputStream(derData);
+        DerInputStream derin = new DerInputStream(pr.certChainFileId);
         DerValue[] issuerAndSerialNumber = derin.getSequence(2);
         byte[] issuerBytes = issuerAndSerialNumber[0].toByteArray();
 
@@ -195,7 +501,7 @@ class CredentialVerifier {
         //                   leaf certificate used for authentication"
         BigInteger certificateSerialNumber = issuerAndSerialNumber[1].getBigInteger();
 
-        System.out.println("Looking for the certificate with issuerName:" +
+        out.println("Looking for the certificate with issuerName:" +
                 issuerName + " and cert serial no:" + Integer.toHexString(
                 certificateSerialNumber.intValue()));
 
@@ -203,9 +509,7 @@ class CredentialVerifier {
         // grantor cert.
         ArrayList<X509Certificate> returnCerts = new ArrayList<X509Certificate>();
 
-        // retrieve the cert from the jarfile
-        Collection certs = retrieveCerts(jarFileName);
-        Iterator i = certs.iterator();
+        Iterator<X509Certificate> i = certs.iterator();
         X500Principal certName = null;
 
         // Find the grantor certificate chain
@@ -213,7 +517,7 @@ class CredentialVerifier {
         // step 2. Use the certificate found in step 1 to get to the root certificate
         boolean foundGrantorCert = false;
         while ((i.hasNext()) && !foundGrantorCert) {
-            X509Certificate cert = (X509Certificate) i.next();
+            X509Certificate cert = i.next();
             if (issuerName.equals(cert.getIssuerX500Principal())) {
                 String orgValue = getOrgValue(issuerName.toString());
                 int indexOfOrgId = orgValue.lastIndexOf(".");
@@ -221,20 +525,20 @@ class CredentialVerifier {
                 if (indexOfOrgId != -1) {
                     orgId = orgValue.substring(indexOfOrgId + 1);
                 } else {
-                    System.out.println("Could not retrieve the orgId from the" +
+                    out.println("Could not retrieve the orgId from the" +
                             " grantor certificate");
                     continue;
                 }
                 long certOrgId = Long.parseLong(orgId, 16);
                 if (grantorId != certOrgId) {
-                    System.out.println(
+                    out.println(
                             "grantor org Id:" + grantorId +
                             " and the one in the certificate:" + certOrgId +
                             " did not match");
                     continue;
                 }
                 if (certificateSerialNumber.equals(cert.getSerialNumber())) {
-                    System.out.println("Found the grantor's certificate:" +
+                    out.println("Found the grantor's certificate:" +
                             cert.getSubjectX500Principal());
                     certName = issuerName;
                     returnCerts.add(cert);
@@ -242,6 +546,9 @@ class CredentialVerifier {
                 }
             }
         }
+        if (!foundGrantorCert) {
+            throw new VerificationException("Unable to find grantor certificates");
+        }
 
         // Grantor is found; step 2. Now look for grantor's root
         boolean rootCertFound = false;
@@ -256,7 +563,8 @@ class CredentialVerifier {
                     certName = matchedCert.getIssuerX500Principal();
                 }
             } else {
-                verifyError("Could not find root certificate for the grantor chain");
+                throw new VerificationException(
+                        "Could not find root certificate for the grantor chain");
             }
         }
         return returnCerts;
@@ -273,66 +581,33 @@ class CredentialVerifier {
         return null;
     }
 
-    private static void verifySignature(Element e, long grantorId, String jarfile,
-            String granteeRootCertName,
+    private static void verifySignature(PermissionRequest pr,
+            X509Certificate granteeRootCert,
             List<X509Certificate> grantorCerts,
-            boolean isBudaCredential) throws Exception {
+            boolean isBudaCredential, PrintStream out) throws Exception {
         byte credentialUsage = 0x00;
         if (isBudaCredential) {
             credentialUsage = 0x01;     // cf. 3-2 s. 12.1.10 table 12-4
         }
-        String geOrgId = e.getAttribute("orgid");
-        geOrgId = geOrgId.substring(2);
-        long granteeOrgId = Long.parseLong(geOrgId, 16);
-        String geAppId = e.getAttribute("appid");
-        geAppId = geAppId.substring(2);
-        int granteeAppId = Integer.parseInt(geAppId, 16);
 
         // compute grantee root cert digest
-        FileInputStream fis = new FileInputStream(granteeRootCertName);
-        BufferedInputStream bis = new BufferedInputStream(fis);
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        X509Certificate granteeRootCert = (X509Certificate) cf.generateCertificate(bis);
         byte[] granteeRootCertDigest = getCertDigest(granteeRootCert);
         byte[] grantorRootCertDigest = getCertDigest(grantorCerts.get(grantorCerts.size() - 1));
-
-        Node credNode;
-        if (isBudaCredential) {
-            credNode = getNodeWithTag(e, BUDA_CRED_TAG);
-        } else {
-            credNode = getNodeWithTag(e, FILE_CRED_TAG);
-        }
-        NodeList credAttrs = credNode.getChildNodes();
-        String expDate = null;
-        ArrayList<Files> fileList = new ArrayList<Files>();
-        for (int i = 0; i < credAttrs.getLength(); i++) {
-            Node cNode = credAttrs.item(i);
-            if (cNode.getNodeName().equals(EXP_DATE_TAG)) {
-                expDate = ((Element) cNode).getAttribute("date");
-            } else if (cNode.getNodeName().equals(FILE_NAME_TAG)) {
-                String filePath = cNode.getTextContent();
-                NamedNodeMap fileAttrs = cNode.getAttributes();
-                String read = fileAttrs.getNamedItem("read").getNodeValue();
-                String write = fileAttrs.getNamedItem("write").getNodeValue();
-                Files f = new Files(read, write, filePath);
-                fileList.add(f);
-            }
-        }
-        byte[] expiryDate = getAscii(expDate);
+        byte[] expiryDate = getAscii(pr.expDate);
 
         // binary concatenation of the fields to be signed
         ByteArrayOutputStream baos = new ByteArrayOutputStream(450);
         DataOutputStream dos = new DataOutputStream(baos);
         dos.writeByte(credentialUsage);
-        dos.writeInt((int) granteeOrgId);
-        dos.writeShort(granteeAppId);
+        dos.writeInt((int) pr.granteeOrgId);
+        dos.writeShort(pr.granteeAppId);
         dos.write(granteeRootCertDigest, 0, granteeRootCertDigest.length);
-        dos.writeInt((int) grantorId);
+        dos.writeInt((int) pr.grantorId);
         dos.write(grantorRootCertDigest, 0, grantorRootCertDigest.length);
         dos.write(expiryDate, 0, expiryDate.length);
 
         // file related attributes
-        for (Files f : fileList) {
+        for (Files f : pr.files) {
             byte[] readPerm = getAscii(f.read);
             byte[] writePerm = getAscii(f.write);
             byte[] filepath = getAscii(f.filepath);
@@ -344,37 +619,83 @@ class CredentialVerifier {
         }
         dos.close();
         byte[] data = baos.toByteArray();
-        System.out.println("Data gathered for signature verification:");
+        out.println("Data gathered for signature verification:");
         HexDumpEncoder hexDump = new HexDumpEncoder();
-        System.out.println(hexDump.encodeBuffer(data));
+        out.println(hexDump.encodeBuffer(data));
 
-        Node signNode = getNodeWithTag(credNode, SIGNATURE_TAG);
-        if (signNode == null) {
-            verifyError("No elements in the permission request file with tag: " +
-                    SIGNATURE_TAG);
+        if (pr.signature == null) {
+            throw new VerificationException("No elements in the permission"
+                    + " request file with tag: " + SIGNATURE_TAG);
         }
-        String base64Data = signNode.getTextContent();
-        byte[] signature = Base64.getDecoder().decode(base64Data);
         Signature verifier = Signature.getInstance(SIG_ALGO);
         verifier.initVerify(grantorCerts.get(0));
         verifier.update(data);
-        boolean verified = verifier.verify(signature);
+        boolean verified = verifier.verify(pr.signature);
         if (verified) {
-            System.out.println("####### Credentials signature verification PASSED ######");
+            out.println("####### Credentials signature verification PASSED ######");
         } else {
-            verifyError("Credentials signature verification FAILED");
+            throw new VerificationException(
+                    "Credentials signature verification FAILED");
         }
     }
 
-    private static Collection retrieveCerts(String jarFileName) throws Exception {
-        JarFile jf = new JarFile(jarFileName);
-        JarEntry jarEntry = (JarEntry) jf.getEntry("META-INF/SIG-BD00.RSA");
-        InputStream in = jf.getInputStream(jarEntry);
-        CertificateFactory cf = CertificateFactory.getInstance("X509");
-        Collection certs = cf.generateCertificates(in);
-        System.out.println("# of certs in the signed Jar File:" + certs.size());
-        jf.close();
-        return certs;
+    // Returns the encoded form of each certificate in a PKCS#7 signature
+    // block, without decoding them.  The block is a ContentInfo holding
+    // a SignedData, whose optional [0] IMPLICIT field is the set of
+    // certificates.
+    static List<byte[]> splitCertificates(byte[] sigBlockData)
+            throws IOException {
+        List<byte[]> result = new ArrayList<byte[]>();
+        DerValue contentInfo = new DerValue(sigBlockData);
+        contentInfo.data.getOID();
+        DerValue signedData = contentInfo.data.getDerValue().data.getDerValue();
+        DerInputStream in = signedData.data;
+        in.getDerValue();   // version
+        in.getDerValue();   // digestAlgorithms
+        in.getDerValue();   // contentInfo
+        while (in.available() > 0) {
+            DerValue v = in.getDerValue();
+            if (v.isContextSpecific((byte) 0)) {
+                DerInputStream certs = v.data;
+                while (certs.available() > 0) {
+                    result.add(certs.getDerValue().toByteArray());
+                }
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static byte[] readEntry(JarFile jf, JarEntry je) throws IOException {
+        try (InputStream in = jf.getInputStream(je)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static String digest(byte[] data) throws Exception {
+        byte[] d = MessageDigest.getInstance("SHA-256").digest(data);
+        StringBuilder sb = new StringBuilder(d.length * 2);
+        for (byte b : d) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
     }
 
     private static String getOrgValue(String name) throws Exception {
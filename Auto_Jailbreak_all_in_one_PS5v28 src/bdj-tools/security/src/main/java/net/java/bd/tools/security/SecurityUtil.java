@@ -61,16 +61,12 @@ import java.io.BufferedReader;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -84,15 +80,13 @@ import java.security.SecureRandom;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Manifest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import javax.naming.InvalidNameException;
@@ -100,11 +94,7 @@ import javax.naming.InvalidNameException;
 
 import sun.security.util.DerInputStream;
 import sun.security.util.DerOutputStream;
-import sun.security.pkcs.ContentInfo;
-import sun.security.pkcs.PKCS7;
-import sun.security.pkcs.SignerInfo;
 import java.util.Base64;
-import sun.tools.jar.Main;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.asn1.DERConstructedSequence;
@@ -121,7 +111,7 @@ import org.bouncycastle.jce.PKCS10CertificationRequest;
 /**
  * A generic security utility class that generates the certificates for the BD-J
  * applications and signs the jars or the BUMF.
- * This methods of this class wrap around jarsigner and keytool to perform bd-j
+ * This methods of this class wrap around keytool and BDJarSigner to perform bd-j
  * required signing.
  * 
  * Here are the 3 steps for signing jar{s}:
@@ -191,10 +181,14 @@ public class SecurityUtil {
     boolean signOriginalOnly = false;
     boolean debug = false;
 
+    // Number of jars signed concurrently by signJars().
+    int threads = 1;
+
     // non-optional fields
     private KeyStore store;
     private BigInteger appCertSerNo;
     private boolean ksInitialized = false;
+    private BDJarSigner jarSigner;
 
     /*
      * Using Builder pattern from Effective Java Reloaded. The arguments
@@ -225,6 +219,7 @@ public class SecurityUtil {
         this.onlineDiscRootFile = b.onlineDiscRootFile;
         this.jarfiles = b.jarfiles;
         this.signOriginalOnly = b.signOriginalOnly;
+        this.threads = b.threads;
         this.onlinePvtKeyFile = b.onlinePvtKeyFile;
         this.onlineCrtFile = b.onlineCrtFile;
         this.skipOnlineDiscroot = b.skipOnlineDiscroot;
@@ -257,6 +252,7 @@ public class SecurityUtil {
         boolean isAppCert = false;
         boolean isBindingUnitCert = false;
         boolean signOriginalOnly = false;
+        int threads = 1;
         String BUMFile;
         String onlineDiscRootFile;
         String onlinePvtKeyFile;
@@ -409,6 +405,11 @@ public class SecurityUtil {
             return this;
         }
 
+        public Builder threads(int n) {
+            this.threads = Math.max(1, n);
+            return this;
+        }
+
         public Builder bumf(String file) {
             this.BUMFile = file;
             if (contentSignerAlias == null) {
@@ -550,12 +551,19 @@ public class SecurityUtil {
         sb.append("\n");
         sb.append("signOriginalOnly =");
         sb.append(signOriginalOnly);
+        sb.append("\n");
+        sb.append("threads = ");
+        sb.append(threads);
         return sb.toString();
     }
 
     public void signJars() {
         try {
             initKeyStore();
+            if (threads > 1 && jarfiles.size() > 1) {
+                signJarsConcurrently();
+                return;
+            }
             for (String jfile : jarfiles) {
                 if (signOriginalOnly) {
                     signOriginalJarFile(jfile);
@@ -569,6 +577,53 @@ public class SecurityUtil {
         }
     }
 
+    /**
+     * Signs the jar files on a pool of worker threads.  The keystore is
+     * loaded and the signing key looked up once; every worker digests its
+     * own jar and only the RSA operation is serialized inside BDJarSigner.
+     */
+    private void signJarsConcurrently() throws Exception {
+        final BDJarSigner signer = getJarSigner();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(threads, jarfiles.size()));
+        try {
+            long start = System.nanoTime();
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for (final String jfile : jarfiles) {
+                results.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        long start = System.nanoTime();
+                        long bytes = signOriginalOnly
+                                ? signer.signOriginal(new File(jfile))
+                                : signer.sign(new File(jfile));
+                        reportThroughput(jfile, bytes, System.nanoTime() - start);
+                        return bytes;
+                    }
+                }));
+            }
+            long total = 0;
+            for (Future<Long> f : results) {
+                try {
+                    total += f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+            reportThroughput(jarfiles.size() + " jars", total,
+                    System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void reportThroughput(String what, long bytes, long nanos) {
+        double ms = nanos / 1e6;
+        double mbs = (nanos == 0) ? 0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        System.out.println(String.format("Signed %s: %d bytes in %.1f ms (%.2f MB/s)",
+                what, bytes, ms, mbs));
+    }
+
     public void createCerts() throws Exception {
         if (isAppCert) {
             createAppCert();
@@ -676,15 +731,19 @@ public class SecurityUtil {
         sun.security.tools.keytool.Main.main(responseImportArgs);
     }
 
+    private BDJarSigner getJarSigner() throws Exception {
+        if (jarSigner == null) {
+            jarSigner = new BDJarSigner(store, contentSignerAlias,
+                    contentSignerPassword.toCharArray());
+            jarSigner.setDebug(debug);
+        }
+        return jarSigner;
+    }
+
     private void signJarFile(String jfile) throws Exception {
-        String[] jarSigningArgs = {"-sigFile", "SIG-BD00",
-            "-digestalg", DIGEST_ALG, "-sigalg", SIG_ALG,
-            "-keypass", contentSignerPassword,
-            "-keystore", keystoreFile,
-            "-storepass", keystorePassword,
-            "-verbose", jfile, contentSignerAlias};
-        sun.security.tools.jarsigner.Main.main(jarSigningArgs);
-        signWithBDJHeader(jfile);
+        long start = System.nanoTime();
+        long bytes = getJarSigner().sign(new File(jfile));
+        reportThroughput(jfile, bytes, System.nanoTime() - start);
     }
 
     /**
@@ -922,140 +981,6 @@ public class SecurityUtil {
         return iso646String(buf);
     }
 
-    /**
-     * This method adds the BD-J specific attribute to the signature file (.SF file)
-     * of a signed jar (already signed using JDK's jarsigner). This leads to
-     * resigning of the signature file and building a new signature block file
-     * (.RSA file) with the updated signature and update the jar with new files.
-     * @param jarFile
-     * @throws java.lang.Exception
-     */
-    private void signWithBDJHeader(String jarFile) throws Exception {
-        String SIG_FILE = "META-INF/SIG-BD00.SF";
-        String SIG_BLOCK_FILE = "META-INF/SIG-BD00.RSA";
-        Charset charset = StandardCharsets.ISO_8859_1;
-        if (debug) {
-            System.out.println("Adding BD header to:" + jarFile);
-        }
-
-        PKCS7 signBlock;
-        byte[] newContent;
-        try (StringWriter sw = new StringWriter()) {
-            try (JarFile jf = new JarFile(jarFile)) {
-                JarEntry sigFile = (JarEntry) jf.getJarEntry(SIG_FILE);
-                if (sigFile == null) {
-                    System.out.println("No entry found:" + SIG_FILE);
-                }
-                JarEntry sigBFile = (JarEntry) jf.getJarEntry(SIG_BLOCK_FILE);
-                if (sigBFile == null) {
-                    System.out.println("No entry found:" + SIG_BLOCK_FILE);
-                }
-
-                try (InputStream pkcs7Is = jf.getInputStream(sigBFile)) {
-                    signBlock = new PKCS7(pkcs7Is);
-                }
-
-                // Add the desired line to the Signature file.
-                try (InputStreamReader in = new InputStreamReader(jf.getInputStream(sigFile), charset);
-                     BufferedReader br = new BufferedReader(in)) {
-
-                    String line;
-                    boolean addBDLine = false;
-                    while ((line = br.readLine()) != null) {
-                        if (addBDLine) {
-                            // the BD-J header already exists;stop here.
-                            if (line.startsWith("BDJ-Signature-Version")) {
-                                br.close();
-                                jf.close();
-                                return;
-                            }
-                            sw.write("BDJ-Signature-Version: 1.0\n");
-                            addBDLine = false;
-                        }
-
-                        // BD-J doesn't mandate this attribute; keeping it should be fine
-                        if (!line.startsWith("SHA1-Digest-Manifest-Main-Attributes:")) {
-                            sw.write(line);
-                            sw.write("\n");
-                        }
-                        if (line.startsWith("Created-By:")) {
-                            addBDLine = true;
-                        }
-                    }
-                }
-            }
-            newContent = sw.toString().getBytes(charset);
-        }
-
-        // Re-sign the signature file after adding the BD-J header
-        Signature signer = Signature.getInstance(SIG_ALG);
-        PrivateKey key = (PrivateKey) store.getKey(contentSignerAlias, contentSignerPassword.toCharArray());
-        signer.initSign(key);
-        signer.update(newContent);
-        byte[] signedContent = signer.sign();
-
-        ContentInfo newContentInfo = new ContentInfo(ContentInfo.DATA_OID, null);
-        SignerInfo[] signerInfos = signBlock.getSignerInfos();
-        Certificate signerCert = store.getCertificate(contentSignerAlias);
-        SignerInfo newSignerInfo = null;
-
-        // Note, BD-J allows only one signerInfo, but let's have this loop since
-        // it does not add more code and it's easy to read.
-        for (int i = 0; i < signerInfos.length; i++) {
-            SignerInfo si = signerInfos[i];
-            if (signerCert.equals(si.getCertificate(signBlock))) {
-
-                // update the encrypted digest.
-                newSignerInfo = new SignerInfo(si.getIssuerName(),
-                        si.getCertificateSerialNumber(),
-                        si.getDigestAlgorithmId(),
-                        si.getDigestEncryptionAlgorithmId(),
-                        signedContent);
-                signerInfos[i] = newSignerInfo;
-            }
-        }
-
-        // generate the updated PKCS7 Block
-        PKCS7 newSignBlock = new PKCS7(
-                signBlock.getDigestAlgorithmIds(),
-                newContentInfo,
-                signBlock.getCertificates(),
-                signerInfos);
-        if (debug) {
-            System.out.println("Signer Info Verified:" + (newSignBlock.verify(
-                    newSignerInfo, newContent)).toString());
-        }
-
-        // Write down the files and re-bundle the jar with the updated signature
-        // and signature block files.
-        File mif = new File("META-INF");
-        File sf, sbf;
-        boolean dirCreated = false;
-        if (!mif.isDirectory()) {
-            if (!mif.mkdir()) {
-                System.err.println("Could not create a META-INF directory");
-                return;
-            }
-            dirCreated = true;
-        }
-        sf = new File(SIG_FILE);
-        try (OutputStream fout = Files.newOutputStream(sf.toPath())) {
-            fout.write(newContent);
-        }
-        sbf = new File(SIG_BLOCK_FILE);
-        try (OutputStream fos = Files.newOutputStream(sbf.toPath())) {
-            newSignBlock.encodeSignedData(fos);
-        }
-        String[] jarArgs = {"-uvf", jarFile, SIG_FILE, SIG_BLOCK_FILE};
-        Main jar = new Main(System.out, System.err, "jar");
-        jar.run(jarArgs);
-
-        // Delete the temp files
-        sbf.delete();
-        sf.delete();
-        if (dirCreated) mif.delete();
-    }
-
     private void exportRootCertificate(boolean verify) throws Exception {
         String exportFileName = outputDiscrootFile;
         String type = "root";
@@ -1283,152 +1208,8 @@ public class SecurityUtil {
      * @throws java.lang.Exception
      */
     private void signOriginalJarFile(String jfile) throws Exception {
-        JarFile jf = new JarFile(jfile, false); // jar file need not be verified.
-        String SIG_FILE = "META-INF/SIG-BD00.SF";
-        JarEntry sigFile = (JarEntry) jf.getJarEntry(SIG_FILE);
-        if (sigFile == null) {
-            System.err.println("ERROR: The jar file is not already signed:" + jfile +
-                    " do not use -original-only option");
-            jf.close();
-            System.exit(1);
-        }
-
-        // jar seperation is done based on the files listed in the signature file
-        Manifest man = new Manifest(jf.getInputStream(sigFile));
-        Map<String, Attributes> sigEntries = man.getEntries();
-
-        //
-        // Seperate out the signed and unsigned files into temporary jar files.
-        // They are merged after signing.
-        // It is required to carry forward jar attributes (such as compression
-        // method) for unsigned jar entries. We put them in another jar to
-        // file to retian those properties instead of extracting them as regular files.
-        // The java.util.jar APIs do not allow updates to the exisiting jar file,
-        // hence we end up copying all the entries back and forth the original
-        // jar file
-        //
-        String tmpSignedJar = "tmp-signed-files.jar";
-        String tmpUnsignedJar = "tmp-unsigned-files.jar";
-        JarOutputStream signedOut = new JarOutputStream(
-                new FileOutputStream(tmpSignedJar));
-
-        // If the jar is empty it cannot be closed; however, the
-        // file handle it's accessing needs to be closed.
-        FileOutputStream fout = new FileOutputStream(tmpUnsignedJar);
-        JarOutputStream unsignedOut = new JarOutputStream(fout);
-
-        Enumeration<JarEntry> jarEntries = jf.entries();
-        boolean isEmptyUnsigned = true;
-        while (jarEntries.hasMoreElements()) {
-            JarEntry je = jarEntries.nextElement();
-            /**
-             * Issue 111.  Do a copy operation on a new JarEntry with 
-             * unknown compressed size (-1), to account for a jar file
-             * created with a different flavor of zip algorithm.
-             * Copy to this new JarEntry relaxes the check for 
-             * the compressed data size differece between the original JarEntry 
-             * and the new JarEntry that jdk creates.
-             */
-            JarEntry jeOut = (JarEntry) je.clone();
-            jeOut.setCompressedSize(-1);
-            String filename = je.getName();
-
-            /** 
-             * Issue 112.  Do not include signing related files;
-             * these are re-generated during signing.
-             */
-            if (filename.equals(JarFile.MANIFEST_NAME) ||
-                    filename.equals("META-INF/SIG-BD00.RSA") ||
-                    filename.equals("META-INF/SIG-BD00.SF")) {
-                continue;
-            }
-
-            /**
-             * "META-INF/" contents are re-generated during signing. The directory
-             * entries (new or old) are not signed. To preserve the order of
-             * the entries in the original jar we add them to the
-             * to-be signed jar
-             */
-            if (filename.endsWith("/") ||
-                    sigEntries.containsKey(filename)) { // this file is signed
-                signedOut.putNextEntry(jeOut);
-                InputStream jin = jf.getInputStream(je);
-                copyfile(signedOut, jin);
-                jin.close();
-            } else { // this file was added after the jarfile was signed
-                isEmptyUnsigned = false;
-                unsignedOut.putNextEntry(jeOut);
-                InputStream jin = jf.getInputStream(je);
-                copyfile(unsignedOut, jin);
-                jin.close();
-            }
-        }
-
-        // close all the files
-        jf.close();
-        signedOut.closeEntry();
-        signedOut.close();
-        if (isEmptyUnsigned) {
-            fout.close();
-            if (debug) {
-                System.out.println(
-                        "No new files are present in the jar; Signing without splitting");
-            }
-            signJarFile(jfile);
-        } else {
-            unsignedOut.closeEntry();
-            unsignedOut.close();
-
-            // resign the signed jar
-            signJarFile(tmpSignedJar);
-
-            // The next step is to merge the signed and unsigned jars
-            JarOutputStream jout = new JarOutputStream(
-                    new FileOutputStream(jfile));
-            copyJarFile(tmpSignedJar, jout);
-            copyJarFile(tmpUnsignedJar, jout);
-            jout.close();
-        }
-
-        if (debug) {
-            return;
-        }
-
-        // attempt cleanup
-        File signedJar = new File(tmpSignedJar);
-        File unsignedJar = new File(tmpUnsignedJar);
-        if (!signedJar.delete()) {
-            System.out.println("Unable to delete temporary jar:" +
-                    tmpSignedJar + " Please try deleting it manually");
-            System.exit(1);
-        }
-        if (unsignedJar.exists() && !unsignedJar.delete()) {
-            System.out.println("Unable to delete temporary jar:" +
-                    tmpUnsignedJar + " Please try deleting it manually");
-            System.exit(1);
-        }
-    }
-
-    private void copyfile(OutputStream out, InputStream in)
-            throws IOException {
-        int len;
-        byte[] buf = new byte[32768];
-        while ((len = in.read(buf)) > 0) {
-            out.write(buf, 0, len);
-        }
-    }
-
-    private void copyJarFile(String jarName, JarOutputStream jout)
-            throws IOException {
-        JarFile jf = new JarFile(jarName);
-        Enumeration<JarEntry> jarEntries = jf.entries();
-        while (jarEntries.hasMoreElements()) {
-            JarEntry je = jarEntries.nextElement();
-            jout.putNextEntry(je);
-            InputStream jin = jf.getInputStream(je);
-            copyfile(jout, jin);
-            jin.close();
-        }
-        jf.close();
+        long start = System.nanoTime();
+        long bytes = getJarSigner().signOriginal(new File(jfile));
+        reportThroughput(jfile, bytes, System.nanoTime() - start);
     }
 }
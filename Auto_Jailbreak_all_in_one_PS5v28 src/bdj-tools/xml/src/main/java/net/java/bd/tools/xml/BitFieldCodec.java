@@ -0,0 +1,426 @@
+
+/*  
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.xml;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table-driven codec for the fixed-size bit-field structures of the BD
+ * binary formats (BDJO, index.bdmv, MovieObject.bdmv).  A layout
+ * is declared once as a list of "name:bits" fields, most significant bit
+ * first as in the syntax tables of the BD-ROM specification, for example
+ * <pre>
+ *    reserved:1 initial_output_mode_preference:1 SS_content_exist_flag:1
+ *    reserved:5 video_format:4 frame_rate:4
+ * </pre>
+ * Fields named "reserved" (or starting with "reserved_") are skipped on
+ * decode and written as zero.  The layout is compiled into flat arrays of
+ * (offset, width) descriptors, and a whole structure is decoded into or
+ * encoded from a long[] of field values in one loop; byte-aligned 8, 16,
+ * 32 and 64 bit fields are read and written as whole words.
+ * <p>
+ * None of the decode and encode methods allocate:  values are decoded
+ * into a long[] supplied by the caller, which can be reused.  Structures
+ * of up to 8 bytes, which covers all of the flag words of the BD formats,
+ * can also be read into a single long with {@link #readBits(DataInput)}
+ * and taken apart with {@link #getField(long, int)}, with no array at all.
+ * {@link #read(DataInput, long[])} and {@link #write(DataOutput, long[])}
+ * only allocate a byte[] for structures longer than 8 bytes.  Structures
+ * made only of whole bytes and words, like the header of id.bdmv, are
+ * still simpler to read directly with DataInput.
+ * <p>
+ * Codecs are immutable and may be shared between threads.
+ */
+public final class BitFieldCodec {
+
+    private static final int GENERIC = 0;
+    private static final int ALIGNED_8 = 1;
+    private static final int ALIGNED_16 = 2;
+    private static final int ALIGNED_32 = 3;
+    private static final int ALIGNED_64 = 4;
+
+    private final String[] names;
+    private final int[] offsets;    // bit offset of each field
+    private final int[] widths;     // width of each field in bits
+    private final int[] kinds;
+    private final int size;         // in bytes
+
+    private BitFieldCodec(List<String> names, List<Integer> offsets,
+                          List<Integer> widths, int sizeInBits)
+    {
+        int n = names.size();
+        this.names = names.toArray(new String[n]);
+        this.offsets = new int[n];
+        this.widths = new int[n];
+        this.kinds = new int[n];
+        for (int i = 0; i < n; i++) {
+            int off = offsets.get(i);
+            int w = widths.get(i);
+            this.offsets[i] = off;
+            this.widths[i] = w;
+            if ((off & 7) != 0) {
+                kinds[i] = GENERIC;
+            } else if (w == 8) {
+                kinds[i] = ALIGNED_8;
+            } else if (w == 16) {
+                kinds[i] = ALIGNED_16;
+            } else if (w == 32) {
+                kinds[i] = ALIGNED_32;
+            } else if (w == 64) {
+                kinds[i] = ALIGNED_64;
+            } else {
+                kinds[i] = GENERIC;
+            }
+        }
+        this.size = sizeInBits / 8;
+    }
+
+    /**
+     * Compiles a layout given as whitespace-separated "name:bits" fields.
+     *
+     * @throws IllegalArgumentException if a field is malformed, wider than
+     *         64 bits, or the layout isn't a whole number of bytes.
+     */
+    public static BitFieldCodec compile(String layout) {
+        List<String> names = new ArrayList<String>();
+        List<Integer> offsets = new ArrayList<Integer>();
+        List<Integer> widths = new ArrayList<Integer>();
+        int bits = 0;
+        for (String field : layout.trim().split("\\s+")) {
+            int colon = field.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Bad field \"" + field
+                                                   + "\" in " + layout);
+            }
+            String name = field.substring(0, colon);
+            int width;
+            try {
+                width = Integer.parseInt(field.substring(colon + 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Bad width in \"" + field
+                                                   + "\"");
+            }
+            if (width <= 0) {
+                throw new IllegalArgumentException("Bad width in \"" + field
+                                                   + "\"");
+            }
+            if (!isReserved(name)) {
+                if (width > 64) {
+                    throw new IllegalArgumentException("Field " + name
+                                        + " is wider than 64 bits");
+                }
+                if (names.contains(name)) {
+                    throw new IllegalArgumentException("Duplicate field "
+                                                       + name);
+                }
+                names.add(name);
+                offsets.add(bits);
+                widths.add(width);
+            }
+            bits += width;
+        }
+        if ((bits & 7) != 0) {
+            throw new IllegalArgumentException("Layout is " + bits
+                                + " bits, not a whole number of bytes");
+        }
+        return new BitFieldCodec(names, offsets, widths, bits);
+    }
+
+    private static boolean isReserved(String name) {
+        return name.equals("reserved") || name.startsWith("reserved_");
+    }
+
+    /**
+     * @return the size of the structure in bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of (non-reserved) fields, which is the length of
+     *         the value arrays used by this codec
+     */
+    public int getFieldCount() {
+        return names.length;
+    }
+
+    /**
+     * @return the index of the named field in the value array, or -1
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getFieldName(int index) {
+        return names[index];
+    }
+
+    public int getFieldWidth(int index) {
+        return widths[index];
+    }
+
+    /**
+     * @return the offset of the field from the start of the structure,
+     *         in bits
+     */
+    public int getFieldOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Decodes the structure that starts at the absolute position off of
+     * buf.  Field values are zero-extended into values.
+     */
+    public void decode(ByteBuffer buf, int off, long[] values) {
+        for (int i = 0; i < offsets.length; i++) {
+            int bitOff = offsets[i];
+            int pos = off + (bitOff >>> 3);
+            switch (kinds[i]) {
+                case ALIGNED_8:
+                    values[i] = buf.get(pos) & 0xffL;
+                    break;
+                case ALIGNED_16:
+                    values[i] = buf.getShort(pos) & 0xffffL;
+                    break;
+                case ALIGNED_32:
+                    values[i] = buf.getInt(pos) & 0xffffffffL;
+                    break;
+                case ALIGNED_64:
+                    values[i] = buf.getLong(pos);
+                    break;
+                default:
+                    values[i] = decodeBits(buf, pos, bitOff & 7, widths[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Decodes the structure at the buffer's position, and advances the
+     * position past it.
+     */
+    public void decode(ByteBuffer buf, long[] values) {
+        int off = buf.position();
+        decode(buf, off, values);
+        buf.position(off + size);
+    }
+
+    /**
+     * Reads and decodes one structure from in into values, which must
+     * have getFieldCount() elements.  This only allocates for structures
+     * longer than 8 bytes.
+     */
+    public void read(DataInput in, long[] values) throws IOException {
+        if (size <= 8) {
+            long bits = readBits(in);
+            for (int i = 0; i < offsets.length; i++) {
+                values[i] = getField(bits, i);
+            }
+        } else {
+            byte[] b = new byte[size];
+            in.readFully(b);
+            decode(ByteBuffer.wrap(b), 0, values);
+        }
+    }
+
+    /**
+     * Reads one structure of up to 8 bytes from in, and returns its bits
+     * right-justified in a long, for {@link #getField(long, int)}.
+     *
+     * @throws IllegalStateException if the structure is longer than 8 bytes
+     */
+    public long readBits(DataInput in) throws IOException {
+        if (size > 8) {
+            throw new IllegalStateException(size + " byte structure");
+        }
+        long bits = 0;
+        for (int i = 0; i < size; i++) {
+            bits = (bits << 8) | in.readUnsignedByte();
+        }
+        return bits;
+    }
+
+    /**
+     * Takes a field out of a structure read by {@link #readBits(DataInput)}.
+     *
+     * @return the value of the field, zero-extended
+     */
+    public long getField(long bits, int index) {
+        int shift = size * 8 - offsets[index] - widths[index];
+        return mask(bits >>> shift, widths[index]);
+    }
+
+    private static long mask(long value, int width) {
+        return (width == 64) ? value : (value & ((1L << width) - 1));
+    }
+
+    private static long decodeBits(ByteBuffer buf, int pos, int skip,
+                                   int width)
+    {
+        long result = 0;
+        int bitsInByte = 8 - skip;
+        while (width > 0) {
+            int b = buf.get(pos++) & 0xff;
+            int n = (width < bitsInByte) ? width : bitsInByte;
+            int shift = bitsInByte - n;
+            result = (result << n) | ((b >> shift) & ((1 << n) - 1));
+            width -= n;
+            bitsInByte = 8;
+        }
+        return result;
+    }
+
+    /**
+     * Encodes values into the structure that starts at the absolute
+     * position off of buf.  Reserved bits are written as zero; each value
+     * is truncated to its field width.
+     */
+    public void encode(long[] values, ByteBuffer buf, int off) {
+        for (int i = 0; i < size; i++) {
+            buf.put(off + i, (byte) 0);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            int bitOff = offsets[i];
+            int pos = off + (bitOff >>> 3);
+            long v = values[i];
+            switch (kinds[i]) {
+                case ALIGNED_8:
+                    buf.put(pos, (byte) v);
+                    break;
+                case ALIGNED_16:
+                    buf.putShort(pos, (short) v);
+                    break;
+                case ALIGNED_32:
+                    buf.putInt(pos, (int) v);
+                    break;
+                case ALIGNED_64:
+                    buf.putLong(pos, v);
+                    break;
+                default:
+                    encodeBits(buf, pos, bitOff & 7, widths[i], v);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Encodes values at the buffer's position, and advances the position
+     * past the structure.
+     */
+    public void encode(long[] values, ByteBuffer buf) {
+        int off = buf.position();
+        encode(values, buf, off);
+        buf.position(off + size);
+    }
+
+    /**
+     * Encodes values and writes the structure to out.  This only
+     * allocates for structures longer than 8 bytes.
+     */
+    public void write(DataOutput out, long[] values) throws IOException {
+        if (size <= 8) {
+            long bits = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                int shift = size * 8 - offsets[i] - widths[i];
+                bits |= mask(values[i], widths[i]) << shift;
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                out.writeByte((int) (bits >>> (i * 8)));
+            }
+        } else {
+            byte[] b = new byte[size];
+            encode(values, ByteBuffer.wrap(b), 0);
+            out.write(b);
+        }
+    }
+
+    private static void encodeBits(ByteBuffer buf, int pos, int skip,
+                                   int width, long value)
+    {
+        int bitsInByte = 8 - skip;
+        while (width > 0) {
+            int n = (width < bitsInByte) ? width : bitsInByte;
+            int shift = bitsInByte - n;
+            int bits = (int) (value >>> (width - n)) & ((1 << n) - 1);
+            buf.put(pos, (byte) (buf.get(pos) | (bits << shift)));
+            pos++;
+            width -= n;
+            bitsInByte = 8;
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BitFieldCodec[");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(names[i]).append('@').append(offsets[i])
+              .append(':').append(widths[i]);
+        }
+        return sb.append("; ").append(size).append(" bytes]").toString();
+    }
+}
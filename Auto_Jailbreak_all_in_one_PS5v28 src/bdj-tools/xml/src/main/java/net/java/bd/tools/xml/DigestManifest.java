@@ -0,0 +1,323 @@
+
+/*  
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A manifest of SHA-256 digests of build inputs and outputs, used to skip
+ * the XML to binary conversions of the disc image build when nothing they
+ * depend on changed.  A conversion step records the digests of its input
+ * and output, and a version string for the tool that did it, once it has
+ * run; on the next build it is skipped if all three are still unchanged.
+ * The version string is normally made by {@link #toolVersion}, so a new
+ * build of a converter or of its writers re-runs the conversion.
+ * <p>
+ * Only the conversions are skipped.  The assembly plugin still copies the
+ * whole disc tree; the manifest just lists what changed in it.
+ * <p>
+ * The manifest is a properties file keyed by absolute path.  It is
+ * re-read before each update and written atomically, so the conversion
+ * steps of one build can share a single manifest file as long as they run
+ * one after another.
+ * <p>
+ * Run as a program, it records every file under the given files or
+ * directories and prints which of them changed since the last run:
+ * <pre>
+ *    DigestManifest &lt;manifest&gt; &lt;file-or-dir&gt; ...
+ * </pre>
+ */
+public final class DigestManifest {
+
+    private final File file;
+    private final Properties digests = new Properties();
+
+    /**
+     * Loads the manifest from the given file.  A missing file is treated as
+     * an empty manifest.
+     */
+    public DigestManifest(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    private void load() throws IOException {
+        digests.clear();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                digests.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static String key(File f) {
+        return f.getAbsolutePath().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns true if the input and the output both exist, and the last
+     * call to {@link #record} for output was made by the same version of
+     * the tool, from this input, and with this output.
+     */
+    public boolean isUpToDate(File input, File output, String tool)
+            throws IOException {
+        if (!input.isFile() || !output.isFile()) {
+            return false;
+        }
+        String recorded = digests.getProperty(key(output));
+        return recorded != null
+               && recorded.equals(entry(input, output, tool));
+    }
+
+    /**
+     * Records that tool converted input to output, with the current
+     * digests of both files, and saves the manifest.
+     */
+    public synchronized void record(File input, File output, String tool)
+            throws IOException {
+        load();
+        digests.setProperty(key(output), entry(input, output, tool));
+        save();
+    }
+
+    private static String entry(File input, File output, String tool)
+            throws IOException {
+        return tool + " " + digest(input) + " " + digest(output);
+    }
+
+    /**
+     * Makes a version string for a tool from the code it runs: the digest
+     * of the jar files (or class directories) the given classes were
+     * loaded from.  Callers pass a class from each module whose code
+     * determines the tool's output, e.g. the tool's main class, this
+     * class for the shared JAXB support and bit-field codec, and 
+     * BitStreamIO for the tools that write with GRIN's bit I/O.
+     */
+    public static String toolVersion(Class<?>... classes) throws IOException {
+        MessageDigest md = newDigest();
+        for (Class<?> c : classes) {
+            File f;
+            try {
+                f = new File(c.getProtectionDomain().getCodeSource()
+                             .getLocation().toURI());
+            } catch (Exception ex) {
+                // No code source we can read, e.g. a class from the JDK
+                md.update(c.getName().getBytes("UTF-8"));
+                continue;
+            }
+            List<File> files = new ArrayList<File>();
+            collect(f, files);
+            Set<String> sorted = new TreeSet<String>();
+            for (File file : files) {
+                sorted.add(key(file));
+            }
+            for (String path : sorted) {
+                md.update(digest(new File(path)).getBytes("UTF-8"));
+            }
+        }
+        return toHex(md.digest()).substring(0, 16);
+    }
+
+    /**
+     * Records the digests of all the files under the given files or
+     * directories, drops entries under them that no longer exist, and
+     * saves the manifest.
+     *
+     * @return  The paths that were added, changed or removed, sorted
+     */
+    public synchronized List<String> update(File... roots) throws IOException {
+        load();
+        Set<String> changed = new TreeSet<String>();
+        for (File root : roots) {
+            String prefix = key(root);
+            List<String> stale = new ArrayList<String>();
+            for (String k : digests.stringPropertyNames()) {
+                if (k.equals(prefix) || k.startsWith(prefix + "/")) {
+                    stale.add(k);
+                }
+            }
+            List<File> files = new ArrayList<File>();
+            collect(root, files);
+            for (File f : files) {
+                String k = key(f);
+                String d = digest(f);
+                stale.remove(k);
+                if (!d.equals(digests.getProperty(k))) {
+                    digests.setProperty(k, d);
+                    changed.add(k);
+                }
+            }
+            for (String k : stale) {
+                digests.remove(k);
+                changed.add(k);
+            }
+        }
+        save();
+        return new ArrayList<String>(changed);
+    }
+
+    private static void collect(File f, List<File> files) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        } else if (f.isFile()) {
+            files.add(f);
+        }
+    }
+
+    private void save() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        digests.store(bos, "SHA-256 digests of disc image inputs and outputs");
+        File dir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        Path tmp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+        try {
+            OutputStream out = Files.newOutputStream(tmp);
+            try {
+                out.write(bos.toByteArray());
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file as a lower-case hex string.
+     */
+    public static String digest(File f) throws IOException {
+        MessageDigest md = newDigest();
+        byte[] buf = new byte[32 * 1024];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String toHex(byte[] d) {
+        StringBuilder sb = new StringBuilder(d.length * 2);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(d[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.printf("Usage: %s <manifest> <file-or-dir> ...%n",
+                              DigestManifest.class.getName());
+            System.exit(1);
+        }
+        File[] roots = new File[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            roots[i - 1] = new File(args[i]);
+        }
+        List<String> changed = new DigestManifest(new File(args[0]))
+                .update(roots);
+        if (changed.isEmpty()) {
+            System.out.println("No disc image inputs changed");
+        } else {
+            for (String path : changed) {
+                System.out.println("Changed: " + path);
+            }
+        }
+    }
+}
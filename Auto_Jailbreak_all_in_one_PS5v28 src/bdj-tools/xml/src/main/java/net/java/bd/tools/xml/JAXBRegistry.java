@@ -0,0 +1,251 @@
+
+/*  
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.xml;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.helpers.DefaultValidationEventHandler;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * A JVM-wide registry of JAXB state for the BD tools.  Creating a
+ * <code>JAXBContext</code> is by far the most expensive step of a JAXB
+ * round trip, so contexts are built once per package and kept here.
+ * Marshallers and unmarshallers are not thread-safe, so they are pooled
+ * per package instead: a caller borrows one for the duration of a single
+ * call and returns it afterwards.  Compiled XSD schemas are cached by
+ * file as well.
+ * <p>
+ * All methods are thread-safe.
+ */
+public final class JAXBRegistry {
+    // don't create me!
+    private JAXBRegistry() {}
+
+    private static final ConcurrentHashMap<String, Entry> entries
+            = new ConcurrentHashMap<String, Entry>();
+    private static final ConcurrentHashMap<String, Schema> schemas
+            = new ConcurrentHashMap<String, Schema>();
+
+    /**
+     * JAXB state for the classes of one package.
+     */
+    private static final class Entry {
+        final JAXBContext context;
+        final Queue<Marshaller> marshallers
+                = new ConcurrentLinkedQueue<Marshaller>();
+        final Queue<Unmarshaller> unmarshallers
+                = new ConcurrentLinkedQueue<Unmarshaller>();
+        volatile Schema schema;
+
+        Entry(JAXBContext context) {
+            this.context = context;
+        }
+    }
+
+    private static String packageOf(Class<?> type) {
+        String className = type.getName();
+        return className.substring(0, className.lastIndexOf('.'));
+    }
+
+    private static Entry getEntry(Class<?> type) throws JAXBException {
+        String pkgName = packageOf(type);
+        Entry e = entries.get(pkgName);
+        if (e == null) {
+            // Two threads may race to build the context; only one is kept.
+            Entry created = new Entry(JAXBContext.newInstance(pkgName,
+                    type.getClassLoader()));
+            e = entries.putIfAbsent(pkgName, created);
+            if (e == null) {
+                e = created;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Returns the shared context for the package of the given class.
+     */
+    public static JAXBContext getContext(Class<?> type) throws JAXBException {
+        return getEntry(type).context;
+    }
+
+    /**
+     * Returns the compiled schema for the given XSD file.  Each file is
+     * only compiled once.
+     */
+    public static Schema getSchema(File xsd) throws SAXException {
+        String key = xsd.getAbsolutePath();
+        Schema s = schemas.get(key);
+        if (s == null) {
+            SchemaFactory sf = SchemaFactory.newInstance(
+                    XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            Schema created = sf.newSchema(xsd);
+            s = schemas.putIfAbsent(key, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Validates all subsequent marshalling and unmarshalling of the classes
+     * in the package of the given class against the given XSD file.  Pass
+     * null to turn validation off again.
+     */
+    public static void setSchema(Class<?> type, File xsd)
+            throws JAXBException, SAXException
+    {
+        getEntry(type).schema = (xsd == null) ? null : getSchema(xsd);
+    }
+
+    private static Unmarshaller borrowUnmarshaller(Entry e)
+            throws JAXBException
+    {
+        Unmarshaller u = e.unmarshallers.poll();
+        if (u == null) {
+            u = e.context.createUnmarshaller();
+            u.setEventHandler(new DefaultValidationEventHandler());
+        }
+        u.setSchema(e.schema);
+        return u;
+    }
+
+    private static Marshaller borrowMarshaller(Entry e) throws JAXBException {
+        Marshaller m = e.marshallers.poll();
+        if (m == null) {
+            m = e.context.createMarshaller();
+            m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            m.setEventHandler(new DefaultValidationEventHandler());
+        }
+        m.setSchema(e.schema);
+        return m;
+    }
+
+    /**
+     * Unmarshals an object of the given type from a reader.
+     */
+    public static <T> T unmarshal(Class<T> type, Reader reader)
+            throws JAXBException
+    {
+        Entry e = getEntry(type);
+        Unmarshaller u = borrowUnmarshaller(e);
+        try {
+            return type.cast(u.unmarshal(reader));
+        } finally {
+            e.unmarshallers.offer(u);
+        }
+    }
+
+    /**
+     * Unmarshals an object of the given type from a stream.
+     */
+    public static <T> T unmarshal(Class<T> type, InputStream in)
+            throws JAXBException
+    {
+        Entry e = getEntry(type);
+        Unmarshaller u = borrowUnmarshaller(e);
+        try {
+            return type.cast(u.unmarshal(in));
+        } finally {
+            e.unmarshallers.offer(u);
+        }
+    }
+
+    /**
+     * Marshals an object as formatted UTF-8 XML to a writer.
+     */
+    public static void marshal(Object obj, Writer writer)
+            throws JAXBException
+    {
+        Entry e = getEntry(obj.getClass());
+        Marshaller m = borrowMarshaller(e);
+        try {
+            m.marshal(obj, writer);
+        } finally {
+            e.marshallers.offer(m);
+        }
+    }
+
+    /**
+     * Marshals an object as formatted UTF-8 XML to a stream.
+     */
+    public static void marshal(Object obj, OutputStream out)
+            throws JAXBException
+    {
+        Entry e = getEntry(obj.getClass());
+        Marshaller m = borrowMarshaller(e);
+        try {
+            m.marshal(obj, out);
+        } finally {
+            e.marshallers.offer(m);
+        }
+    }
+}
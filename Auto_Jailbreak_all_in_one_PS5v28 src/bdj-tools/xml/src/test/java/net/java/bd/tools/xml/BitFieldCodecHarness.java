@@ -0,0 +1,275 @@
+
+/*  
+ * Copyright (c) 2009, Sun Microsystems, Inc.
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of Sun Microsystems nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Note:  In order to comply with the binary form redistribution 
+ *         requirement in the above license, the licensee may include 
+ *         a URL reference to a copy of the required copyright notice, 
+ *         the list of conditions and the disclaimer in a human readable 
+ *         file with the binary form of the code that is subject to the
+ *         above license.  For example, such file could be put on a 
+ *         Blu-ray disc containing the binary form of the code or could 
+ *         be put in a JAR file that is broadcast via a digital television 
+ *         broadcast medium.  In any event, you must include in any end 
+ *         user licenses governing any code that includes the code subject 
+ *         to the above license (in source and/or binary form) a disclaimer 
+ *         that is at least as protective of Sun as the disclaimers in the 
+ *         above license.
+ * 
+ *         A copy of the required copyright notice, the list of conditions and
+ *         the disclaimer will be maintained at 
+ *         https://hdcookbook.dev.java.net/misc/license.html .
+ *         Thus, licensees may comply with the binary form redistribution
+ *         requirement with a text file that contains the following text:
+ * 
+ *             A copy of the license(s) governing this code is located
+ *             at https://hdcookbook.dev.java.net/misc/license.html
+ */
+package net.java.bd.tools.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fuzz and timing harness for {@link BitFieldCodec}.  It checks encode and
+ * decode, and reading and writing through data streams, against a
+ * bit-at-a-time reference implementation for random layouts and values,
+ * then times decoding and encoding of each layout.
+ * <pre>
+ *    BitFieldCodecHarness [-seed n] [-layouts n] [-iterations n] [layout ...]
+ * </pre>
+ * Each layout argument is a quoted "name:bits ..." string, as accepted by
+ * {@link BitFieldCodec#compile}; without any, random layouts are timed.
+ */
+public class BitFieldCodecHarness {
+
+    public static void main(String[] args) throws IOException {
+        long seed = System.nanoTime();
+        int numLayouts = 1000;
+        int iterations = 1000000;
+        List<String> layouts = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-seed") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-layouts") && i + 1 < args.length) {
+                numLayouts = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else {
+                layouts.add(args[i]);
+            }
+        }
+        Random rand = new Random(seed);
+        System.out.println("Fuzzing " + numLayouts + " layouts, seed " + seed);
+        for (int i = 0; i < numLayouts; i++) {
+            String layout = randomLayout(rand);
+            if (!fuzz(BitFieldCodec.compile(layout), layout, rand, 20)) {
+                System.exit(1);
+            }
+        }
+        System.out.println("Fuzzing passed");
+
+        if (layouts.isEmpty()) {
+            for (int i = 0; i < 4; i++) {
+                layouts.add(randomLayout(rand));
+            }
+        }
+        for (String layout : layouts) {
+            BitFieldCodec codec = BitFieldCodec.compile(layout);
+            if (!fuzz(codec, layout, rand, 100)) {
+                System.exit(1);
+            }
+            time(codec, iterations, rand);
+        }
+    }
+
+    private static String randomLayout(Random rand) {
+        StringBuilder sb = new StringBuilder();
+        int bits = 0;
+        int n = 1 + rand.nextInt(12);
+        for (int i = 0; i < n; i++) {
+            int width;
+            int r = rand.nextInt(4);
+            if (r == 0) {
+                width = 8 << rand.nextInt(4);   // 8, 16, 32 or 64
+            } else if (r == 1) {
+                width = 1 + rand.nextInt(64);
+            } else {
+                width = 1 + rand.nextInt(8);
+            }
+            if (rand.nextInt(5) == 0) {
+                sb.append("reserved:");
+            } else {
+                sb.append("f").append(i).append(':');
+            }
+            sb.append(width).append(' ');
+            bits += width;
+        }
+        if ((bits & 7) != 0) {
+            sb.append("reserved_for_byte_align:").append(8 - (bits & 7));
+        }
+        return sb.toString();
+    }
+
+    private static boolean fuzz(BitFieldCodec codec, String layout,
+                                Random rand, int rounds)
+            throws IOException
+    {
+        int n = codec.getFieldCount();
+        long[] values = new long[n];
+        long[] decoded = new long[n];
+        byte[] expected = new byte[codec.size()];
+        int pad = rand.nextInt(5);
+        ByteBuffer buf = ByteBuffer.allocate(codec.size() + pad);
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < n; i++) {
+                values[i] = mask(rand.nextLong(), codec.getFieldWidth(i));
+            }
+            referenceEncode(codec, values, expected);
+            for (int i = 0; i < buf.capacity(); i++) {
+                buf.put(i, (byte) rand.nextInt());
+            }
+            codec.encode(values, buf, pad);
+            for (int i = 0; i < expected.length; i++) {
+                if (buf.get(pad + i) != expected[i]) {
+                    System.out.println("Encode mismatch at byte " + i
+                                       + " for " + layout);
+                    return false;
+                }
+            }
+            codec.decode(buf, pad, decoded);
+            if (!check(codec, values, decoded, "Decode", layout)) {
+                return false;
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            codec.write(new DataOutputStream(bos), values);
+            byte[] written = bos.toByteArray();
+            for (int i = 0; i < expected.length; i++) {
+                if (written[i] != expected[i]) {
+                    System.out.println("Write mismatch at byte " + i
+                                       + " for " + layout);
+                    return false;
+                }
+            }
+            codec.read(new DataInputStream(
+                    new ByteArrayInputStream(expected)), decoded);
+            if (!check(codec, values, decoded, "Read", layout)) {
+                return false;
+            }
+            if (codec.size() <= 8) {
+                long bits = codec.readBits(new DataInputStream(
+                        new ByteArrayInputStream(expected)));
+                for (int i = 0; i < n; i++) {
+                    decoded[i] = codec.getField(bits, i);
+                }
+                if (!check(codec, values, decoded, "Packed read", layout)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean check(BitFieldCodec codec, long[] values,
+                                 long[] decoded, String what, String layout)
+    {
+        for (int i = 0; i < values.length; i++) {
+            if (decoded[i] != values[i]) {
+                System.out.println(what + " mismatch for field "
+                                   + codec.getFieldName(i) + " of "
+                                   + layout);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mask(long v, int width) {
+        return (width == 64) ? v : (v & ((1L << width) - 1));
+    }
+
+    /*
+     * Writes the fields one bit at a time, walking the layout in order.
+     */
+    private static void referenceEncode(BitFieldCodec codec, long[] values,
+                                        byte[] out)
+    {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = 0;
+        }
+        int fields = codec.getFieldCount();
+        for (int f = 0; f < fields; f++) {
+            int width = codec.getFieldWidth(f);
+            int bitPos = codec.getFieldOffset(f);
+            for (int b = width - 1; b >= 0; b--, bitPos++) {
+                if (((values[f] >>> b) & 1) != 0) {
+                    out[bitPos >> 3] |= (byte) (0x80 >> (bitPos & 7));
+                }
+            }
+        }
+    }
+
+    private static void time(BitFieldCodec codec, int iterations,
+                             Random rand)
+    {
+        int n = codec.getFieldCount();
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = mask(rand.nextLong(), codec.getFieldWidth(i));
+        }
+        ByteBuffer buf = ByteBuffer.allocate(codec.size());
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.encode(values, buf, 0);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            codec.decode(buf, 0, values);
+            sink += (n > 0) ? values[0] : 0;
+        }
+        long decodeNanos = System.nanoTime() - start;
+        System.out.println(codec);
+        System.out.println(String.format(
+                "    decode %.1f ns, encode %.1f ns per structure%s",
+                (double) decodeNanos / iterations,
+                (double) encodeNanos / iterations,
+                (sink == 42) ? " " : ""));
+    }
+}